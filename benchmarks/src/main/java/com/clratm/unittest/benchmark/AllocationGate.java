@@ -0,0 +1,106 @@
+/*
+ * File: AllocationGate.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Properties;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler and checks the bytes allocated per
+ * operation against the budgets in allocation-budgets.properties, so that a
+ * regression in probe cost fails the run. Accepts the usual JMH command line,
+ * e.g. a regular expression selecting the benchmarks to run.
+ * <p>
+ * Budgets are keyed by the benchmark class and method followed by each
+ * parameter value, e.g. <code>ProbeBenchmark.input.int</code>.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+public class AllocationGate {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+		Properties budgets = new Properties();
+		InputStream in = AllocationGate.class.getResourceAsStream("/allocation-budgets.properties");
+		try {
+			budgets.load(in);
+		} finally {
+			in.close();
+		}
+
+		Options options = new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build();
+		Collection<RunResult> results = new Runner(options).run();
+
+		int failures = 0;
+		System.out.println();
+		System.out.format("%-50s%15s%15s%10s\n", "Benchmark", "Bytes/op", "Budget", "");
+		for (RunResult result : results) {
+			String key = budgetKey(result.getParams());
+			double allocated = allocatedPerOp(result);
+			String budget = budgets.getProperty(key);
+
+			String verdict;
+			if (budget == null) {
+				verdict = "NO BUDGET";
+				failures++;
+			} else if (Double.isNaN(allocated)) {
+				verdict = "NOT MEASURED";
+				failures++;
+			} else if (allocated > Double.parseDouble(budget)) {
+				verdict = "OVER";
+				failures++;
+			} else {
+				verdict = "OK";
+			}
+			System.out.format("%-50s%15.0f%15s%10s\n", key, allocated, budget == null ? "-" : budget, verdict);
+		}
+
+		if (failures > 0) {
+			System.out.println("\n" + failures + " benchmark(s) failed the allocation check");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return the budget key of a benchmark, its simple class and method name
+	 *         followed by its parameter values
+	 */
+	private static String budgetKey(BenchmarkParams params) {
+		String benchmark = params.getBenchmark();
+		String key = benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1);
+		for (String param : params.getParamsKeys()) {
+			key += "." + params.getParam(param);
+		}
+		return key;
+	}
+
+	/**
+	 * @return the normalized allocation rate measured by the GC profiler, or
+	 *         NaN if it was not reported
+	 */
+	private static double allocatedPerOp(RunResult result) {
+		for (String label : new String[] { "gc.alloc.rate.norm", "\u00b7gc.alloc.rate.norm" }) {
+			Result<?> allocation = result.getSecondaryResults().get(label);
+			if (allocation != null) {
+				return allocation.getScore();
+			}
+		}
+		return Double.NaN;
+	}
+}
@@ -0,0 +1,25 @@
+/*
+ * File: JavaMD5Benchmark.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.benchmark;
+
+import org.openjdk.jmh.annotations.Fork;
+
+/**
+ * MD5 benchmarks using only the pure Java implementation.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+@Fork(value = 1, jvmArgsAppend = "-Dcom.twmacinta.util.MD5.NO_NATIVE_LIB=true")
+public class JavaMD5Benchmark extends MD5Benchmark {
+
+	@Override
+	protected void checkImplementation(boolean nativeLoaded) {
+		if (nativeLoaded) {
+			throw new IllegalStateException("The native MD5 library was loaded despite NO_NATIVE_LIB");
+		}
+	}
+}
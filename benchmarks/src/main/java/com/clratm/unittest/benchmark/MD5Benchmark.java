@@ -0,0 +1,73 @@
+/*
+ * File: MD5Benchmark.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twmacinta.util.MD5;
+
+/**
+ * Measures MD5.Update and MD5.Final for small and large buffers. The native
+ * and pure Java implementations are selected per fork by the subclasses,
+ * since the choice cannot be changed once an MD5 object has been created.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class MD5Benchmark {
+
+	@Param({ "64", "1024", "65536" })
+	public int size;
+
+	private byte[] buffer;
+	private MD5 md5;
+
+	@Setup
+	public void setUp() {
+		buffer = new byte[size];
+		new Random(42).nextBytes(buffer);
+		md5 = new MD5();
+		checkImplementation(MD5.initNativeLibrary());
+	}
+
+	/**
+	 * Fails the benchmark if the wrong implementation was loaded.
+	 * 
+	 * @param nativeLoaded
+	 *            whether the native library is in use
+	 */
+	protected abstract void checkImplementation(boolean nativeLoaded);
+
+	@Benchmark
+	public MD5 update() {
+		md5.Update(buffer);
+		return md5;
+	}
+
+	@Benchmark
+	public byte[] updateAndFinal() {
+		MD5 hash = new MD5();
+		hash.Update(buffer);
+		return hash.Final();
+	}
+}
@@ -0,0 +1,26 @@
+/*
+ * File: NativeMD5Benchmark.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.benchmark;
+
+import org.openjdk.jmh.annotations.Fork;
+
+/**
+ * MD5 benchmarks using the native library from lib/arch, which is found
+ * relative to the working directory.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+@Fork(1)
+public class NativeMD5Benchmark extends MD5Benchmark {
+
+	@Override
+	protected void checkImplementation(boolean nativeLoaded) {
+		if (!nativeLoaded) {
+			throw new IllegalStateException("The native MD5 library was not found; run the benchmarks from the repository root");
+		}
+	}
+}
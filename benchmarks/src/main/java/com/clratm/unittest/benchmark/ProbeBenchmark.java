@@ -0,0 +1,92 @@
+/*
+ * File: ProbeBenchmark.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.clratm.unittest.Tester;
+import com.clratm.unittest.UnIdentifiableException;
+
+/**
+ * Measures the cost of the probes a tested method makes: input(), load() and
+ * log(), for each kind of value, with the tester enabled and disabled. Each
+ * benchmark method is its own call site, just like a tested method.
+ * <p>
+ * Every expected load() records a new result, so loadAndLog grows the
+ * tester's maps. Each iteration starts a new epoch, so that the maps only hold
+ * the cases of one iteration and of the one before it, and the cost measured
+ * does not depend on how long the benchmark has already run.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProbeBenchmark {
+
+	@Param({ "int", "String", "int[]", "Identifiable" })
+	public String kind;
+
+	private Values values;
+
+	/**
+	 * Never enabled, to measure the overhead of a disabled tester.
+	 */
+	private final Tester disabled = Tester.INSTANCE_5;
+
+	@Setup
+	public void setUp() throws UnIdentifiableException {
+		values = Values.of(kind);
+		Tester.INSTANCE.enable(true);
+		disabled.enable(false);
+	}
+
+	@Setup(Level.Iteration)
+	public void newEpoch() {
+		Tester.INSTANCE.newEpoch();
+	}
+
+	@Benchmark
+	public boolean input() throws UnIdentifiableException {
+		return Tester.INSTANCE.input(values.input, values.output);
+	}
+
+	@Benchmark
+	public boolean loadUnexpected() throws UnIdentifiableException {
+		return Tester.INSTANCE.load(values.unexpected);
+	}
+
+	@Benchmark
+	public boolean loadAndLog() throws UnIdentifiableException {
+		Tester.INSTANCE.input(values.input, values.output);
+		Tester.INSTANCE.load(values.input);
+		return Tester.INSTANCE.log(values.output);
+	}
+
+	@Benchmark
+	public boolean disabledProbes() throws UnIdentifiableException {
+		disabled.input(values.input, values.output);
+		disabled.load(values.input);
+		return disabled.log(values.output);
+	}
+}
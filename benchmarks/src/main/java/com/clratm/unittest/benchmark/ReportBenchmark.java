@@ -0,0 +1,102 @@
+/*
+ * File: ReportBenchmark.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.benchmark;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.clratm.unittest.Tester;
+import com.clratm.unittest.UnIdentifiableException;
+
+/**
+ * Measures how long the result and coverage reports, a snapshot of the tester
+ * and a diff against a baseline snapshot take to write for a tester holding
+ * 10k, 100k and 1M results. Each
+ * result comes from a separate input, spread over seven expected outputs.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class ReportBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int results;
+
+	private final Tester tester = Tester.INSTANCE_1;
+
+	private File out, snapshot, baseline;
+
+	@Setup
+	public void setUp() throws UnIdentifiableException, IOException {
+		tester.enable(true);
+		for (int i = 0; i < results; i++) {
+			remainder(i);
+		}
+		out = File.createTempFile("report", ".txt");
+		snapshot = File.createTempFile("snapshot", ".clrs");
+		baseline = File.createTempFile("baseline", ".clrs");
+		tester.snapshot(baseline.toPath());
+	}
+
+	/**
+	 * The tested method that fills the tester with results.
+	 */
+	private int remainder(int dividend) throws UnIdentifiableException {
+		tester.input(dividend, dividend % 7);
+		tester.load(dividend);
+		tester.log(dividend % 7);
+		return dividend % 7;
+	}
+
+	@TearDown
+	public void tearDown() {
+		out.delete();
+		snapshot.delete();
+		baseline.delete();
+	}
+
+	@Benchmark
+	public boolean resultReport() throws FileNotFoundException, UnsupportedEncodingException, UnIdentifiableException {
+		return tester.printResultReport(out, true);
+	}
+
+	@Benchmark
+	public boolean coverageReport() throws FileNotFoundException, UnIdentifiableException {
+		return tester.printCoverageReport(out, true);
+	}
+
+	@Benchmark
+	public boolean snapshot() throws IOException {
+		return tester.snapshot(snapshot.toPath());
+	}
+
+	@Benchmark
+	public int baselineDiff() throws IOException, UnIdentifiableException {
+		return tester.printBaselineDiff(baseline.toPath(), out);
+	}
+}
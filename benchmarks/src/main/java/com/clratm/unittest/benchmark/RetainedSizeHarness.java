@@ -0,0 +1,165 @@
+/*
+ * File: RetainedSizeHarness.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.clratm.unittest.Tester;
+import com.clratm.unittest.UnIdentifiableException;
+
+/**
+ * Measures the heap retained by a tester per test case with full, compact and
+ * off-heap results, and how long a full GC then takes. Each test case
+ * registers a String input and an expected output, then loads the input and
+ * logs a freshly computed, equal output, the way a tested method would. The
+ * outputs are either a List of 100 Integers or a String, whose input() calls
+ * are also remembered as registrations when results are full. Once every case
+ * has run, the harness drops its own references and measures the heap the
+ * tester still holds after a full GC. Each kind of result is measured in its
+ * own JVM, so the heap holds nothing else.
+ * <p>
+ * Usage: <code>RetainedSizeHarness [cases]</code>, by default 20000. Exits
+ * with status 1 if compact results are not at least 5 times smaller for List
+ * outputs, or are not smaller for String outputs.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+public class RetainedSizeHarness {
+
+	/**
+	 * The number of elements of each output.
+	 */
+	private static final int outputSize = 100;
+
+	private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	public static void main(String[] args) throws UnIdentifiableException, IOException, InterruptedException {
+		int cases = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		if (args.length > 2) {
+			// the child JVM of one kind of result
+			measure(args[1], args[2].equals("string"), cases);
+			return;
+		}
+
+		System.out.format("%12s%20s%20s%16s\n", "List", "Bytes per case", "Off-heap per case", "Full GC (ms)");
+		long full = fork("full", "list", cases);
+		long compact = fork("compact", "list", cases);
+		fork("off-heap", "list", cases);
+		double ratio = (double) full / compact;
+		System.out.format("Compact results are %.1fx smaller\n", ratio);
+
+		System.out.format("%12s%20s%20s%16s\n", "String", "Bytes per case", "Off-heap per case", "Full GC (ms)");
+		long fullString = fork("full", "string", cases);
+		long compactString = fork("compact", "string", cases);
+		fork("off-heap", "string", cases);
+		double stringRatio = (double) fullString / compactString;
+		System.out.format("Compact results are %.1fx smaller\n", stringRatio);
+
+		if (ratio < 5 || stringRatio <= 1) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Measures one kind of result in a new JVM and prints its row.
+	 *
+	 * @return the number of bytes retained in the heap per case
+	 */
+	private static long fork(String kind, String outputs, int cases) throws IOException, InterruptedException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), RetainedSizeHarness.class.getName(), Integer.toString(cases), kind,
+				outputs)
+				.redirectErrorStream(true).start();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		long retained = -1;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			System.out.println(line);
+			String[] columns = line.trim().split("\\s+");
+			if (columns.length == 4 && columns[0].equals(kind)) {
+				retained = Long.parseLong(columns[1]);
+			}
+		}
+		if (process.waitFor() != 0 || retained < 0) {
+			throw new IllegalStateException("Measuring " + kind + " results failed");
+		}
+		return retained;
+	}
+
+	/**
+	 * Runs the test cases on a fresh tester and prints one row of the report.
+	 */
+	private static void measure(String kind, boolean strings, int cases) throws UnIdentifiableException {
+		Tester tester = Tester.INSTANCE_4;
+		tester.setOffHeapResults(kind.equals("off-heap"));
+		tester.enable(true);
+		tester.setCompactResults(!kind.equals("full"));
+		long before = usedHeap();
+		for (int i = 0; i < cases; i++) {
+			if (strings) {
+				testString(tester, i);
+			} else {
+				test(tester, i);
+			}
+		}
+		long retained = usedHeap() - before;
+
+		long start = System.nanoTime();
+		System.gc();
+		long gc = System.nanoTime() - start;
+
+		System.out.format("%12s%20d%20d%16.1f\n", kind, retained / cases, tester.getOffHeapBytes() / cases, gc / 1e6);
+	}
+
+	/**
+	 * The tested method: its output is the input's number and the 99 numbers
+	 * after it, beyond the range of the cached Integers.
+	 */
+	private static List<Integer> test(Tester tester, int number) throws UnIdentifiableException {
+		String input = "case " + number;
+		tester.input(input, output(number));
+		tester.load(input);
+		List<Integer> output = output(number);
+		tester.log(output);
+		return output;
+	}
+
+	/**
+	 * The tested method with a String output, which is registered through the
+	 * repeat check of input().
+	 */
+	private static String testString(Tester tester, int number) throws UnIdentifiableException {
+		String input = "case " + number;
+		tester.input(input, "result " + number);
+		tester.load(input);
+		String output = "result " + number;
+		tester.log(output);
+		return output;
+	}
+
+	private static List<Integer> output(int number) {
+		List<Integer> output = new ArrayList<Integer>(outputSize);
+		for (int i = 0; i < outputSize; i++) {
+			output.add(1000 + number * outputSize + i);
+		}
+		return output;
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
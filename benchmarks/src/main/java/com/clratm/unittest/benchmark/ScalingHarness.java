@@ -0,0 +1,324 @@
+/*
+ * File: ScalingHarness.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.clratm.unittest.Result.Status;
+import com.clratm.unittest.Tester;
+import com.clratm.unittest.UnIdentifiableException;
+
+/**
+ * Drives 1 to 64 threads through input/load/log sequences on a single tester
+ * and reports throughput and latency percentiles for each thread count. After
+ * each run it checks that the tester lost nothing under contention: every
+ * expected output is counted exactly once, every expected input is registered
+ * once per thread, and every correctly logged result ended up PASSED.
+ * <p>
+ * Given a report period, every thread count is run twice, the second time
+ * with another thread printing the result and coverage reports to a file
+ * over and over, a period apart, so the rows show what the reports cost the
+ * probes.
+ * <p>
+ * Usage:
+ * <code>ScalingHarness [seconds per run] [max threads] [report period (ms)]</code>
+ * , by default 5 seconds, 64 threads and no reports. Exits with status 1 if
+ * an invariant is violated.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+public class ScalingHarness {
+
+	/**
+	 * Number of expected inputs registered by the tested method.
+	 */
+	private static final int inputs = 8;
+
+	/**
+	 * Number of distinct outputs the expected inputs map to.
+	 */
+	private static final int outputs = 4;
+
+	/**
+	 * Number of distinct inputs that were never registered.
+	 */
+	private static final int misses = 16;
+
+	/**
+	 * One in this many loaded values is unexpected.
+	 */
+	private static final int missRate = 10;
+
+	private final Tester tester = Tester.INSTANCE_2;
+
+	/**
+	 * Where the rows are printed, since the reports print to System.out.
+	 */
+	private static final PrintStream console = System.out;
+
+	/**
+	 * Values for the current run. Every run uses different values, so the
+	 * counts of one run can be told apart from those of earlier runs.
+	 */
+	private String[] expectedInputs, unexpectedInputs;
+	private Map<String, String> expectedOutputs;
+
+	// cumulative counts expected from the tester after each run
+	private long expectedPassed, expectedInputCount, expectedCovered;
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		long reportPeriod = args.length > 2 ? Long.parseLong(args[2]) : -1;
+
+		ScalingHarness harness = new ScalingHarness();
+		harness.tester.enable(true);
+		File reports = null;
+		if (reportPeriod >= 0) {
+			reports = File.createTempFile("report", ".txt");
+			reports.deleteOnExit();
+			System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		}
+
+		console.format("%8s%12s%14s%12s%12s%12s%12s%12s%12s\n", "Threads", "Ops", "Ops/s", "p50 (us)", "p99 (us)", "p99.9 (us)", "max (us)", "Reports", "Invariants");
+		boolean ok = true;
+		int run = 0;
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			ok &= harness.run(run++, threads, seconds * 1000L, null, 0);
+			if (reports != null) {
+				ok &= harness.run(run++, threads, seconds * 1000L, reports, reportPeriod);
+			}
+		}
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs the workload on the given number of threads and prints one row of
+	 * the report.
+	 *
+	 * @param reports
+	 *            the file to print reports to during the run, or null for none
+	 * @param reportPeriod
+	 *            the time between reports
+	 * @return true, if every invariant held after the run
+	 */
+	private boolean run(int run, int threads, long millis, File reports, long reportPeriod) throws InterruptedException {
+		expectedInputs = new String[inputs];
+		expectedOutputs = new HashMap<String, String>();
+		for (int i = 0; i < inputs; i++) {
+			expectedInputs[i] = "run " + run + " input " + i;
+			expectedOutputs.put(expectedInputs[i], "run " + run + " output " + (i % outputs));
+		}
+		unexpectedInputs = new String[misses];
+		for (int i = 0; i < misses; i++) {
+			unexpectedInputs[i] = "run " + run + " miss " + i;
+		}
+
+		final Worker[] workers = new Worker[threads];
+		final CountDownLatch start = new CountDownLatch(1);
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Worker(start);
+			workers[i].start();
+		}
+
+		long begin = System.nanoTime();
+		long deadline = begin + millis * 1000000L;
+		for (Worker worker : workers) {
+			worker.deadline = deadline;
+		}
+		Reporter reporter = null;
+		if (reports != null) {
+			reporter = new Reporter(reports, reportPeriod);
+			reporter.start();
+		}
+		start.countDown();
+		for (Worker worker : workers) {
+			worker.join();
+		}
+		long elapsed = System.nanoTime() - begin;
+		if (reporter != null) {
+			reporter.done = true;
+			reporter.join();
+			if (reporter.failure != null) {
+				throw new IllegalStateException("A report failed", reporter.failure);
+			}
+		}
+
+		// merge the per-thread latencies
+		int total = 0;
+		long passed = 0;
+		for (Worker worker : workers) {
+			total += worker.count;
+			passed += worker.expected;
+			if (worker.failure != null) {
+				throw new IllegalStateException("A tester call failed", worker.failure);
+			}
+		}
+		long[] latencies = new long[total];
+		int offset = 0;
+		for (Worker worker : workers) {
+			System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+			offset += worker.count;
+		}
+		Arrays.sort(latencies);
+
+		expectedPassed += passed;
+		expectedInputCount += (long) threads * inputs;
+		expectedCovered += outputs;
+		String violation = checkInvariants();
+
+		console.format("%8d%12d%14.0f%12.1f%12.1f%12.1f%12.1f%12s%12s\n", threads, total, total / (elapsed / 1e9), percentile(latencies, 0.50), percentile(latencies, 0.99),
+				percentile(latencies, 0.999), total == 0 ? 0 : latencies[total - 1] / 1e3, reporter == null ? "-" : String.valueOf(reporter.reports),
+				violation == null ? "OK" : "FAILED");
+		if (violation != null) {
+			console.println("  " + violation);
+		}
+		return violation == null;
+	}
+
+	/**
+	 * @return a description of the first violated invariant, or null if they
+	 *         all hold
+	 */
+	private String checkInvariants() {
+		int covered = tester.getCoveredCount();
+		int uncovered = tester.getUncoveredCount();
+		if (covered + uncovered != expectedCovered) {
+			return "expected outputs counted " + (covered + uncovered) + " times instead of " + expectedCovered;
+		}
+		if (uncovered != 0) {
+			return uncovered + " logged outputs were never marked as covered";
+		}
+		if (tester.getExpectedInputCount() != expectedInputCount) {
+			return tester.getExpectedInputCount() + " expected inputs registered instead of " + expectedInputCount;
+		}
+		int passed = tester.getResultCount(Status.PASSED);
+		if (passed != expectedPassed) {
+			return passed + " results PASSED instead of " + expectedPassed;
+		}
+		int failed = tester.getResultCount(Status.FAILED) + tester.getResultCount(Status.INCOMPLETE);
+		if (failed != 0) {
+			return failed + " correctly logged results are not PASSED";
+		}
+		return null;
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e3;
+	}
+
+	/**
+	 * The tested method: registers its expectations, loads the input and logs
+	 * the matching output.
+	 */
+	private String classify(String value) throws UnIdentifiableException {
+		for (int i = 0; i < inputs; i++) {
+			tester.input(expectedInputs[i], expectedOutputs.get(expectedInputs[i]));
+		}
+		tester.load(value);
+
+		String output = expectedOutputs.get(value);
+		if (output == null) {
+			output = "unknown";
+		}
+		tester.log(output);
+		return output;
+	}
+
+	/**
+	 * Calls the tested method in a loop until the deadline, recording the
+	 * latency of every call.
+	 */
+	private class Worker extends Thread {
+
+		private final CountDownLatch start;
+		volatile long deadline;
+
+		long[] latencies = new long[1 << 14];
+		int count;
+		long expected;
+		Throwable failure;
+
+		Worker(CountDownLatch start) {
+			this.start = start;
+		}
+
+		@Override
+		public void run() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			try {
+				start.await();
+				while (System.nanoTime() < deadline) {
+					String value;
+					if (random.nextInt(missRate) == 0) {
+						value = unexpectedInputs[random.nextInt(misses)];
+					} else {
+						value = expectedInputs[random.nextInt(inputs)];
+						expected++;
+					}
+
+					long begin = System.nanoTime();
+					classify(value);
+					long latency = System.nanoTime() - begin;
+
+					if (count == latencies.length) {
+						latencies = Arrays.copyOf(latencies, count << 1);
+					}
+					latencies[count++] = latency;
+				}
+			} catch (Throwable t) {
+				failure = t;
+			}
+		}
+	}
+
+	/**
+	 * Prints the result and coverage reports until the run is over, which
+	 * reads every result of the tester while the workers add to them.
+	 */
+	private class Reporter extends Thread {
+
+		private final File file;
+		private final long period;
+		volatile boolean done;
+
+		int reports;
+		Throwable failure;
+
+		Reporter(File file, long period) {
+			this.file = file;
+			this.period = period;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!done) {
+					tester.printResultReport(file, true);
+					tester.printCoverageReport(file, true);
+					reports++;
+					Thread.sleep(period);
+				}
+			} catch (Throwable t) {
+				failure = t;
+			}
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * File: UtilsBenchmark.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.clratm.unittest.TesterUtils;
+import com.clratm.unittest.UnIdentifiableException;
+
+/**
+ * Measures how long it takes to identify and to print each kind of value.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilsBenchmark {
+
+	@Param({ "int", "String", "int[]", "Identifiable", "List", "Set" })
+	public String kind;
+
+	private Object value;
+
+	@Setup
+	public void setUp() {
+		value = Values.of(kind).input;
+	}
+
+	@Benchmark
+	public byte[] byteify() throws UnIdentifiableException {
+		return TesterUtils.byteify(value);
+	}
+
+	@Benchmark
+	public String objectPrinter() throws UnIdentifiableException {
+		return TesterUtils.objectPrinter(value);
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * File: Values.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.clratm.unittest.IdentifiableCar;
+
+/**
+ * The values used by the benchmarks for each kind of object the tester can
+ * identify: an expected input, its expected output, and an input that was
+ * never registered.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+final class Values {
+
+	final Object input, output, unexpected;
+
+	private Values(Object input, Object output, Object unexpected) {
+		this.input = input;
+		this.output = output;
+		this.unexpected = unexpected;
+	}
+
+	/**
+	 * @param kind
+	 *            one of int, String, int[], Identifiable, List or Set
+	 * @return the values of that kind
+	 */
+	static Values of(String kind) {
+		switch (kind) {
+		case "int":
+			return new Values(2, true, 3);
+		case "String":
+			return new Values("input value", "expected output", "something else");
+		case "int[]":
+			return new Values(new int[] { 1, 2, 3, 4, 5, 6, 7, 8 }, new int[] { 8, 7, 6, 5, 4, 3, 2, 1 }, new int[] { 0 });
+		case "Identifiable":
+			return new Values(new IdentifiableCar(0, "Mustang", "Ford"), new IdentifiableCar(2000, "Mustang", "Ford"), new IdentifiableCar(1, "Model T", "Ford"));
+		case "List":
+			List<Integer> list = new ArrayList<Integer>();
+			for (int i = 0; i < 100; i++) {
+				list.add(i);
+			}
+			return new Values(list, list.size(), list.subList(0, 10));
+		case "Set":
+			Set<String> set = new HashSet<String>();
+			for (int i = 0; i < 100; i++) {
+				set.add("value " + i);
+			}
+			return new Values(set, set.size(), Collections.singleton("value"));
+		default:
+			throw new IllegalArgumentException("Unknown kind of value: " + kind);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * File: Geometry.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.fixture;
+
+import com.clratm.unittest.Expect;
+import com.clratm.unittest.Tester;
+import com.clratm.unittest.UnIdentifiableException;
+
+/**
+ * Tested methods whose expectations are only declared with @Expect, so they
+ * can only pass if the hashes computed by the ExpectProcessor at compile time
+ * match the ones the tester computes at runtime.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+public class Geometry {
+
+	/**
+	 * @param numToCheck
+	 *            the number to check
+	 * @return true, if the number is even
+	 * @throws UnIdentifiableException
+	 */
+	@Expect(input = "2", output = "true")
+	@Expect(input = "3", output = "false")
+	public boolean isEven(int numToCheck) throws UnIdentifiableException {
+		Tester.INSTANCE.load(numToCheck);
+		boolean even = numToCheck % 2 == 0;
+		Tester.INSTANCE.log(even);
+		return even;
+	}
+
+	/**
+	 * The input is identified by the generated encoder of Point, so the
+	 * declared input is its canonical identity.
+	 * 
+	 * @param point
+	 *            the point
+	 * @return the distance of the point from the origin along the axes
+	 * @throws UnIdentifiableException
+	 */
+	@Expect(input = "Point{x=3, y=-4, label=a}", output = "7")
+	public int manhattan(Point point) throws UnIdentifiableException {
+		Tester.INSTANCE.load(point);
+		int distance = Math.abs(point.x) + Math.abs(point.y);
+		Tester.INSTANCE.log(distance);
+		return distance;
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * File: Point.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.fixture;
+
+import com.clratm.unittest.Identity;
+
+/**
+ * A value identified by the encoder the IdentityProcessor generates for it.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+@Identity
+public class Point {
+
+	final int x, y;
+	final String label;
+
+	/**
+	 * @param x
+	 *            the horizontal coordinate
+	 * @param y
+	 *            the vertical coordinate
+	 * @param label
+	 *            the name of the point
+	 */
+	public Point(int x, int y, String label) {
+		this.x = x;
+		this.y = y;
+		this.label = label;
+	}
+}
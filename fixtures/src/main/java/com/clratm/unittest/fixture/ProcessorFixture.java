@@ -0,0 +1,113 @@
+/*
+ * File: ProcessorFixture.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.fixture;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.clratm.unittest.CallSiteStatistics;
+import com.clratm.unittest.Result.Status;
+import com.clratm.unittest.Tester;
+import com.clratm.unittest.TesterEpoch;
+import com.clratm.unittest.TesterUtils;
+import com.clratm.unittest.UnIdentifiableException;
+
+/**
+ * Checks the code generated for this project by the annotation processors.
+ * Exits with a non-zero status if a check fails, which fails the build.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+public class ProcessorFixture {
+
+	private static int failures = 0;
+
+	/**
+	 * Runs the checks.
+	 * 
+	 * @param args
+	 *            not used
+	 * @throws UnIdentifiableException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws UnIdentifiableException, InterruptedException {
+		Point point = new Point(3, -4, "a");
+
+		// the generated encoder writes the canonical identity, and the tester
+		// fingerprints the object with exactly those bytes
+		check("Point_Identity.id", "Point{x=3, y=-4, label=a}", Point_Identity.id(point));
+		check("byteify(Point)", Arrays.toString(TesterUtils.byteify("Point{x=3, y=-4, label=a}")), Arrays.toString(TesterUtils.byteify(point)));
+
+		// the generated registry declares its outputs when the tester is
+		// enabled, before the methods run
+		Tester.INSTANCE.enable(true);
+		check("declared outputs", "3", Integer.toString(Tester.INSTANCE.getUncoveredCount()));
+
+		// the compile time hashes match the runtime ones for every declaration
+		Geometry geometry = new Geometry();
+		geometry.isEven(2);
+		geometry.isEven(3);
+		geometry.manhattan(point);
+		check("passed", "3", Integer.toString(Tester.INSTANCE.getResultCount(Status.PASSED)));
+		check("failed", "0", Integer.toString(Tester.INSTANCE.getResultCount(Status.FAILED)));
+		check("unexpected", "0", Integer.toString(Tester.INSTANCE.getResultCount(Status.UNEXPECTED)));
+		check("covered outputs", "3", Integer.toString(Tester.INSTANCE.getCoveredCount()));
+
+		// the registry declares into a new epoch before it is published, so a
+		// probe racing the switch never sees an epoch without the declarations
+		final Geometry racing = geometry;
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicBoolean thrown = new AtomicBoolean();
+		Thread prober = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (!stop.get()) {
+						racing.isEven(2);
+					}
+				} catch (UnIdentifiableException e) {
+					thrown.set(true);
+				}
+			}
+		});
+		prober.start();
+		TesterEpoch[] retired = new TesterEpoch[1000];
+		int undeclared = 0;
+		for (int i = 0; i < retired.length; i++) {
+			retired[i] = Tester.INSTANCE.newEpoch();
+			if (Tester.INSTANCE.getEpoch().getExpectedCount() != 3) {
+				undeclared++;
+			}
+		}
+		stop.set(true);
+		prober.join();
+		long unexpected = 0;
+		for (TesterEpoch epoch : retired) {
+			for (CallSiteStatistics site : epoch.getCallSiteStatistics()) {
+				unexpected += site.getUnexpected();
+			}
+		}
+		check("epochs published with their declarations", "0", Integer.toString(undeclared));
+		check("unexpected while switching epochs", "0", Long.toString(unexpected));
+		check("prober exceptions", "false", Boolean.toString(thrown.get()));
+
+		if (failures > 0) {
+			System.out.println(failures + " processor fixture checks failed");
+			System.exit(1);
+		}
+		System.out.println("All processor fixture checks passed");
+	}
+
+	private static void check(String what, String expected, String actual) {
+		if (expected.equals(actual)) {
+			System.out.println("ok      " + what);
+		} else {
+			System.out.println("FAILED  " + what + ": expected " + expected + " but was " + actual);
+			failures++;
+		}
+	}
+}
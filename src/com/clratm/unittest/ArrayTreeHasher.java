@@ -0,0 +1,149 @@
+/*
+ * File: ArrayTreeHasher.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.twmacinta.util.MD5;
+
+/**
+ * Hashes very large primitive arrays in parallel. The array is split into
+ * chunks of a fixed number of elements, each chunk's binary representation is
+ * hashed on the common fork-join pool, and the chunk hashes are combined
+ * pairwise up a tree. The shape of the tree only depends on the length of the
+ * array, so equal arrays always produce the same root hash.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class ArrayTreeHasher {
+
+	/**
+	 * Number of elements hashed by a single task.
+	 */
+	static final int chunkSize = 1 << 16;
+
+	private ArrayTreeHasher() {
+	}
+
+	/**
+	 * Writes a marker naming the element type and length, followed by the root
+	 * of the hash tree.
+	 *
+	 * @param array
+	 *            the primitive array to hash
+	 * @param componentType
+	 *            the primitive type of its elements
+	 * @param sink
+	 *            receives the bytes
+	 */
+	static void byteify(Object array, Class<?> componentType, FingerprintSink sink) {
+		int length = Array.getLength(array);
+		int chunks = (length + chunkSize - 1) / chunkSize;
+		byte[] root = ForkJoinPool.commonPool().invoke(new ChunkTask(array, componentType, length, 0, chunks));
+
+		sink.put("{array:");
+		sink.put(componentType.getName());
+		sink.put(':');
+		sink.put(length);
+		sink.put(':');
+		sink.put(root);
+		sink.put('}');
+	}
+
+	/**
+	 * Hashes a range of chunks, splitting it in half until a single chunk is
+	 * left.
+	 */
+	private static final class ChunkTask extends RecursiveTask<byte[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Object array;
+		private final Class<?> componentType;
+		private final int length, fromChunk, toChunk;
+
+		ChunkTask(Object array, Class<?> componentType, int length, int fromChunk, int toChunk) {
+			this.array = array;
+			this.componentType = componentType;
+			this.length = length;
+			this.fromChunk = fromChunk;
+			this.toChunk = toChunk;
+		}
+
+		@Override
+		protected byte[] compute() {
+			if (toChunk - fromChunk == 1) {
+				return hashChunk();
+			}
+			int middle = (fromChunk + toChunk) >>> 1;
+			ChunkTask left = new ChunkTask(array, componentType, length, fromChunk, middle);
+			ChunkTask right = new ChunkTask(array, componentType, length, middle, toChunk);
+			left.fork();
+			byte[] rightHash = right.compute();
+			byte[] leftHash = left.join();
+
+			MD5 md5 = new MD5();
+			md5.Update(leftHash);
+			md5.Update(rightHash);
+			return md5.Final();
+		}
+
+		/**
+		 * Hashes the elements of one chunk, most significant byte first, with
+		 * floating point values canonicalized by floatToIntBits and
+		 * doubleToLongBits.
+		 */
+		private byte[] hashChunk() {
+			int from = fromChunk * chunkSize;
+			int count = Math.min(chunkSize, length - from);
+			ByteBuffer bytes;
+
+			if (componentType == double.class) {
+				// every NaN is written as the canonical NaN, as the serial
+				// path does
+				double[] values = (double[]) array;
+				bytes = ByteBuffer.allocate(count * 8);
+				for (int i = 0; i < count; i++) {
+					bytes.putLong(i * 8, Double.doubleToLongBits(values[from + i]));
+				}
+			} else if (componentType == long.class) {
+				bytes = ByteBuffer.allocate(count * 8);
+				bytes.asLongBuffer().put((long[]) array, from, count);
+			} else if (componentType == int.class) {
+				bytes = ByteBuffer.allocate(count * 4);
+				bytes.asIntBuffer().put((int[]) array, from, count);
+			} else if (componentType == float.class) {
+				float[] values = (float[]) array;
+				bytes = ByteBuffer.allocate(count * 4);
+				for (int i = 0; i < count; i++) {
+					bytes.putInt(i * 4, Float.floatToIntBits(values[from + i]));
+				}
+			} else if (componentType == short.class) {
+				bytes = ByteBuffer.allocate(count * 2);
+				bytes.asShortBuffer().put((short[]) array, from, count);
+			} else if (componentType == char.class) {
+				bytes = ByteBuffer.allocate(count * 2);
+				bytes.asCharBuffer().put((char[]) array, from, count);
+			} else if (componentType == byte.class) {
+				bytes = ByteBuffer.wrap((byte[]) array, from, count).slice();
+			} else {
+				boolean[] values = (boolean[]) array;
+				bytes = ByteBuffer.allocate(count);
+				for (int i = 0; i < count; i++) {
+					bytes.put(i, (byte) (values[from + i] ? 1 : 0));
+				}
+			}
+
+			MD5 md5 = new MD5();
+			md5.Update(bytes.array(), bytes.arrayOffset(), bytes.capacity());
+			return md5.Final();
+		}
+	}
+}
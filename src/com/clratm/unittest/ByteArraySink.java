@@ -0,0 +1,70 @@
+/*
+ * File: ByteArraySink.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A fingerprint sink that collects the written bytes in a growing array.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+public final class ByteArraySink extends FingerprintSink {
+
+	private byte[] buffer;
+	private int size;
+
+	public ByteArraySink() {
+		this(64);
+	}
+
+	public ByteArraySink(int initialCapacity) {
+		buffer = new byte[Math.max(initialCapacity, 16)];
+	}
+
+	private void ensureCapacity(int needed) {
+		if (size + needed > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + needed));
+		}
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+	}
+
+	@Override
+	public void write(int b) {
+		ensureCapacity(1);
+		buffer[size++] = (byte) b;
+	}
+
+	/**
+	 * @return the number of bytes written so far
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return a copy of the bytes written so far
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	/**
+	 * @return the bytes written so far, decoded as UTF-8
+	 */
+	@Override
+	public String toString() {
+		return new String(buffer, 0, size, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * File: CallSite.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Everything a tester keeps about one calling method, identified by its class
+ * and method names: the number of each kind of probe and outcome, how long
+ * the probes took, how often the site is sampled, and whether its coverage is
+ * complete.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class CallSite {
+
+	private final String clazz, method;
+
+	final LongAdder inputs = new LongAdder();
+	final LongAdder loads = new LongAdder();
+	final LongAdder logs = new LongAdder();
+	final LongAdder passes = new LongAdder();
+	final LongAdder failures = new LongAdder();
+	final LongAdder unexpected = new LongAdder();
+
+	/**
+	 * The number of distinct expected outputs registered for this site, and
+	 * how many of them have been logged.
+	 */
+	final AtomicInteger expectedOutputs = new AtomicInteger();
+	final AtomicInteger coveredOutputs = new AtomicInteger();
+
+	/**
+	 * Set once every expected output has been covered often enough, see
+	 * {@link Tester#setSaturation(long, int)}.
+	 */
+	volatile boolean saturated;
+
+	/**
+	 * The number of passes when a result of the site last failed. Only the
+	 * passes since then count towards saturation, so an early failure does
+	 * not keep a site that passes from then on verified forever.
+	 */
+	volatile long passesAtFailure;
+
+	/**
+	 * Rules out loaded inputs that were never registered for this site.
+	 */
+	final InputPrefilter prefilter = new InputPrefilter();
+
+	/**
+	 * Counts and samples the inputs loaded without being registered.
+	 */
+	final UnexpectedInputs unexpectedInputs = new UnexpectedInputs();
+
+	/**
+	 * Loads and logs from this site are verified for one in this many
+	 * invocations that the tester samples.
+	 */
+	volatile int samplingRate = 1;
+
+	/**
+	 * Set by the overhead governor: of the invocations sampled by the rates
+	 * above, only one in this many is verified.
+	 */
+	volatile int throttle = 1;
+
+	/**
+	 * The probe time already accounted for by the governor.
+	 */
+	long governedNanos;
+
+	/**
+	 * The time spent in every input(), load() and log() call made from this
+	 * site.
+	 */
+	final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * The part of that time spent in load() and log(), which sampling can
+	 * reduce.
+	 */
+	final LongAdder sampledNanos = new LongAdder();
+
+	CallSite(String clazz, String method) {
+		this.clazz = clazz;
+		this.method = method;
+	}
+
+	String getClazz() {
+		return clazz;
+	}
+
+	String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @param passes
+	 *            the number of passes required
+	 * @return true, if every expected output has been covered and the site
+	 *         has passed often enough since its last failure
+	 */
+	boolean isComplete(long passes) {
+		int expected = expectedOutputs.get();
+		return expected > 0 && coveredOutputs.get() >= expected && this.passes.sum() - passesAtFailure >= passes;
+	}
+
+	/**
+	 * Notes that a result of the site has failed: the site is verified again
+	 * and has to pass as often as before to saturate.
+	 */
+	void markFailed() {
+		saturated = false;
+		passesAtFailure = passes.sum();
+	}
+
+	/**
+	 * Records the duration of one probe.
+	 *
+	 * @param start
+	 *            the System.nanoTime() at which the probe started
+	 */
+	void recordProbe(long start) {
+		latency.record(System.nanoTime() - start, Thread.currentThread().getId());
+	}
+
+	/**
+	 * Records the duration of one load() or log() call.
+	 *
+	 * @param start
+	 *            the System.nanoTime() at which the probe started
+	 */
+	void recordSampledProbe(long start) {
+		long nanos = System.nanoTime() - start;
+		latency.record(nanos, Thread.currentThread().getId());
+		sampledNanos.add(nanos);
+	}
+
+	/**
+	 * @return a copy of the counters and latency percentiles
+	 */
+	CallSiteStatistics statistics() {
+		long[] buckets = latency.buckets();
+		long probes = 0;
+		for (long count : buckets) {
+			probes += count;
+		}
+		return new CallSiteStatistics(clazz, method, inputs.sum(), loads.sum(), logs.sum(), passes.sum(), failures.sum(), unexpected.sum(), probes, latency.total(),
+				LatencyHistogram.percentile(buckets, probes, 0.5), LatencyHistogram.percentile(buckets, probes, 0.99), LatencyHistogram.percentile(buckets, probes, 0.999),
+				latency.max(), samplingRate, throttle, saturated, unexpectedInputs.distinct(), unexpectedInputs.examples().size());
+	}
+
+	/**
+	 * Clears the counters and the latency histogram. The site is verified
+	 * again until it has passed as often as its saturation requires. The
+	 * counts of expected and covered outputs are kept, since they follow the
+	 * coverage of the tester, which is not cleared.
+	 */
+	void reset() {
+		saturated = false;
+		passesAtFailure = 0;
+		inputs.reset();
+		loads.reset();
+		logs.reset();
+		passes.reset();
+		failures.reset();
+		unexpected.reset();
+		latency.reset();
+		sampledNanos.reset();
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * File: CallSiteStatistics.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * A point-in-time copy of the probe counters and latencies of one calling
+ * method. Published over JMX as part of {@link TesterMXBean}.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+public class CallSiteStatistics {
+
+	private final String clazz, method;
+	private final long inputs, loads, logs, passes, failures, unexpected;
+	private final long probes, totalNanos, p50Nanos, p99Nanos, p999Nanos, maxNanos;
+	private final int samplingRate, throttle;
+	private final boolean saturated;
+	private final long unexpectedDistinct;
+	private final int unexpectedExamples;
+
+	@ConstructorParameters({ "clazz", "method", "inputs", "loads", "logs", "passes", "failures", "unexpected", "probes", "totalNanos", "p50Nanos", "p99Nanos", "p999Nanos",
+			"maxNanos", "samplingRate", "throttle", "saturated", "unexpectedDistinct",
+			"unexpectedExamples" })
+	public CallSiteStatistics(String clazz, String method, long inputs, long loads, long logs, long passes, long failures, long unexpected, long probes, long totalNanos,
+			long p50Nanos, long p99Nanos, long p999Nanos, long maxNanos, int samplingRate, int throttle, boolean saturated,
+			long unexpectedDistinct, int unexpectedExamples) {
+		this.clazz = clazz;
+		this.method = method;
+		this.inputs = inputs;
+		this.loads = loads;
+		this.logs = logs;
+		this.passes = passes;
+		this.failures = failures;
+		this.unexpected = unexpected;
+		this.probes = probes;
+		this.totalNanos = totalNanos;
+		this.p50Nanos = p50Nanos;
+		this.p99Nanos = p99Nanos;
+		this.p999Nanos = p999Nanos;
+		this.maxNanos = maxNanos;
+		this.samplingRate = samplingRate;
+		this.throttle = throttle;
+		this.saturated = saturated;
+		this.unexpectedDistinct = unexpectedDistinct;
+		this.unexpectedExamples = unexpectedExamples;
+	}
+
+	public String getClazz() {
+		return clazz;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public long getInputs() {
+		return inputs;
+	}
+
+	public long getLoads() {
+		return loads;
+	}
+
+	public long getLogs() {
+		return logs;
+	}
+
+	public long getPasses() {
+		return passes;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	public long getUnexpected() {
+		return unexpected;
+	}
+
+	/**
+	 * @return the number of input(), load() and log() calls timed
+	 */
+	public long getProbes() {
+		return probes;
+	}
+
+	/**
+	 * @return the time spent in the tester by this call site
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	public long getP50Nanos() {
+		return p50Nanos;
+	}
+
+	public long getP99Nanos() {
+		return p99Nanos;
+	}
+
+	public long getP999Nanos() {
+		return p999Nanos;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	/**
+	 * @return the rate of the site itself, on top of the rate of the tester
+	 */
+	public int getSamplingRate() {
+		return samplingRate;
+	}
+
+	/**
+	 * @return the factor by which the overhead governor currently reduces the
+	 *         samples of the site, 1 if it is not throttled
+	 */
+	public int getThrottle() {
+		return throttle;
+	}
+
+	/**
+	 * @return true, if the coverage of the site is complete and it is no
+	 *         longer verified on every invocation
+	 */
+	public boolean isSaturated() {
+		return saturated;
+	}
+
+	/**
+	 * @return the estimated number of distinct inputs loaded without being
+	 *         registered
+	 */
+	public long getUnexpectedDistinct() {
+		return unexpectedDistinct;
+	}
+
+	/**
+	 * @return the number of unexpected inputs kept as examples for the result
+	 *         report
+	 */
+	public int getUnexpectedExamples() {
+		return unexpectedExamples;
+	}
+
+	@Override
+	public String toString() {
+		return clazz + "." + method + ": " + probes + " probes, " + totalNanos + " ns total, p50 " + p50Nanos + " ns, p99 " + p99Nanos + " ns, p99.9 " + p999Nanos
+				+ " ns, max " + maxNanos + " ns";
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * File: CompactResult.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.util.Date;
+
+import com.twmacinta.util.MD5;
+
+/**
+ * A Result that keeps no reference to the tested objects. The expected output
+ * is kept as its 128 bit fingerprint, the objects as previews printed when
+ * the expectation is registered and cut to the width of a report column, the
+ * time as a long, and the class and method as the call site they belong to.
+ * Used once {@link Tester#setCompactResults(boolean)} is enabled.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+class CompactResult extends Result {
+
+	private final CallSite site;
+	private final long time;
+
+	/**
+	 * The MD5 fingerprint of the expected output.
+	 */
+	private final long expectedHigh, expectedLow;
+
+	private final String inputPreview, expectedPreview;
+	private volatile String resultPreview;
+
+	/**
+	 * @param site
+	 *            the call site the expectation belongs to
+	 * @param inputPreview
+	 *            the printed expected input, cut to size
+	 * @param expectedPreview
+	 *            the printed expected output, cut to size
+	 * @param expectedDigest
+	 *            the 16 byte fingerprint of the expected output
+	 */
+	CompactResult(CallSite site, String inputPreview, String expectedPreview, byte[] expectedDigest) {
+		super(null, null, null, null, null, null, Status.INCOMPLETE);
+		this.site = site;
+		this.time = System.currentTimeMillis();
+		this.inputPreview = inputPreview;
+		this.expectedPreview = expectedPreview;
+		this.expectedHigh = toLong(expectedDigest, 0);
+		this.expectedLow = toLong(expectedDigest, 8);
+	}
+
+	/**
+	 * Copies a declared expectation for the thread that loaded its input.
+	 *
+	 * @param declaration
+	 *            the declared expectation
+	 * @param inputPreview
+	 *            the printed loaded input, cut to size
+	 */
+	CompactResult(CompactResult declaration, String inputPreview) {
+		super(null, null, null, null, null, null, Status.INCOMPLETE);
+		this.site = declaration.site;
+		this.time = System.currentTimeMillis();
+		this.inputPreview = inputPreview;
+		this.expectedPreview = declaration.expectedPreview;
+		this.expectedHigh = declaration.expectedHigh;
+		this.expectedLow = declaration.expectedLow;
+	}
+
+	/**
+	 * Recreates a result whose previews are kept elsewhere, see
+	 * {@link OffHeapResultStore}.
+	 *
+	 * @param site
+	 *            the call site the expectation belongs to
+	 * @param time
+	 *            the time it was registered
+	 * @param expectedHigh
+	 *            the first half of the fingerprint of the expected output
+	 * @param expectedLow
+	 *            the second half
+	 * @param status
+	 *            the status
+	 */
+	CompactResult(CallSite site, long time, long expectedHigh, long expectedLow, Status status) {
+		super(null, null, null, null, null, null, status);
+		this.site = site;
+		this.time = time;
+		this.inputPreview = null;
+		this.expectedPreview = null;
+		this.expectedHigh = expectedHigh;
+		this.expectedLow = expectedLow;
+	}
+
+	CallSite getSite() {
+		return site;
+	}
+
+	@Override
+	long getTime() {
+		return time;
+	}
+
+	long getExpectedHigh() {
+		return expectedHigh;
+	}
+
+	long getExpectedLow() {
+		return expectedLow;
+	}
+
+	static long toLong(byte[] bytes, int offset) {
+		long value = 0;
+		for (int i = offset; i < offset + 8; i++) {
+			value = value << 8 | (bytes[i] & 0xff);
+		}
+		return value;
+	}
+
+	@Override
+	boolean expects(byte[] digest) {
+		return toLong(digest, 0) == expectedHigh && toLong(digest, 8) == expectedLow;
+	}
+
+	@Override
+	void setLogged(Object toLog, boolean passed) throws UnIdentifiableException {
+		// a passing output prints like the expected one
+		resultPreview = passed ? expectedPreview : Tester.truncate(TesterUtils.objectPrinter(toLog));
+	}
+
+	@Override
+	public String getExpectedHash() {
+		byte[] digest = new byte[16];
+		for (int i = 0; i < 8; i++) {
+			digest[i] = (byte) (expectedHigh >>> (56 - 8 * i));
+			digest[i + 8] = (byte) (expectedLow >>> (56 - 8 * i));
+		}
+		return MD5.asHex(digest);
+	}
+
+	@Override
+	public String getClazz() {
+		return site.getClazz();
+	}
+
+	@Override
+	public String getMethod() {
+		return site.getMethod();
+	}
+
+	/**
+	 * @return the printed input, the input itself is not kept
+	 */
+	@Override
+	public Object getInput() {
+		return inputPreview;
+	}
+
+	/**
+	 * The input was printed when the expectation was registered, so the
+	 * loaded object is not kept.
+	 */
+	@Override
+	public void setInput(Object input) {
+	}
+
+	/**
+	 * @return the printed logged output, the output itself is not kept
+	 */
+	@Override
+	public Object getResult() {
+		return resultPreview;
+	}
+
+	/**
+	 * @return the printed expected output, the output itself is not kept
+	 */
+	@Override
+	public Object getExpectedResult() {
+		return expectedPreview;
+	}
+
+	@Override
+	public Date getDate() {
+		return new Date(time);
+	}
+}
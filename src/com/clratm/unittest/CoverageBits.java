@@ -0,0 +1,178 @@
+/*
+ * File: CoverageBits.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The coverage of a tester as a bitset indexed by dense output ids. Every
+ * expected output gets the next id when it is registered, and is covered by
+ * setting its bit with a CAS, so logging an output takes neither a lock nor a
+ * map update. The bits are kept in chunks that never move, so growing the set
+ * does not block the threads setting bits. Each chunk also remembers the hash
+ * and call site of its ids, so that an exporter can send the outputs
+ * registered since its last frame without scanning the tester's maps.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class CoverageBits {
+
+	/**
+	 * Each chunk holds 2^chunkBits bits.
+	 */
+	private static final int chunkBits = 10;
+	private static final int wordsPerChunk = (1 << chunkBits) / Long.SIZE;
+
+	/**
+	 * The bits of 2^chunkBits ids, and what they identify.
+	 */
+	private static final class Chunk {
+		final AtomicLongArray words = new AtomicLongArray(wordsPerChunk);
+		final long[] highs = new long[1 << chunkBits], lows = new long[1 << chunkBits];
+		final CallSite[] sites = new CallSite[1 << chunkBits];
+	}
+
+	private volatile Chunk[] chunks = new Chunk[0];
+
+	private final AtomicInteger ids = new AtomicInteger();
+
+	/**
+	 * The number of ids whose hash and site have been written.
+	 */
+	private volatile int published;
+
+	/**
+	 * Hands out the next id. Its bit exists once this returns. Called with
+	 * the tester's lock held, so the ids are handed out in order.
+	 *
+	 * @param high
+	 *            the first half of the hash of the output
+	 * @param low
+	 *            the second half
+	 * @param site
+	 *            the call site of the output
+	 * @return the id
+	 */
+	int newId(long high, long low, CallSite site) {
+		int id = ids.getAndIncrement();
+		int chunk = id >>> chunkBits;
+		Chunk[] current = chunks;
+		if (chunk >= current.length || current[chunk] == null) {
+			current = grow(chunk);
+		}
+		int index = id & ((1 << chunkBits) - 1);
+		current[chunk].highs[index] = high;
+		current[chunk].lows[index] = low;
+		current[chunk].sites[index] = site;
+		published = id + 1;
+		return id;
+	}
+
+	private synchronized Chunk[] grow(int chunk) {
+		Chunk[] current = chunks;
+		if (chunk >= current.length) {
+			current = Arrays.copyOf(current, Math.max(chunk + 1, current.length * 2));
+		}
+		if (current[chunk] == null) {
+			current[chunk] = new Chunk();
+		}
+		chunks = current;
+		return current;
+	}
+
+	/**
+	 * Sets the bit of an id.
+	 *
+	 * @param id
+	 *            an id returned by {@link #newId(long, long, CallSite)}
+	 * @return true, if the bit was not set before
+	 */
+	boolean set(int id) {
+		AtomicLongArray words = chunks[id >>> chunkBits].words;
+		int word = (id & ((1 << chunkBits) - 1)) >>> 6;
+		long bit = 1L << id;
+		long current;
+		do {
+			current = words.get(word);
+			if ((current & bit) != 0) {
+				return false;
+			}
+		} while (!words.compareAndSet(word, current, current | bit));
+		return true;
+	}
+
+	/**
+	 * @param id
+	 *            an id returned by {@link #newId(long, long, CallSite)}
+	 * @return true, if its bit is set
+	 */
+	boolean get(int id) {
+		return (word(id >>> 6) & (1L << id)) != 0;
+	}
+
+	/**
+	 * @param index
+	 *            the index of a word, the id of its first bit divided by 64
+	 * @return the word
+	 */
+	long word(int index) {
+		return chunks[index / wordsPerChunk].words.get(index % wordsPerChunk);
+	}
+
+	/**
+	 * @return the first half of the hash of the output with an id below
+	 *         {@link #published()}
+	 */
+	long high(int id) {
+		return chunks[id >>> chunkBits].highs[id & ((1 << chunkBits) - 1)];
+	}
+
+	/**
+	 * @return the second half of the hash
+	 */
+	long low(int id) {
+		return chunks[id >>> chunkBits].lows[id & ((1 << chunkBits) - 1)];
+	}
+
+	/**
+	 * @return the call site of the output
+	 */
+	CallSite site(int id) {
+		return chunks[id >>> chunkBits].sites[id & ((1 << chunkBits) - 1)];
+	}
+
+	/**
+	 * @return the number of ids whose hash and site can be read
+	 */
+	int published() {
+		return published;
+	}
+
+	/**
+	 * @return the number of ids handed out
+	 */
+	int size() {
+		return ids.get();
+	}
+
+	/**
+	 * @return the number of bits set
+	 */
+	int count() {
+		int count = 0;
+		for (Chunk chunk : chunks) {
+			if (chunk != null) {
+				for (int i = 0; i < wordsPerChunk; i++) {
+					count += Long.bitCount(chunk.words.get(i));
+				}
+			}
+		}
+		return count;
+	}
+}
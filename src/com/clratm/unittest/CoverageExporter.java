@@ -0,0 +1,324 @@
+/*
+ * File: CoverageExporter.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes the coverage and call site counters of a tester to a
+ * {@link CoverageServer}, see
+ * {@link Tester#exportCoverage(InetSocketAddress, long)}. Once a period, on a
+ * thread of its own, it reads the counters and the coverage bitset, which the
+ * probes update without locks, and sends what changed since the previous
+ * frame in one frame. The socket never blocks: while the previous frame has
+ * not been taken by the socket, no new frame is built and the period is
+ * counted as dropped; its changes go out with the next frame. If the
+ * connection fails, the next period reconnects and sends everything again,
+ * and so does the first frame of a new epoch of the tester, which numbers
+ * its outputs from 0.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class CoverageExporter implements Runnable {
+
+	/**
+	 * At most this many new outputs are sent per frame, the rest follow in
+	 * the next ones.
+	 */
+	private static final int maxOutputsPerFrame = 1 << 16;
+
+	/**
+	 * Runs the exporters of every tester.
+	 */
+	private static ScheduledExecutorService scheduler;
+
+	private final Tester tester;
+	private final InetSocketAddress server;
+	private final long instance = ThreadLocalRandom.current().nextLong();
+	private final ScheduledFuture<?> task;
+
+	// the state of the connection, only used by the exporter thread
+	private SocketChannel channel;
+	private ByteBuffer pending;
+	private ByteBuffer frame = ByteBuffer.allocate(1024);
+
+	/**
+	 * True once the first frame of the connection has been built.
+	 */
+	private boolean started;
+
+	/**
+	 * What the server has been sent on this connection: the coverage of the
+	 * epoch sent, the numbers of the sites, their counters, the number of
+	 * outputs and the covered words.
+	 */
+	private CoverageBits sentBits;
+	private final Map<CallSite, Integer> siteIds = new IdentityHashMap<CallSite, Integer>();
+	private final List<long[]> sentCounts = new ArrayList<long[]>();
+	private int sentOutputs;
+	private long[] sentWords = new long[0];
+
+	// published for the reports
+	private volatile long frames, dropped, connections;
+
+	/**
+	 * Starts exporting the coverage of a tester.
+	 *
+	 * @param tester
+	 *            the tester
+	 * @param server
+	 *            the address of the coverage server
+	 * @param periodMillis
+	 *            the time between frames
+	 */
+	CoverageExporter(Tester tester, InetSocketAddress server, long periodMillis) {
+		this.tester = tester;
+		this.server = server;
+		task = scheduler().scheduleWithFixedDelay(this, 0, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private static synchronized ScheduledExecutorService scheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Tester coverage exporter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Stops exporting and closes the connection.
+	 */
+	void stop() {
+		task.cancel(false);
+		scheduler().execute(new Runnable() {
+			@Override
+			public void run() {
+				disconnect();
+			}
+		});
+	}
+
+	/**
+	 * @return the number of frames sent
+	 */
+	long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * @return the number of periods skipped because the socket had not taken
+	 *         the previous frame
+	 */
+	long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return the number of connections opened
+	 */
+	long getConnections() {
+		return connections;
+	}
+
+	@Override
+	public void run() {
+		try {
+			if (channel == null) {
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				channel.connect(server);
+				connections++;
+			}
+			if (!channel.finishConnect()) {
+				return;
+			}
+			if (pending != null && pending.hasRemaining()) {
+				channel.write(pending);
+				if (pending.hasRemaining()) {
+					dropped++;
+					return;
+				}
+			}
+			pending = frame();
+			if (pending != null) {
+				channel.write(pending);
+				frames++;
+			}
+		} catch (IOException e) {
+			// the server is gone or not there yet; start over next period
+			disconnect();
+		} catch (RuntimeException e) {
+			disconnect();
+		}
+	}
+
+	private void disconnect() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing left to release
+			}
+			channel = null;
+		}
+		pending = null;
+		started = false;
+		forget();
+	}
+
+	/**
+	 * Forgets what has been sent, so the next frame sends everything.
+	 */
+	private void forget() {
+		sentBits = null;
+		siteIds.clear();
+		sentCounts.clear();
+		sentOutputs = 0;
+		sentWords = new long[0];
+	}
+
+	/**
+	 * Builds the frame of the changes since the last one.
+	 *
+	 * @return the frame, ready to write, or null if nothing changed
+	 */
+	private ByteBuffer frame() {
+		boolean handshake = !started;
+		started = true;
+		CoverageBits bits = tester.coverageBits();
+		boolean first = handshake || bits != sentBits;
+		if (first) {
+			// a new connection or a new epoch
+			forget();
+			sentBits = bits;
+		}
+		int outputs = bits == null ? 0 : Math.min(bits.published(), sentOutputs + maxOutputsPerFrame);
+
+		// the sites the server does not know yet, including those of new
+		// outputs created since the list was taken
+		List<CallSite> newSites = new ArrayList<CallSite>();
+		for (CallSite site : tester.callSites()) {
+			addSite(site, newSites);
+		}
+		for (int id = sentOutputs; id < outputs; id++) {
+			addSite(bits.site(id), newSites);
+		}
+
+		ByteBuffer buffer = frame;
+		buffer.clear();
+		if (handshake) {
+			buffer.putInt(CoverageProtocol.magic).put(CoverageProtocol.version);
+		}
+		int start = buffer.position();
+		buffer.putInt(0).put(first ? CoverageProtocol.full : 0).put((byte) tester.number()).putLong(instance);
+		int empty = buffer.position();
+
+		buffer = CoverageProtocol.putVarLong(buffer, newSites.size());
+		for (CallSite site : newSites) {
+			buffer = CoverageProtocol.putString(buffer, site.getClazz());
+			buffer = CoverageProtocol.putString(buffer, site.getMethod());
+		}
+
+		// counter deltas
+		List<CallSite> sites = new ArrayList<CallSite>(siteIds.keySet());
+		List<long[]> changes = new ArrayList<long[]>();
+		List<Integer> changed = new ArrayList<Integer>();
+		for (CallSite site : sites) {
+			int id = siteIds.get(site);
+			long[] counts = CoverageProtocol.counts(site);
+			long[] sent = sentCounts.get(id);
+			if (!Arrays.equals(counts, sent)) {
+				long[] delta = new long[CoverageProtocol.counters];
+				for (int i = 0; i < delta.length; i++) {
+					delta[i] = counts[i] - sent[i];
+				}
+				sentCounts.set(id, counts);
+				changed.add(id);
+				changes.add(delta);
+			}
+		}
+		buffer = CoverageProtocol.putVarLong(buffer, changed.size());
+		for (int i = 0; i < changed.size(); i++) {
+			buffer = CoverageProtocol.putVarLong(buffer, changed.get(i));
+			for (long delta : changes.get(i)) {
+				buffer = CoverageProtocol.putVarLong(buffer, delta);
+			}
+		}
+
+		// outputs registered since the last frame
+		buffer = CoverageProtocol.putVarLong(buffer, outputs - sentOutputs);
+		for (int id = sentOutputs; id < outputs; id++) {
+			buffer = CoverageProtocol.putVarLong(buffer, siteIds.get(bits.site(id)));
+			buffer = CoverageProtocol.ensure(buffer, 16);
+			buffer.putLong(bits.high(id)).putLong(bits.low(id));
+		}
+
+		// outputs covered since the last frame, as gaps between their ids
+		int words = (outputs + 63) >>> 6;
+		if (sentWords.length < words) {
+			sentWords = Arrays.copyOf(sentWords, Math.max(words, sentWords.length * 2));
+		}
+		List<Integer> covered = new ArrayList<Integer>();
+		for (int i = 0; i < words; i++) {
+			long word = bits.word(i);
+			if (i == words - 1 && (outputs & 63) != 0) {
+				// ids the server has not been sent yet
+				word &= (1L << outputs) - 1;
+			}
+			long fresh = word & ~sentWords[i];
+			sentWords[i] |= fresh;
+			while (fresh != 0) {
+				covered.add(i * 64 + Long.numberOfTrailingZeros(fresh));
+				fresh &= fresh - 1;
+			}
+		}
+		buffer = CoverageProtocol.putVarLong(buffer, covered.size());
+		int previous = 0;
+		for (int id : covered) {
+			buffer = CoverageProtocol.putVarLong(buffer, id - previous);
+			previous = id;
+		}
+		sentOutputs = outputs;
+		frame = buffer;
+
+		// four empty sections
+		if (!first && buffer.position() == empty + 4) {
+			return null;
+		}
+		buffer.putInt(start, buffer.position() - start - 4);
+		buffer.flip();
+		return buffer;
+	}
+
+	private void addSite(CallSite site, List<CallSite> newSites) {
+		if (!siteIds.containsKey(site)) {
+			siteIds.put(site, siteIds.size());
+			sentCounts.add(new long[CoverageProtocol.counters]);
+			newSites.add(site);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * File: CoverageProtocol.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary protocol between a {@link CoverageExporter} and a
+ * {@link CoverageServer}. A connection starts with the magic "CLRE" and a
+ * version byte, followed by frames, each an int length and then:
+ *
+ * <pre>
+ * byte    flags, {@link #full} if the frame starts the instance over
+ * byte    tester number
+ * long    instance id, random per exporter
+ * varint  new sites, each: string class, string method
+ * varint  changed sites, each: varint site, 6 varlong counter deltas
+ * varint  new outputs, each: varint site, long hash high, long hash low
+ * varint  newly covered outputs, each: varint id minus the previous id
+ * </pre>
+ *
+ * Sites and outputs are numbered by the exporter in the order they are sent,
+ * from 0 on every connection. The counters are the inputs, loads, logs,
+ * passes, failures and unexpected inputs of a site, sent as the change since
+ * the previous frame. A string is a varint length followed by UTF-8 bytes.
+ * Varints are unsigned, 7 bits per byte, least significant first.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class CoverageProtocol {
+
+	static final int magic = 0x434c5245;
+	static final byte version = 1;
+
+	/**
+	 * Set on the first frame of a connection: the server drops what it knew
+	 * of the instance's counters and numbering, and the counters of the frame
+	 * are totals.
+	 */
+	static final byte full = 1;
+
+	static final int counters = 6;
+
+	/**
+	 * Frames longer than this are refused.
+	 */
+	static final int maxFrame = 1 << 26;
+
+	private CoverageProtocol() {
+	}
+
+	/**
+	 * @return the counters of a call site, in protocol order
+	 */
+	static long[] counts(CallSite site) {
+		return new long[] { site.inputs.sum(), site.loads.sum(), site.logs.sum(), site.passes.sum(), site.failures.sum(), site.unexpected.sum() };
+	}
+
+	/**
+	 * @return a buffer holding the contents of another and room for more
+	 *         bytes, the buffer itself if it has room
+	 */
+	static ByteBuffer ensure(ByteBuffer buffer, int more) {
+		if (buffer.remaining() >= more) {
+			return buffer;
+		}
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + more));
+		buffer.flip();
+		return bigger.put(buffer);
+	}
+
+	static ByteBuffer putVarLong(ByteBuffer buffer, long value) {
+		buffer = ensure(buffer, 10);
+		while ((value & ~0x7fL) != 0) {
+			buffer.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		return buffer.put((byte) value);
+	}
+
+	static ByteBuffer putString(ByteBuffer buffer, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer = putVarLong(buffer, bytes.length);
+		return ensure(buffer, bytes.length).put(bytes);
+	}
+
+	/**
+	 * @throws BufferUnderflowException
+	 *             if the varint is cut off
+	 */
+	static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < Long.SIZE; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	/**
+	 * @return a varint that must fit an int
+	 */
+	static int getVarInt(ByteBuffer buffer) {
+		long value = getVarLong(buffer);
+		if (value > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Malformed varint");
+		}
+		return (int) value;
+	}
+
+	static String getString(ByteBuffer buffer) {
+		int length = getVarInt(buffer);
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,530 @@
+/*
+ * File: CoverageServer.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Merges the coverage exported by the testers of many service instances, see
+ * {@link Tester#exportCoverage(InetSocketAddress, long)}. Outputs are merged by
+ * their hashes, so an output covered by any instance is covered, and the call
+ * site counters of the instances are added up. A single thread serves every
+ * connection with non-blocking NIO and merges each frame as it arrives. The
+ * same port answers plain HTTP GET requests with the merged coverage report,
+ * which reads like {@link Tester#printCoverageReport(java.io.File, boolean)},
+ * or with the counters at /counters:
+ *
+ * <pre>
+ * java com.clratm.unittest.CoverageServer 7077
+ * curl http://localhost:7077/
+ * </pre>
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+public final class CoverageServer implements Closeable, Runnable {
+
+	private static final String counterReportColumnWidth = "%30s%30s%12s%12s%12s%12s%12s%12s";
+
+	private final ServerSocketChannel server;
+	private final Selector selector;
+
+	/**
+	 * The merged coverage of each tester number.
+	 */
+	private final Map<Integer, Aggregate> testers = new TreeMap<Integer, Aggregate>();
+
+	/**
+	 * The exporters seen, by instance id.
+	 */
+	private final Map<Long, Instance> instances = new HashMap<Long, Instance>();
+
+	private long frames;
+
+	/**
+	 * An expected output.
+	 */
+	private static final class Output {
+		final Site site;
+		boolean covered;
+
+		Output(Site site) {
+			this.site = site;
+		}
+	}
+
+	/**
+	 * A call site of all instances.
+	 */
+	private static final class Site {
+		final String clazz, method;
+		int expected, covered;
+
+		Site(String clazz, String method) {
+			this.clazz = clazz;
+			this.method = method;
+		}
+	}
+
+	/**
+	 * A 128 bit hash.
+	 */
+	private static final class Hash {
+		final long high, low;
+
+		Hash(long high, long low) {
+			this.high = high;
+			this.low = low;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Hash && ((Hash) other).high == high && ((Hash) other).low == low;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (high ^ low);
+		}
+	}
+
+	/**
+	 * The merged coverage of one tester number.
+	 */
+	private static final class Aggregate {
+		final Map<String, Site> sites = new HashMap<String, Site>();
+		final Map<Hash, Output> outputs = new HashMap<Hash, Output>();
+		int covered;
+	}
+
+	/**
+	 * What one exporter has sent, numbered as it numbers them.
+	 */
+	private static final class Instance {
+		final int tester;
+		final List<Site> sites = new ArrayList<Site>();
+		final List<long[]> counts = new ArrayList<long[]>();
+		final List<Output> outputs = new ArrayList<Output>();
+
+		Instance(int tester) {
+			this.tester = tester;
+		}
+	}
+
+	/**
+	 * Listens on a port of every interface.
+	 *
+	 * @param port
+	 *            the port, or 0 for any free port
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public CoverageServer(int port) throws IOException {
+		this(new InetSocketAddress(port));
+	}
+
+	/**
+	 * Listens on an address.
+	 *
+	 * @param address
+	 *            the address
+	 * @throws IOException
+	 *             if the address cannot be bound
+	 */
+	public CoverageServer(InetSocketAddress address) throws IOException {
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(address);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * @return the address the server listens on
+	 * @throws IOException
+	 *             if the server has been closed
+	 */
+	public InetSocketAddress getAddress() throws IOException {
+		return (InetSocketAddress) server.getLocalAddress();
+	}
+
+	/**
+	 * Serves connections on a daemon thread.
+	 *
+	 * @return this server
+	 */
+	public CoverageServer start() {
+		Thread thread = new Thread(this, "Coverage server");
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/**
+	 * Serves connections until the server is closed.
+	 */
+	@Override
+	public void run() {
+		while (selector.isOpen()) {
+			try {
+				selector.select();
+				if (!selector.isOpen()) {
+					return;
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					serve(key);
+				}
+			} catch (IOException e) {
+				if (selector.isOpen()) {
+					e.printStackTrace();
+				}
+			} catch (RuntimeException e) {
+				// a closed selector
+				if (selector.isOpen()) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	private void serve(SelectionKey key) throws IOException {
+		if (!key.isValid()) {
+			return;
+		}
+		if (key.isAcceptable()) {
+			SocketChannel channel = server.accept();
+			if (channel != null) {
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, new Connection());
+			}
+			return;
+		}
+		Connection connection = (Connection) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+		try {
+			if (key.isReadable()) {
+				connection.read(key, channel);
+			}
+			if (key.isValid() && key.isWritable()) {
+				connection.write(key, channel);
+			}
+		} catch (IOException e) {
+			key.cancel();
+			channel.close();
+		} catch (RuntimeException e) {
+			// a malformed frame
+			key.cancel();
+			channel.close();
+		}
+	}
+
+	/**
+	 * A connection, from an exporter or an HTTP client, told apart by its
+	 * first bytes.
+	 */
+	private final class Connection {
+		private ByteBuffer in = ByteBuffer.allocate(4096);
+		private ByteBuffer out;
+		private boolean exporter, http;
+
+		void read(SelectionKey key, SocketChannel channel) throws IOException {
+			if (!in.hasRemaining()) {
+				in = CoverageProtocol.ensure(in, in.capacity());
+			}
+			if (channel.read(in) < 0) {
+				key.cancel();
+				channel.close();
+				return;
+			}
+			in.flip();
+			try {
+				if (!exporter && !http && in.remaining() >= 5) {
+					if (in.getInt(in.position()) == 0x47455420) {
+						// "GET "
+						http = true;
+					} else if (in.getInt() == CoverageProtocol.magic && in.get() == CoverageProtocol.version) {
+						exporter = true;
+					} else {
+						throw new IOException("Not an exporter");
+					}
+				}
+				if (exporter) {
+					frames();
+				} else if (http) {
+					request(key);
+				}
+			} finally {
+				in.compact();
+			}
+		}
+
+		/**
+		 * Merges the complete frames received.
+		 */
+		private void frames() throws IOException {
+			while (in.remaining() >= 4) {
+				int length = in.getInt(in.position());
+				if (length < 0 || length > CoverageProtocol.maxFrame) {
+					throw new IOException("Frame of " + length + " bytes");
+				}
+				if (in.remaining() < 4 + length) {
+					if (in.capacity() < 4 + length) {
+						// make room for the rest of the frame
+						ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+						bigger.put(in);
+						bigger.flip();
+						in = bigger;
+					}
+					return;
+				}
+				in.getInt();
+				ByteBuffer frame = in.slice();
+				frame.limit(length);
+				in.position(in.position() + length);
+				merge(frame);
+			}
+		}
+
+		/**
+		 * Answers a GET request once its headers have arrived.
+		 */
+		private void request(SelectionKey key) {
+			String request = new String(in.array(), in.position(), in.remaining(), StandardCharsets.ISO_8859_1);
+			if (!request.contains("\r\n\r\n") && !request.contains("\n\n")) {
+				return;
+			}
+			in.position(in.limit());
+			String[] line = request.split("\\s+", 3);
+			String body = line.length > 1 && line[1].startsWith("/counters") ? getCounterReport() : getCoverageReport();
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			String header = "HTTP/1.0 200 OK\r\nContent-Type: text/plain; charset=UTF-8\r\nContent-Length: " + bytes.length + "\r\nConnection: close\r\n\r\n";
+			out = ByteBuffer.allocate(header.length() + bytes.length);
+			out.put(header.getBytes(StandardCharsets.ISO_8859_1)).put(bytes).flip();
+			key.interestOps(SelectionKey.OP_WRITE);
+		}
+
+		void write(SelectionKey key, SocketChannel channel) throws IOException {
+			channel.write(out);
+			if (!out.hasRemaining()) {
+				key.cancel();
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Merges one frame, see {@link CoverageProtocol}.
+	 *
+	 * @throws BufferUnderflowException
+	 *             if the frame is cut short
+	 * @throws IndexOutOfBoundsException
+	 *             if it refers to a site or output it has not sent
+	 */
+	private synchronized void merge(ByteBuffer frame) {
+		byte flags = frame.get();
+		int tester = frame.get() & 0xff;
+		long id = frame.getLong();
+		Instance instance = instances.get(id);
+		if (instance == null || (flags & CoverageProtocol.full) != 0) {
+			// the counters of a full frame are totals
+			instance = new Instance(tester);
+			instances.put(id, instance);
+		}
+		Aggregate aggregate = testers.get(tester);
+		if (aggregate == null) {
+			aggregate = new Aggregate();
+			testers.put(tester, aggregate);
+		}
+
+		for (int i = CoverageProtocol.getVarInt(frame); i > 0; i--) {
+			String clazz = CoverageProtocol.getString(frame);
+			String method = CoverageProtocol.getString(frame);
+			Site site = aggregate.sites.get(clazz + '#' + method);
+			if (site == null) {
+				site = new Site(clazz, method);
+				aggregate.sites.put(clazz + '#' + method, site);
+			}
+			instance.sites.add(site);
+			instance.counts.add(new long[CoverageProtocol.counters]);
+		}
+
+		for (int i = CoverageProtocol.getVarInt(frame); i > 0; i--) {
+			long[] counts = instance.counts.get(CoverageProtocol.getVarInt(frame));
+			for (int j = 0; j < counts.length; j++) {
+				counts[j] += CoverageProtocol.getVarLong(frame);
+			}
+		}
+
+		for (int i = CoverageProtocol.getVarInt(frame); i > 0; i--) {
+			Site site = instance.sites.get(CoverageProtocol.getVarInt(frame));
+			Hash hash = new Hash(frame.getLong(), frame.getLong());
+			Output output = aggregate.outputs.get(hash);
+			if (output == null) {
+				output = new Output(site);
+				aggregate.outputs.put(hash, output);
+				site.expected++;
+			}
+			instance.outputs.add(output);
+		}
+
+		int output = 0;
+		for (int i = CoverageProtocol.getVarInt(frame); i > 0; i--) {
+			output += CoverageProtocol.getVarInt(frame);
+			Output covered = instance.outputs.get(output);
+			if (!covered.covered) {
+				covered.covered = true;
+				covered.site.covered++;
+				aggregate.covered++;
+			}
+		}
+		frames++;
+	}
+
+	/**
+	 * @return the number of frames merged
+	 */
+	public synchronized long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * @return the number of exporters seen, counting a reconnected exporter
+	 *         once
+	 */
+	public synchronized int getInstanceCount() {
+		return instances.size();
+	}
+
+	/**
+	 * Returns the merged coverage report of each tester number, in the format
+	 * of {@link Tester#printCoverageReport(java.io.File, boolean)}.
+	 *
+	 * @return the report
+	 */
+	public synchronized String getCoverageReport() {
+		StringBuilder report = new StringBuilder();
+		for (Map.Entry<Integer, Aggregate> entry : testers.entrySet()) {
+			Aggregate aggregate = entry.getValue();
+			if (report.length() > 0) {
+				report.append('\n');
+			}
+			report.append("Coverage report for tester number ").append(entry.getKey()).append(":\n\n");
+			report.append("Overall Coverage: ").append(aggregate.covered).append(" / ").append(aggregate.outputs.size()).append("\n\n");
+			report.append(Tester.coverageRow("Class", "Method", "Coverage")).append('\n');
+
+			List<CoverageResult> rows = new ArrayList<CoverageResult>();
+			for (Site site : aggregate.sites.values()) {
+				if (site.expected > 0) {
+					rows.add(new CoverageResult(site.clazz, site.method, site.covered + " / " + site.expected));
+				}
+			}
+			Collections.sort(rows);
+			for (CoverageResult row : rows) {
+				report.append(Tester.coverageRow(row.getClazz(), row.getMethod(), row.getCoverage())).append('\n');
+			}
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Returns the call site counters of each tester number, added up over the
+	 * instances.
+	 *
+	 * @return the report
+	 */
+	public synchronized String getCounterReport() {
+		StringBuilder report = new StringBuilder();
+		for (Map.Entry<Integer, Aggregate> entry : testers.entrySet()) {
+			Map<Site, long[]> totals = new IdentityHashMap<Site, long[]>();
+			for (Instance instance : instances.values()) {
+				if (instance.tester != entry.getKey()) {
+					continue;
+				}
+				for (int i = 0; i < instance.sites.size(); i++) {
+					long[] total = totals.get(instance.sites.get(i));
+					if (total == null) {
+						total = new long[CoverageProtocol.counters];
+						totals.put(instance.sites.get(i), total);
+					}
+					long[] counts = instance.counts.get(i);
+					for (int j = 0; j < total.length; j++) {
+						total[j] += counts[j];
+					}
+				}
+			}
+
+			if (report.length() > 0) {
+				report.append('\n');
+			}
+			report.append("Call site counters for tester number ").append(entry.getKey()).append(":\n\n");
+			report.append(String.format(counterReportColumnWidth, "Class", "Method", "Inputs", "Loads", "Logs", "Passes", "Failures", "Unexpected")).append('\n');
+			List<CoverageResult> rows = new ArrayList<CoverageResult>();
+			Map<CoverageResult, long[]> rowTotals = new IdentityHashMap<CoverageResult, long[]>();
+			for (Map.Entry<Site, long[]> total : totals.entrySet()) {
+				CoverageResult row = new CoverageResult(total.getKey().clazz, total.getKey().method, null);
+				rows.add(row);
+				rowTotals.put(row, total.getValue());
+			}
+			Collections.sort(rows);
+			for (CoverageResult row : rows) {
+				long[] total = rowTotals.get(row);
+				report.append(String.format(counterReportColumnWidth, row.getClazz(), row.getMethod(), total[0], total[1], total[2], total[3], total[4], total[5]))
+						.append('\n');
+			}
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Stops serving and closes every connection.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (SelectionKey key : selector.keys()) {
+			key.channel().close();
+		}
+		selector.close();
+		server.close();
+	}
+
+	/**
+	 * Runs a coverage server until the JVM is stopped.
+	 *
+	 * @param args
+	 *            the port
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: CoverageServer <port>");
+			System.exit(2);
+		}
+		CoverageServer server = new CoverageServer(Integer.parseInt(args[0]));
+		System.out.println("Coverage server listening on " + server.getAddress());
+		server.run();
+	}
+}
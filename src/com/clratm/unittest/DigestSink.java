@@ -0,0 +1,89 @@
+/*
+ * File: DigestSink.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import com.twmacinta.util.MD5;
+
+/**
+ * A fingerprint sink that feeds the written bytes straight into an MD5 hash,
+ * a small block at a time, so that an object never has to be converted to a
+ * complete byte array before it is hashed.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+public final class DigestSink extends FingerprintSink {
+
+	private final MD5 md5 = new MD5();
+	private final byte[] buffer = new byte[256];
+	private int size;
+	private long written;
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) {
+		written += length;
+		if (length > buffer.length - size) {
+			flush();
+			if (length >= buffer.length) {
+				md5.Update(bytes, offset, length);
+				return;
+			}
+		}
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+	}
+
+	@Override
+	public void write(int b) {
+		written++;
+		if (size == buffer.length) {
+			flush();
+		}
+		buffer[size++] = (byte) b;
+	}
+
+	private void flush() {
+		if (size > 0) {
+			md5.Update(buffer, 0, size);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Returns the hash of everything written so far. More bytes can be written
+	 * afterwards, extending the same hash.
+	 * 
+	 * @return the 16 byte MD5 hash
+	 */
+	public byte[] digest() {
+		flush();
+		return md5.Final();
+	}
+
+	/**
+	 * @return the hash of everything written so far, as 32 hex characters
+	 */
+	public String asHex() {
+		flush();
+		return md5.asHex();
+	}
+
+	/**
+	 * @return the number of bytes written since the sink was created or reset
+	 */
+	public long size() {
+		return written;
+	}
+
+	/**
+	 * Discards everything written so far, so the sink can be reused.
+	 */
+	public void reset() {
+		size = 0;
+		written = 0;
+		md5.Init();
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * File: Expect.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares an expected input/output pair for the annotated method at compile
+ * time. This is the declarative counterpart of calling
+ * {@link Tester#input(Object, Object)} at the top of the method: the
+ * ExpectProcessor turns every declaration into a generated
+ * {@link ExpectationRegistry}, so nothing has to be hashed when the method
+ * runs, and the expected outputs count towards coverage as soon as the tester
+ * is enabled.
+ * <p>
+ * Values are given as the Strings that identify them, i.e. what toString or
+ * id() would return for the object. For example, an int input of 2 that should
+ * produce true is declared as {@code @Expect(input = "2", output = "true")}.
+ * A Set or Map is identified by the hashes of its elements rather than by a
+ * String, so methods returning one cannot be annotated; the processor reports
+ * an error and their expectations are registered with input() instead.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target({ ElementType.METHOD, ElementType.CONSTRUCTOR })
+@Repeatable(Expects.class)
+public @interface Expect {
+
+	/**
+	 * @return the String identifying the expected input
+	 */
+	String input();
+
+	/**
+	 * @return the String identifying the output expected for the input
+	 */
+	String output();
+
+	/**
+	 * @return the number of the tester instance the expectation belongs to
+	 */
+	int tester() default 0;
+}
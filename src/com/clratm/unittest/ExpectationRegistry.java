@@ -0,0 +1,26 @@
+/*
+ * File: ExpectationRegistry.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+/**
+ * Implemented by the classes the ExpectProcessor generates from {@link Expect}
+ * declarations. Each registry holds the precomputed hashes of one class's
+ * expectations and is discovered through the ServiceLoader when a tester is
+ * enabled.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+public interface ExpectationRegistry {
+
+	/**
+	 * Loads every expectation declared for the given tester into it.
+	 * 
+	 * @param tester
+	 *            the tester being enabled
+	 */
+	public void register(Tester tester);
+}
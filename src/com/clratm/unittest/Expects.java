@@ -0,0 +1,29 @@
+/*
+ * File: Expects.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Holds several {@link Expect} declarations on the same method.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target({ ElementType.METHOD, ElementType.CONSTRUCTOR })
+public @interface Expects {
+
+	/**
+	 * @return the expectations declared on the method
+	 */
+	Expect[] value();
+}
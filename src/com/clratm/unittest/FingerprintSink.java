@@ -0,0 +1,132 @@
+/*
+ * File: FingerprintSink.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+/**
+ * Receives the binary representation of an object as it is produced, so that
+ * values can be identified without first being turned into a String. Every
+ * put method writes exactly the UTF-8 bytes of String.valueOf() of its
+ * argument, which keeps the bytes identical to those of an equivalent id() or
+ * toString().
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+public abstract class FingerprintSink {
+
+	private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+	private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+	/**
+	 * Scratch space for formatting integers, large enough for Long.MIN_VALUE.
+	 */
+	private final byte[] digits = new byte[20];
+
+	/**
+	 * Writes a range of bytes.
+	 * 
+	 * @param bytes
+	 *            the bytes to write
+	 * @param offset
+	 *            the index of the first byte to write
+	 * @param length
+	 *            the number of bytes to write
+	 */
+	public abstract void write(byte[] bytes, int offset, int length);
+
+	/**
+	 * Writes a single byte.
+	 * 
+	 * @param b
+	 *            the byte to write, in the low eight bits
+	 */
+	public abstract void write(int b);
+
+	public void put(byte[] bytes) {
+		write(bytes, 0, bytes.length);
+	}
+
+	public void put(String s) {
+		if (s == null) {
+			put(NULL);
+			return;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				write(c);
+			} else {
+				// leave anything beyond ASCII to the JDK's encoder
+				put(s.substring(i).getBytes(java.nio.charset.StandardCharsets.UTF_8));
+				return;
+			}
+		}
+	}
+
+	public void put(char c) {
+		if (c < 0x80) {
+			write(c);
+		} else {
+			put(String.valueOf(c));
+		}
+	}
+
+	public void put(boolean b) {
+		put(b ? TRUE : FALSE);
+	}
+
+	public void put(byte b) {
+		put((long) b);
+	}
+
+	public void put(short s) {
+		put((long) s);
+	}
+
+	public void put(int i) {
+		put((long) i);
+	}
+
+	public void put(long l) {
+		if (l == Long.MIN_VALUE) {
+			put("-9223372036854775808");
+			return;
+		}
+		boolean negative = l < 0;
+		if (negative) {
+			l = -l;
+		}
+		int pos = digits.length;
+		do {
+			digits[--pos] = (byte) ('0' + (l % 10));
+			l /= 10;
+		} while (l != 0);
+		if (negative) {
+			digits[--pos] = '-';
+		}
+		write(digits, pos, digits.length - pos);
+	}
+
+	public void put(float f) {
+		put(String.valueOf(f));
+	}
+
+	public void put(double d) {
+		put(String.valueOf(d));
+	}
+
+	/**
+	 * Writes the representation byteify would produce for any object.
+	 * 
+	 * @param o
+	 *            the object to write
+	 * @throws UnIdentifiableException
+	 */
+	public void putObject(Object o) throws UnIdentifiableException {
+		TesterUtils.byteify(o, this);
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * File: Identity.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose objects should be identified field by field. The
+ * IdentityProcessor generates a <code>Name_Identity</code> class next to it
+ * with an {@link IdentityEncoder} that the tester uses in place of id() or
+ * toString(), and a static id() method returning the same canonical String:
+ * <code>Name{field=value, field=value}</code>, with superclass fields first.
+ * <p>
+ * Every instance field that is not static or transient is included, so those
+ * fields must be visible to a class in the same package.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Identity {
+}
@@ -0,0 +1,30 @@
+/*
+ * File: IdentityEncoder.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+/**
+ * Writes the identifying bytes of an object straight into a fingerprint sink.
+ * Implementations are generated for classes annotated with {@link Identity}.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ * @param <T>
+ *            the type of object encoded
+ */
+public interface IdentityEncoder<T> {
+
+	/**
+	 * Writes the canonical identity of the value.
+	 * 
+	 * @param value
+	 *            the object to identify, never null
+	 * @param sink
+	 *            the sink receiving the bytes
+	 * @throws UnIdentifiableException
+	 *             if a field holds an object that cannot be identified
+	 */
+	public void encode(T value, FingerprintSink sink) throws UnIdentifiableException;
+}
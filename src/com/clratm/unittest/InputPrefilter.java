@@ -0,0 +1,158 @@
+/*
+ * File: InputPrefilter.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter over the inputs registered for one call site, so that load()
+ * can tell most unregistered inputs apart without serializing and hashing
+ * them. Strings and boxed primitives are identified by their text, so the
+ * filter is keyed on the hash code of that text, computed without building
+ * the String where possible. Once an input of any other type is registered,
+ * its bytes could equal the text of any String, and the filter lets
+ * everything through.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class InputPrefilter {
+
+	private static final int bits = 1 << 13;
+	private static final int hashes = 3;
+
+	/**
+	 * Beyond this many inputs the filter would pass nearly everything anyway.
+	 */
+	private static final int capacity = bits / 4;
+
+	private final AtomicLongArray words = new AtomicLongArray(bits / Long.SIZE);
+	private final AtomicInteger size = new AtomicInteger();
+	private volatile boolean open;
+
+	/**
+	 * Adds a registered input.
+	 *
+	 * @param input
+	 *            the input
+	 */
+	void add(Object input) {
+		if (!Registration.isImmutable(input) || size.get() >= capacity) {
+			open = true;
+			return;
+		}
+		long mixed = mix(textHash(input));
+		int h1 = (int) mixed, h2 = (int) (mixed >>> 32);
+		boolean added = false;
+		for (int i = 0; i < hashes; i++) {
+			int bit = (h1 + i * h2) & (bits - 1);
+			long mask = 1L << bit;
+			int word = bit >>> 6;
+			long current;
+			do {
+				current = words.get(word);
+				if ((current & mask) != 0) {
+					break;
+				}
+			} while (!words.compareAndSet(word, current, current | mask));
+			added |= (current & mask) == 0;
+		}
+		// every thread registers the same inputs, only count new ones
+		if (added) {
+			size.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Lets every input through from now on, for inputs that were registered
+	 * without their value.
+	 */
+	void open() {
+		open = true;
+	}
+
+	/**
+	 * @param input
+	 *            a loaded input
+	 * @return false if the input was definitely never registered, true if it
+	 *         may have been
+	 */
+	boolean mightContain(Object input) {
+		if (open || !Registration.isImmutable(input)) {
+			return true;
+		}
+		long mixed = mix(textHash(input));
+		int h1 = (int) mixed, h2 = (int) (mixed >>> 32);
+		for (int i = 0; i < hashes; i++) {
+			int bit = (h1 + i * h2) & (bits - 1);
+			if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the hash code of the text that identifies a String or boxed
+	 * primitive, the same as <code>value.toString().hashCode()</code>.
+	 *
+	 * @param value
+	 *            a String or boxed primitive
+	 * @return the hash code of its text
+	 */
+	static int textHash(Object value) {
+		if (value instanceof String) {
+			// cached by the String
+			return value.hashCode();
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			return decimalHash(((Number) value).longValue());
+		} else if (value instanceof Character) {
+			return (Character) value;
+		}
+		return value.toString().hashCode();
+	}
+
+	/**
+	 * @return the hash code of the decimal text of a long
+	 */
+	private static int decimalHash(long value) {
+		if (value == Long.MIN_VALUE) {
+			return Long.toString(value).hashCode();
+		}
+		int h = 0;
+		if (value < 0) {
+			h = '-';
+			value = -value;
+		}
+		long divisor = 1;
+		while (value / divisor >= 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			h = 31 * h + ('0' + (int) (value / divisor % 10));
+		}
+		return h;
+	}
+
+	/**
+	 * Spreads a 32 bit hash code over 64 bits, using the finalizer of
+	 * MurmurHash3.
+	 *
+	 * @param hash
+	 *            the hash code
+	 * @return the 64 bit hash
+	 */
+	static long mix(int hash) {
+		long h = hash * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
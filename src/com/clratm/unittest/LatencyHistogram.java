@@ -0,0 +1,150 @@
+/*
+ * File: LatencyHistogram.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records probe durations in nanoseconds into logarithmic buckets, each power
+ * of two being split into eight linear sub-buckets, so every recorded value is
+ * known to within 12.5%. The buckets are striped by thread so that threads
+ * recording at the same time rarely touch the same counter.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class LatencyHistogram {
+
+	/**
+	 * Sub-buckets per power of two, as a power of two.
+	 */
+	private static final int subBucketBits = 3;
+	private static final int subBuckets = 1 << subBucketBits;
+
+	/**
+	 * Values of 2^40 ns (about 18 minutes) and more share the last bucket.
+	 */
+	private static final int maxExponent = 40;
+
+	static final int bucketCount = (maxExponent - subBucketBits + 2) * subBuckets;
+
+	private static final int stripes = stripeCount();
+
+	private final AtomicLongArray counts = new AtomicLongArray(stripes * bucketCount);
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	private static int stripeCount() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		return processors == 1 ? 1 : Math.min(8, Integer.highestOneBit(processors - 1) << 1);
+	}
+
+	/**
+	 * Records a single duration.
+	 *
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 * @param threadId
+	 *            the ID of the recording thread, which selects the stripe
+	 */
+	void record(long nanos, long threadId) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		int stripe = (int) threadId & (stripes - 1);
+		counts.getAndIncrement(stripe * bucketCount + bucketOf(nanos));
+		total.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	static int bucketOf(long nanos) {
+		if (nanos < subBuckets) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent > maxExponent) {
+			return bucketCount - 1;
+		}
+		int sub = (int) (nanos >>> (exponent - subBucketBits)) & (subBuckets - 1);
+		return (exponent - subBucketBits + 1) * subBuckets + sub;
+	}
+
+	/**
+	 * @return the largest value that falls into the bucket
+	 */
+	static long highestValueIn(int bucket) {
+		if (bucket < subBuckets) {
+			return bucket;
+		}
+		int exponent = bucket / subBuckets + subBucketBits - 1;
+		long sub = bucket % subBuckets;
+		return ((subBuckets + sub + 1) << (exponent - subBucketBits)) - 1;
+	}
+
+	/**
+	 * @return the number of values in each bucket, summed over the stripes
+	 */
+	long[] buckets() {
+		long[] buckets = new long[bucketCount];
+		for (int stripe = 0; stripe < stripes; stripe++) {
+			for (int i = 0; i < bucketCount; i++) {
+				buckets[i] += counts.get(stripe * bucketCount + i);
+			}
+		}
+		return buckets;
+	}
+
+	/**
+	 * @return the sum of every recorded value
+	 */
+	long total() {
+		return total.sum();
+	}
+
+	/**
+	 * @return the largest recorded value
+	 */
+	long max() {
+		return max.get();
+	}
+
+	/**
+	 * Finds the value below which the given fraction of the recorded values
+	 * fall.
+	 *
+	 * @param buckets
+	 *            the bucket counts, as returned by buckets()
+	 * @param count
+	 *            the sum of the bucket counts
+	 * @param fraction
+	 *            the fraction, between 0 and 1
+	 * @return the highest value of the bucket holding the percentile
+	 */
+	static long percentile(long[] buckets, long count, double fraction) {
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+			if (seen >= rank) {
+				return highestValueIn(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Clears every recorded value.
+	 */
+	void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		total.reset();
+		max.reset();
+	}
+}
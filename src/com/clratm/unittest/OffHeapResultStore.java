@@ -0,0 +1,752 @@
+/*
+ * File: OffHeapResultStore.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.clratm.unittest.Result.Status;
+import com.twmacinta.util.MD5;
+
+/**
+ * Keeps compact results outside the Java heap, so that a tester holding
+ * millions of them does not make every GC slower. Each table is an open
+ * addressing hash table of fixed-width records in direct buffers, keyed by
+ * the 128 bit MD5 hashes the tester already uses as keys. A record holds the
+ * status, the id of the call site, the time, the fingerprint of the expected
+ * output, the offsets of the previews, which are appended to a preview area
+ * shared by the tables of a store, and the output id of an expected output. The tables are split into segments,
+ * each locked on its own, and implement ConcurrentMap so the tester uses them
+ * like its ConcurrentHashMaps. A result read from a table is a copy; changes
+ * are stored by putting it back, except for log(), which decides the record
+ * in place.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class OffHeapResultStore {
+
+	/**
+	 * The layout of a record.
+	 */
+	private static final int recordSize = 64;
+	private static final int keyHighAt = 0, keyLowAt = 8, statusAt = 16, siteAt = 20, timeAt = 24, expectedHighAt = 32, expectedLowAt = 40, inputAt = 48,
+			expectedAt = 52, resultAt = 56, outputIdAt = 60;
+
+	/**
+	 * The number of segments of a table, selected by the top bits of a key.
+	 */
+	private static final int segmentBits = 6;
+
+	private static final int initialSlots = 16;
+
+	/**
+	 * The preview area is allocated in chunks of this many bytes.
+	 */
+	private static final int chunkBits = 20;
+	private static final int chunkSize = 1 << chunkBits;
+
+	/**
+	 * The longest preview stored, in chars.
+	 */
+	private static final int maxPreview = 1024;
+
+	/**
+	 * The offset of a preview that was dropped because the preview area is
+	 * full. A null preview has the offset -1.
+	 */
+	private static final int dropped = -2;
+
+	private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+	/**
+	 * The offset of the next preview, guarded by the store.
+	 */
+	private long previewTop;
+
+	/**
+	 * The call sites by id.
+	 */
+	private final List<CallSite> sites = new CopyOnWriteArrayList<CallSite>();
+	private final ConcurrentHashMap<CallSite, Integer> siteIds = new ConcurrentHashMap<CallSite, Integer>();
+
+	/**
+	 * The number of bytes allocated outside the heap.
+	 */
+	private final AtomicLong allocated = new AtomicLong();
+
+	/**
+	 * The number of previews dropped because the preview area is full.
+	 */
+	private final AtomicLong droppedPreviews = new AtomicLong();
+
+	/**
+	 * @return a new, empty table backed by this store
+	 */
+	ConcurrentMap<String, Result> newTable() {
+		return new Table();
+	}
+
+	/**
+	 * @return the number of bytes the store has allocated outside the heap
+	 */
+	long offHeapBytes() {
+		return allocated.get();
+	}
+
+	/**
+	 * @return the number of previews dropped because the preview area is full
+	 */
+	long droppedPreviews() {
+		return droppedPreviews.get();
+	}
+
+	private ByteBuffer allocate(int bytes) {
+		allocated.addAndGet(bytes);
+		return ByteBuffer.allocateDirect(bytes);
+	}
+
+	private int siteId(CallSite site) {
+		Integer id = siteIds.get(site);
+		if (id == null) {
+			synchronized (sites) {
+				id = siteIds.get(site);
+				if (id == null) {
+					id = sites.size();
+					sites.add(site);
+					siteIds.put(site, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Appends a preview to the preview area. Once the area has reached the 2
+	 * GB its int offsets can address, previews are counted and dropped rather
+	 * than fail the tested code; the report then shows them as null.
+	 *
+	 * @param preview
+	 *            the preview, or null
+	 * @return its offset, -1 if it is null, or -2 if it was dropped
+	 */
+	private int writePreview(Object preview) {
+		if (preview == null) {
+			return -1;
+		}
+		String text = preview.toString();
+		int length = Math.min(text.length(), maxPreview);
+		int bytes = 2 + 2 * length;
+		long offset;
+		ByteBuffer chunk;
+		synchronized (this) {
+			offset = previewTop;
+			if ((offset & (chunkSize - 1)) + bytes > chunkSize) {
+				// start a new chunk rather than split the preview
+				offset = (offset + chunkSize - 1) & ~(long) (chunkSize - 1);
+			}
+			if (offset + bytes > Integer.MAX_VALUE) {
+				droppedPreviews.incrementAndGet();
+				return dropped;
+			}
+			int index = (int) (offset >>> chunkBits);
+			ByteBuffer[] current = chunks;
+			if (index == current.length) {
+				ByteBuffer[] grown = new ByteBuffer[index + 1];
+				System.arraycopy(current, 0, grown, 0, index);
+				grown[index] = allocate(chunkSize);
+				chunks = grown;
+				current = grown;
+			}
+			chunk = current[index];
+			previewTop = offset + bytes;
+		}
+
+		// the space is reserved, so the copy needs no lock; the record that
+		// refers to it is written under the lock of its segment afterwards
+		int at = (int) (offset & (chunkSize - 1));
+		chunk.putShort(at, (short) length);
+		for (int i = 0; i < length; i++) {
+			chunk.putChar(at + 2 + 2 * i, text.charAt(i));
+		}
+		return (int) offset;
+	}
+
+	/**
+	 * @param offset
+	 *            the offset of a preview, -1 or -2
+	 * @return the preview, or null if there is none or it was dropped
+	 */
+	private String readPreview(int offset) {
+		if (offset < 0) {
+			return null;
+		}
+		ByteBuffer chunk = chunks[offset >>> chunkBits];
+		int at = offset & (chunkSize - 1);
+		char[] text = new char[chunk.getShort(at)];
+		for (int i = 0; i < text.length; i++) {
+			text[i] = chunk.getChar(at + 2 + 2 * i);
+		}
+		return new String(text);
+	}
+
+	/**
+	 * @param offset
+	 *            the offset of a preview, -1 or -2
+	 * @param preview
+	 *            a preview, or null
+	 * @return true, if the preview stored at the offset is the given one, or
+	 *         could have been before it was dropped
+	 */
+	private boolean samePreview(int offset, Object preview) {
+		if (offset == dropped) {
+			return true;
+		}
+		if (preview == null) {
+			return offset < 0;
+		}
+		String text = preview.toString();
+		return text.substring(0, Math.min(text.length(), maxPreview)).equals(readPreview(offset));
+	}
+
+	/**
+	 * @return the high half of a 32 character hex key
+	 */
+	private static long keyHigh(Object key) {
+		return parseHex(key, 0);
+	}
+
+	private static long keyLow(Object key) {
+		return parseHex(key, 16);
+	}
+
+	/**
+	 * Parses half of a 32 character hex key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param from
+	 *            0 for the high half, 16 for the low half
+	 * @return the half
+	 */
+	static long parseHex(Object key, int from) {
+		if (!(key instanceof String) || ((String) key).length() != 32) {
+			throw new IllegalArgumentException("Off-heap results are keyed by MD5 hashes in hex, not " + key);
+		}
+		String hex = (String) key;
+		long value = 0;
+		for (int i = from; i < from + 16; i++) {
+			int digit = Character.digit(hex.charAt(i), 16);
+			if (digit < 0) {
+				throw new IllegalArgumentException("Off-heap results are keyed by MD5 hashes in hex, not " + key);
+			}
+			value = value << 4 | digit;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the 32 character hex key of a 128 bit hash
+	 */
+	static String hex(long high, long low) {
+		byte[] digest = new byte[16];
+		for (int i = 0; i < 8; i++) {
+			digest[i] = (byte) (high >>> (56 - 8 * i));
+			digest[i + 8] = (byte) (low >>> (56 - 8 * i));
+		}
+		return MD5.asHex(digest);
+	}
+
+	/**
+	 * A result read from a table. Its previews are read when they are asked
+	 * for, and are not copied again when it is put back. Logging it decides
+	 * the record it was read from in place.
+	 */
+	final class StoredResult extends CompactResult {
+
+		private final Segment segment;
+		private final long high, low;
+		private final int inputOffset, expectedOffset;
+		private volatile int resultOffset;
+
+		StoredResult(Segment segment, long high, long low, CallSite site, long time, long expectedHigh, long expectedLow, int state, int inputOffset,
+				int expectedOffset, int resultOffset) {
+			super(site, time, expectedHigh, expectedLow, null);
+			setState(state);
+			this.segment = segment;
+			this.high = high;
+			this.low = low;
+			this.inputOffset = inputOffset;
+			this.expectedOffset = expectedOffset;
+			this.resultOffset = resultOffset;
+		}
+
+		OffHeapResultStore store() {
+			return OffHeapResultStore.this;
+		}
+
+		/**
+		 * Decides the record in place, under the lock of its segment, see
+		 * {@link Result#logged(Object, boolean)}. A failed output is only
+		 * printed and stored once the record has been claimed, so a call that
+		 * loses the race stores nothing.
+		 */
+		@Override
+		boolean logged(Object toLog, boolean passed) throws UnIdentifiableException {
+			if (getState() != Result.loaded) {
+				return false;
+			}
+			int state = Result.state(passed ? Status.PASSED : Status.FAILED);
+			int logged;
+			if (passed) {
+				logged = expectedOffset;
+				if (!segment.decide(high, low, Result.loaded, state, logged)) {
+					return false;
+				}
+			} else {
+				if (!segment.decide(high, low, Result.loaded, Result.claimed, resultOffset)) {
+					return false;
+				}
+				logged = writePreview(Tester.truncate(TesterUtils.objectPrinter(toLog)));
+				if (!segment.decide(high, low, Result.claimed, state, logged)) {
+					return false;
+				}
+			}
+			resultOffset = logged;
+			setState(state);
+			return true;
+		}
+
+		@Override
+		public Object getInput() {
+			return readPreview(inputOffset);
+		}
+
+		@Override
+		public Object getExpectedResult() {
+			return readPreview(expectedOffset);
+		}
+
+		@Override
+		public Object getResult() {
+			return readPreview(resultOffset);
+		}
+	}
+
+	/**
+	 * One map of the tester.
+	 */
+	private final class Table extends AbstractMap<String, Result> implements ConcurrentMap<String, Result> {
+
+		private final Segment[] segments = new Segment[1 << segmentBits];
+
+		Table() {
+			for (int i = 0; i < segments.length; i++) {
+				segments[i] = new Segment();
+			}
+		}
+
+		private Segment segment(long high) {
+			return segments[(int) (high >>> (Long.SIZE - segmentBits))];
+		}
+
+		@Override
+		public int size() {
+			int size = 0;
+			for (Segment segment : segments) {
+				size += segment.count;
+			}
+			return size;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			long high = keyHigh(key);
+			return segment(high).contains(high, keyLow(key));
+		}
+
+		@Override
+		public Result get(Object key) {
+			long high = keyHigh(key);
+			return segment(high).get(high, keyLow(key));
+		}
+
+		@Override
+		public Result put(String key, Result value) {
+			long high = keyHigh(key);
+			return segment(high).put(high, keyLow(key), record(value), false);
+		}
+
+		@Override
+		public Result putIfAbsent(String key, Result value) {
+			long high = keyHigh(key);
+			return segment(high).put(high, keyLow(key), record(value), true);
+		}
+
+		@Override
+		public Result remove(Object key) {
+			long high = keyHigh(key);
+			return segment(high).remove(high, keyLow(key));
+		}
+
+		/**
+		 * Results read from a table are copies, so the value is compared with
+		 * the record field by field.
+		 */
+		@Override
+		public boolean remove(Object key, Object value) {
+			if (!(value instanceof Result)) {
+				return false;
+			}
+			long high = keyHigh(key);
+			return segment(high).remove(high, keyLow(key), (Result) value);
+		}
+
+		/**
+		 * Compares the old value with the record field by field, like
+		 * {@link #remove(Object, Object)}.
+		 */
+		@Override
+		public boolean replace(String key, Result oldValue, Result newValue) {
+			long high = keyHigh(key);
+			return segment(high).replace(high, keyLow(key), oldValue, newValue);
+		}
+
+		@Override
+		public Result replace(String key, Result value) {
+			long high = keyHigh(key);
+			Segment segment = segment(high);
+			synchronized (segment) {
+				return segment.contains(high, keyLow(key)) ? segment.put(high, keyLow(key), record(value), false) : null;
+			}
+		}
+
+		@Override
+		public void clear() {
+			for (Segment segment : segments) {
+				segment.clear();
+			}
+		}
+
+		/**
+		 * Iterates a copy of one segment at a time, so it reflects the table
+		 * at some point while it runs, like the iterators of
+		 * ConcurrentHashMap.
+		 */
+		@Override
+		public Set<Map.Entry<String, Result>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Result>>() {
+				@Override
+				public int size() {
+					return Table.this.size();
+				}
+
+				@Override
+				public Iterator<Map.Entry<String, Result>> iterator() {
+					return new Iterator<Map.Entry<String, Result>>() {
+						private int next = 0;
+						private Iterator<Map.Entry<String, Result>> current = new ArrayList<Map.Entry<String, Result>>().iterator();
+
+						@Override
+						public boolean hasNext() {
+							while (!current.hasNext() && next < segments.length) {
+								current = segments[next++].entries().iterator();
+							}
+							return current.hasNext();
+						}
+
+						@Override
+						public Map.Entry<String, Result> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							return current.next();
+						}
+					};
+				}
+			};
+		}
+	}
+
+	/**
+	 * The fields of a record other than its key.
+	 */
+	private static final class Record {
+		byte status;
+		int site, input, expected, logged, outputId;
+		long time, expectedHigh, expectedLow;
+	}
+
+	/**
+	 * Converts a result into the fields of a record, appending its previews
+	 * to the preview area unless they are already there.
+	 *
+	 * @param value
+	 *            a compact result
+	 * @return the record
+	 */
+	private Record record(Result value) {
+		if (!(value instanceof CompactResult)) {
+			throw new IllegalArgumentException("Only compact results can be kept off the heap");
+		}
+		CompactResult result = (CompactResult) value;
+		Record record = new Record();
+		if (result instanceof StoredResult && ((StoredResult) result).store() == this) {
+			StoredResult stored = (StoredResult) result;
+			record.input = stored.inputOffset;
+			record.expected = stored.expectedOffset;
+			record.logged = stored.resultOffset;
+		} else {
+			record.input = writePreview(result.getInput());
+			Object expectedPreview = result.getExpectedResult();
+			record.expected = writePreview(expectedPreview);
+			Object resultPreview = result.getResult();
+			record.logged = resultPreview == expectedPreview ? record.expected : writePreview(resultPreview);
+		}
+		// 0 marks an empty slot
+		record.status = (byte) result.getState();
+		record.site = siteId(result.getSite());
+		record.time = result.getTime();
+		record.expectedHigh = result.getExpectedHigh();
+		record.expectedLow = result.getExpectedLow();
+		record.outputId = result.getOutputId();
+		return record;
+	}
+
+	/**
+	 * One lockable part of a table: an open addressing table with linear
+	 * probing, whose slots are records. A zero status marks an empty slot.
+	 */
+	private final class Segment {
+
+		private ByteBuffer slots = allocate(initialSlots * recordSize);
+		private int mask = initialSlots - 1;
+		private volatile int count;
+
+		/**
+		 * @return the slot holding the key, or the complement of the empty
+		 *         slot where it would go
+		 */
+		private int find(long high, long low) {
+			int slot = (int) low & mask;
+			while (true) {
+				int at = slot * recordSize;
+				if (slots.get(at + statusAt) == 0) {
+					return ~slot;
+				}
+				if (slots.getLong(at + keyLowAt) == low && slots.getLong(at + keyHighAt) == high) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		synchronized boolean contains(long high, long low) {
+			return find(high, low) >= 0;
+		}
+
+		synchronized Result get(long high, long low) {
+			int slot = find(high, low);
+			return slot < 0 ? null : read(slot);
+		}
+
+		synchronized Result put(long high, long low, Record record, boolean ifAbsent) {
+			int slot = find(high, low);
+			Result previous = null;
+			if (slot >= 0) {
+				previous = read(slot);
+				if (ifAbsent) {
+					return previous;
+				}
+			} else {
+				if (count + 1 > (mask + 1) / 4 * 3) {
+					grow();
+					slot = find(high, low);
+				}
+				slot = ~slot;
+				count++;
+			}
+			write(slot * recordSize, high, low, record);
+			return previous;
+		}
+
+		/**
+		 * Changes the state and the logged preview of a record if it is in
+		 * the expected state.
+		 *
+		 * @return true, if the record was in the expected state
+		 */
+		synchronized boolean decide(long high, long low, int expect, int state, int logged) {
+			int slot = find(high, low);
+			if (slot < 0) {
+				return false;
+			}
+			int at = slot * recordSize;
+			if (slots.get(at + statusAt) != expect) {
+				return false;
+			}
+			slots.putInt(at + resultAt, logged);
+			slots.put(at + statusAt, (byte) state);
+			return true;
+		}
+
+		/**
+		 * Removes a record if it holds the given result.
+		 *
+		 * @return true, if it was removed
+		 */
+		synchronized boolean remove(long high, long low, Result value) {
+			int slot = find(high, low);
+			if (slot < 0 || !holds(slot, value)) {
+				return false;
+			}
+			remove(high, low);
+			return true;
+		}
+
+		/**
+		 * Replaces a record if it holds the given result.
+		 *
+		 * @return true, if it was replaced
+		 */
+		synchronized boolean replace(long high, long low, Result oldValue, Result newValue) {
+			int slot = find(high, low);
+			if (slot < 0 || !holds(slot, oldValue)) {
+				return false;
+			}
+			put(high, low, record(newValue), false);
+			return true;
+		}
+
+		/**
+		 * Compares a record with a result field by field, since the results
+		 * read from a table are copies.
+		 *
+		 * @return true, if the record holds the same result
+		 */
+		private boolean holds(int slot, Result value) {
+			if (!(value instanceof CompactResult)) {
+				return false;
+			}
+			CompactResult result = (CompactResult) value;
+			int at = slot * recordSize;
+			Integer site = siteIds.get(result.getSite());
+			if (slots.get(at + statusAt) != (byte) result.getState() || site == null || slots.getInt(at + siteAt) != site
+					|| slots.getLong(at + timeAt) != result.getTime() || slots.getLong(at + expectedHighAt) != result.getExpectedHigh()
+					|| slots.getLong(at + expectedLowAt) != result.getExpectedLow() || slots.getInt(at + outputIdAt) != result.getOutputId()) {
+				return false;
+			}
+			if (result instanceof StoredResult && ((StoredResult) result).store() == OffHeapResultStore.this) {
+				StoredResult stored = (StoredResult) result;
+				return slots.getInt(at + inputAt) == stored.inputOffset && slots.getInt(at + expectedAt) == stored.expectedOffset
+						&& slots.getInt(at + resultAt) == stored.resultOffset;
+			}
+			return samePreview(slots.getInt(at + inputAt), result.getInput()) && samePreview(slots.getInt(at + expectedAt), result.getExpectedResult())
+					&& samePreview(slots.getInt(at + resultAt), result.getResult());
+		}
+
+		synchronized Result remove(long high, long low) {
+			int slot = find(high, low);
+			if (slot < 0) {
+				return null;
+			}
+			Result previous = read(slot);
+			count--;
+
+			// shift back the records that probed past the removed one
+			int hole = slot;
+			int next = hole;
+			while (true) {
+				next = (next + 1) & mask;
+				int at = next * recordSize;
+				if (slots.get(at + statusAt) == 0) {
+					break;
+				}
+				int home = (int) slots.getLong(at + keyLowAt) & mask;
+				boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+				if (movable) {
+					copy(slots, at, slots, hole * recordSize);
+					hole = next;
+				}
+			}
+			slots.put(hole * recordSize + statusAt, (byte) 0);
+			return previous;
+		}
+
+		synchronized void clear() {
+			allocated.addAndGet(-slots.capacity());
+			slots = allocate(initialSlots * recordSize);
+			mask = initialSlots - 1;
+			count = 0;
+		}
+
+		synchronized List<Map.Entry<String, Result>> entries() {
+			List<Map.Entry<String, Result>> entries = new ArrayList<Map.Entry<String, Result>>(count);
+			for (int slot = 0; slot <= mask; slot++) {
+				int at = slot * recordSize;
+				if (slots.get(at + statusAt) != 0) {
+					entries.add(new AbstractMap.SimpleImmutableEntry<String, Result>(hex(slots.getLong(at + keyHighAt), slots.getLong(at + keyLowAt)), read(slot)));
+				}
+			}
+			return entries;
+		}
+
+		private void grow() {
+			ByteBuffer old = slots;
+			int oldSlots = mask + 1;
+			allocated.addAndGet(-old.capacity());
+			slots = allocate(oldSlots * 2 * recordSize);
+			mask = oldSlots * 2 - 1;
+			for (int slot = 0; slot < oldSlots; slot++) {
+				int at = slot * recordSize;
+				if (old.get(at + statusAt) != 0) {
+					int target = ~find(old.getLong(at + keyHighAt), old.getLong(at + keyLowAt));
+					copy(old, at, slots, target * recordSize);
+				}
+			}
+		}
+
+		private void write(int at, long high, long low, Record record) {
+			slots.putLong(at + keyHighAt, high);
+			slots.putLong(at + keyLowAt, low);
+			slots.putInt(at + siteAt, record.site);
+			slots.putLong(at + timeAt, record.time);
+			slots.putLong(at + expectedHighAt, record.expectedHigh);
+			slots.putLong(at + expectedLowAt, record.expectedLow);
+			slots.putInt(at + inputAt, record.input);
+			slots.putInt(at + expectedAt, record.expected);
+			slots.putInt(at + resultAt, record.logged);
+			slots.putInt(at + outputIdAt, record.outputId);
+			slots.put(at + statusAt, record.status);
+		}
+
+		private Result read(int slot) {
+			int at = slot * recordSize;
+			StoredResult result = new StoredResult(this, slots.getLong(at + keyHighAt), slots.getLong(at + keyLowAt), sites.get(slots.getInt(at + siteAt)),
+					slots.getLong(at + timeAt), slots.getLong(at + expectedHighAt), slots.getLong(at + expectedLowAt), slots.get(at + statusAt),
+					slots.getInt(at + inputAt), slots.getInt(at + expectedAt), slots.getInt(at + resultAt));
+			result.setOutputId(slots.getInt(at + outputIdAt));
+			return result;
+		}
+	}
+
+	private static void copy(ByteBuffer from, int fromAt, ByteBuffer to, int toAt) {
+		for (int i = 0; i < recordSize; i += 8) {
+			to.putLong(toAt + i, from.getLong(fromAt + i));
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * File: OverheadGovernor.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the time a tester spends in its probes within a share of the
+ * available CPU time. Once per window it compares the load() and log() time
+ * recorded by every call site with the window length times the number of
+ * processors. input() calls are not counted, since sampling cannot skip them:
+ * every thread has to register its expectations. If the share is over budget,
+ * the sites that spent the most time have their sampling throttled by half,
+ * hottest first, until the expected saving covers the excess. Once the share
+ * drops below half the budget, every throttled site gets twice as many
+ * samples again.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class OverheadGovernor implements Runnable {
+
+	/**
+	 * No site is throttled to fewer than one in this many invocations.
+	 */
+	static final int maxThrottle = 1 << 16;
+
+	/**
+	 * Runs the governors of every tester.
+	 */
+	private static ScheduledExecutorService scheduler;
+
+	private final Tester tester;
+	private final double budget;
+	private final ScheduledFuture<?> task;
+
+	/**
+	 * The time of the last window, only used by the governor thread.
+	 */
+	private long windowStart;
+
+	// published for the reports and JMX
+	private volatile double lastShare;
+	private volatile long throttles, recoveries;
+
+	/**
+	 * Starts governing a tester.
+	 *
+	 * @param tester
+	 *            the tester to govern
+	 * @param budget
+	 *            the largest share of the CPU time the probes may take, e.g.
+	 *            0.01 for 1%
+	 * @param windowMillis
+	 *            the length of a window
+	 */
+	OverheadGovernor(Tester tester, double budget, long windowMillis) {
+		this.tester = tester;
+		this.budget = budget;
+
+		// start counting from now
+		for (CallSite site : tester.callSites()) {
+			site.governedNanos = site.sampledNanos.sum();
+		}
+		windowStart = System.nanoTime();
+		task = scheduler().scheduleAtFixedRate(this, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private static synchronized ScheduledExecutorService scheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Tester overhead governor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Stops governing and lifts every throttle.
+	 */
+	void stop() {
+		task.cancel(false);
+		for (CallSite site : tester.callSites()) {
+			site.throttle = 1;
+		}
+	}
+
+	@Override
+	public void run() {
+		long now = System.nanoTime();
+		long elapsed = now - windowStart;
+		windowStart = now;
+		if (elapsed <= 0) {
+			return;
+		}
+
+		// the probe time of each site during the window
+		List<CallSite> sites = tester.callSites();
+		final long[] spent = new long[sites.size()];
+		long total = 0;
+		for (int i = 0; i < sites.size(); i++) {
+			CallSite site = sites.get(i);
+			long nanos = site.sampledNanos.sum();
+			spent[i] = Math.max(0, nanos - site.governedNanos);
+			site.governedNanos = nanos;
+			total += spent[i];
+		}
+
+		long available = elapsed * Runtime.getRuntime().availableProcessors();
+		double share = (double) total / available;
+		lastShare = share;
+
+		if (share > budget) {
+			throttle(sites, spent, total - (long) (budget * available));
+		} else if (share < budget / 2) {
+			for (CallSite site : sites) {
+				if (site.throttle > 1) {
+					site.throttle /= 2;
+					recoveries++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Halves the samples of the hottest sites until the excess is covered.
+	 *
+	 * @param sites
+	 *            every call site
+	 * @param spent
+	 *            the probe time of each site during the window
+	 * @param excess
+	 *            the probe time over budget
+	 */
+	private void throttle(List<CallSite> sites, final long[] spent, long excess) {
+		List<Integer> hottest = new ArrayList<Integer>();
+		for (int i = 0; i < sites.size(); i++) {
+			hottest.add(i);
+		}
+		Collections.sort(hottest, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(spent[b], spent[a]);
+			}
+		});
+
+		for (int i : hottest) {
+			if (excess <= 0 || spent[i] == 0) {
+				break;
+			}
+			CallSite site = sites.get(i);
+			if (site.throttle < maxThrottle) {
+				site.throttle *= 2;
+				excess -= spent[i] / 2;
+				throttles++;
+				tester.startSampling();
+			}
+		}
+	}
+
+	/**
+	 * @return the largest share of the CPU time the probes may take
+	 */
+	double getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return the share of the CPU time the probes took during the last window
+	 */
+	double getLastShare() {
+		return lastShare;
+	}
+
+	/**
+	 * @return the number of times a site was throttled
+	 */
+	long getThrottles() {
+		return throttles;
+	}
+
+	/**
+	 * @return the number of times a throttle was eased
+	 */
+	long getRecoveries() {
+		return recoveries;
+	}
+}
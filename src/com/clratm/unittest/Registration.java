@@ -0,0 +1,75 @@
+/*
+ * File: Registration.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+/**
+ * Identifies a single completed input() call by the line it was made from, the
+ * thread that made it, and the values it registered. Two equal registrations
+ * are guaranteed to produce the same hashes, so the second one can be skipped.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class Registration {
+
+	private final String clazz, method;
+	private final int line;
+	private final long threadId;
+	private final Object input, expectedResult;
+	private final int hash;
+
+	Registration(StackWalker.StackFrame caller, long threadId, Object input, Object expectedResult) {
+		this.clazz = caller.getClassName();
+		this.method = caller.getMethodName();
+		this.line = caller.getLineNumber();
+		this.threadId = threadId;
+		this.input = input;
+		this.expectedResult = expectedResult;
+
+		int h = clazz.hashCode();
+		h = 31 * h + method.hashCode();
+		h = 31 * h + line;
+		h = 31 * h + (int) (threadId ^ (threadId >>> 32));
+		h = 31 * h + input.hashCode();
+		h = 31 * h + expectedResult.hashCode();
+		this.hash = h;
+	}
+
+	/**
+	 * Only values that cannot change after registration are eligible, since
+	 * equality has to imply an identical byte representation.
+	 *
+	 * @param value
+	 *            the registered value
+	 * @return true, if the value is a String or boxed primitive
+	 */
+	static boolean isImmutable(Object value) {
+		if (value == null) {
+			return false;
+		}
+		Class<?> type = value.getClass();
+		return type == String.class || type == Integer.class || type == Long.class || type == Boolean.class || type == Character.class || type == Double.class
+				|| type == Float.class || type == Short.class || type == Byte.class;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Registration)) {
+			return false;
+		}
+		Registration other = (Registration) obj;
+		return hash == other.hash && line == other.line && threadId == other.threadId && clazz.equals(other.clazz) && method.equals(other.method)
+				&& input.equals(other.input) && expectedResult.equals(other.expectedResult);
+	}
+}
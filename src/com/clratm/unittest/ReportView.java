@@ -0,0 +1,98 @@
+/*
+ * File: ReportView.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.clratm.unittest.Result.Status;
+
+/**
+ * A copy of the results and coverage of an epoch, taken in one pass for a
+ * report. The probes never wait for it: the maps are read without locks, or a
+ * segment at a time for off-heap tables just as a probe locks them, each
+ * result is copied as it is read, and the bit of each output is read once. The
+ * report then sorts, counts and prints the copies, however long that takes,
+ * so its rows and totals agree with each other and with what the probes did
+ * until the scan, instead of with a mix of what they did before and during
+ * the printing.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class ReportView {
+
+	/**
+	 * The loaded results and the examples kept of unexpected inputs,
+	 * alphabetized by class and method, or null if they were not copied.
+	 */
+	final List<Result> results;
+
+	/**
+	 * The registered expectations, or null if they were not copied.
+	 */
+	final List<Result> expected;
+
+	/**
+	 * The expected outputs that had been logged when their bit was read, and
+	 * those that had not.
+	 */
+	final List<Result> covered, uncovered;
+
+	/**
+	 * Copies an epoch.
+	 *
+	 * @param epoch
+	 *            the epoch
+	 * @param withResults
+	 *            true to copy the results
+	 * @param expectations
+	 *            true to copy the registered expectations as well
+	 */
+	ReportView(TesterEpoch epoch, boolean withResults, boolean expectations) {
+		if (withResults) {
+			results = new ArrayList<Result>(epoch.expectedHash_inObject.size());
+			for (Result result : epoch.expectedHash_inObject.values()) {
+				results.add(result.copy());
+			}
+			// unexpected inputs are represented by the examples kept, with
+			// their printed value as the input
+			for (CallSite site : epoch.callSites()) {
+				for (UnexpectedInputs.Example example : site.unexpectedInputs.examples()) {
+					results.add(new Result(new Date(example.time), site.getClazz(), site.getMethod(), example.preview, null, null, Status.UNEXPECTED));
+				}
+			}
+		} else {
+			results = null;
+		}
+
+		if (expectations) {
+			expected = new ArrayList<Result>(epoch.input_expected.size());
+			for (Result result : epoch.input_expected.values()) {
+				expected.add(result.copy());
+			}
+		} else {
+			expected = null;
+		}
+
+		// outputs do not change once registered, only their bits do
+		covered = new ArrayList<Result>();
+		uncovered = new ArrayList<Result>();
+		for (Result output : epoch.outputs.values()) {
+			if (epoch.covered.get(output.getOutputId())) {
+				covered.add(output);
+			} else {
+				uncovered.add(output);
+			}
+		}
+
+		if (results != null) {
+			Collections.sort(results);
+		}
+	}
+}
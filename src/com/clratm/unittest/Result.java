@@ -7,6 +7,9 @@
 package com.clratm.unittest;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import com.twmacinta.util.MD5;
 
 /**
  * Stores information about a test result. This includes the time the test was
@@ -23,7 +26,41 @@ public class Result implements Comparable<Result> {
 	protected String method, clazz, expectedHash;
 	protected Object input, result, expectedResult;
 	protected Date date;
-	protected Status status;
+
+	private static final Status[] statuses = Status.values();
+
+	/**
+	 * Set in the state while the case started by the last load() has not been
+	 * logged.
+	 */
+	static final int pending = 0x40;
+
+	/**
+	 * The state of a result that has been loaded and not logged yet.
+	 */
+	static final int loaded = state(Status.FAILED) | pending;
+
+	/**
+	 * The state of a result whose log() call has claimed it and is recording
+	 * the output.
+	 */
+	static final int claimed = state(Status.FAILED);
+
+	private static final AtomicIntegerFieldUpdater<Result> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(Result.class, "state");
+
+	/**
+	 * The status, as its ordinal plus 1 or 0 for none, and {@link #pending}.
+	 * The records of {@link OffHeapResultStore} use the same encoding. It is
+	 * written after the values it describes, so that whoever reads it first
+	 * sees values at least as new as the status.
+	 */
+	private volatile int state;
+
+	/**
+	 * The id of the expected output in the coverage bitset of the tester, -1
+	 * if the result is not an expected output.
+	 */
+	private int outputId = -1;
 
 	public Result(Date date, String className, String method, Object input, Object result, Object expectedResult, Status status) {
 		this.method = method;
@@ -32,20 +69,124 @@ public class Result implements Comparable<Result> {
 		this.result = result;
 		this.expectedResult = expectedResult;
 		this.date = date;
-		this.status = status;
+		this.state = state(status);
+	}
+
+	/**
+	 * @return the state of a status that is not pending
+	 */
+	static int state(Status status) {
+		return status == null ? 0 : status.ordinal() + 1;
 	}
 
 	@Override
 	public int compareTo(Result result) {
-		if (this.clazz != null && result.clazz != null && this.method != null && result.method != null) {
-			if (this.clazz.compareToIgnoreCase(result.clazz) == 0) // same class
-				return this.method.compareToIgnoreCase(result.method);
+		String clazz = getClazz(), method = getMethod(), otherClazz = result.getClazz(), otherMethod = result.getMethod();
+		if (clazz != null && otherClazz != null && method != null && otherMethod != null) {
+			if (clazz.compareToIgnoreCase(otherClazz) == 0) // same class
+				return method.compareToIgnoreCase(otherMethod);
 			else
-				return this.clazz.compareToIgnoreCase(result.clazz);
+				return clazz.compareToIgnoreCase(otherClazz);
 		}
 		return 0;
 	}
 
+	int getOutputId() {
+		return outputId;
+	}
+
+	void setOutputId(int outputId) {
+		this.outputId = outputId;
+	}
+
+	/**
+	 * @return the time of the result in milliseconds, 0 if it has none
+	 */
+	long getTime() {
+		return date == null ? 0 : date.getTime();
+	}
+
+	/**
+	 * Copies the result for a report, reading the status before the values.
+	 * 
+	 * @return the copy
+	 */
+	Result copy() {
+		Status status = getStatus();
+		Result copy = new Result(getDate(), getClazz(), getMethod(), getInput(), getResult(), getExpectedResult(), status);
+		copy.outputId = outputId;
+		return copy;
+	}
+
+	/**
+	 * @param digest
+	 *            the MD5 hash of a logged object
+	 * @return true, if it is the hash of the expected result
+	 */
+	boolean expects(byte[] digest) {
+		return MD5.asHex(digest).equals(expectedHash);
+	}
+
+	/**
+	 * Starts a case: remembers its input and marks the result FAILED until the
+	 * matching log() call decides it. Loading the result again starts a new
+	 * case.
+	 * 
+	 * @param input
+	 *            the loaded input
+	 */
+	void load(Object input) {
+		setInput(input);
+		state = loaded;
+	}
+
+	/**
+	 * Decides the case started by the last load(), in place: a log() call
+	 * claims the pending case with a compare-and-set, records the output and
+	 * then publishes PASSED or FAILED with a second one. Of two log() calls
+	 * racing for a case only one decides it, and a result loaded again while
+	 * its output is recorded is left to its new case.
+	 * 
+	 * @param toLog
+	 *            the logged object
+	 * @param passed
+	 *            true, if it matched the expected result
+	 * @return true, if this call decided the case, false if it had already
+	 *         been logged
+	 * @throws UnIdentifiableException
+	 */
+	boolean logged(Object toLog, boolean passed) throws UnIdentifiableException {
+		if (!stateUpdater.compareAndSet(this, loaded, claimed)) {
+			return false;
+		}
+		setLogged(toLog, passed);
+		return stateUpdater.compareAndSet(this, claimed, state(passed ? Status.PASSED : Status.FAILED));
+	}
+
+	/**
+	 * @return the state, see {@link #state}
+	 */
+	int getState() {
+		return state;
+	}
+
+	void setState(int state) {
+		this.state = state;
+	}
+
+	/**
+	 * Remembers the logged object.
+	 * 
+	 * @param toLog
+	 *            the logged object
+	 * @param passed
+	 *            true, if it matched the expected result
+	 * @throws UnIdentifiableException
+	 */
+	void setLogged(Object toLog, boolean passed) throws UnIdentifiableException {
+		setResult(toLog);
+	}
+
 	public String getExpectedHash() {
 		return expectedHash;
 	}
@@ -103,11 +244,12 @@ public class Result implements Comparable<Result> {
 	}
 
 	public Status getStatus() {
-		return status;
+		int status = state & ~pending;
+		return status == 0 ? null : statuses[status - 1];
 	}
 
 	public void setStatus(Status status) {
-		this.status = status;
+		this.state = state(status);
 	}
 
 	@Override
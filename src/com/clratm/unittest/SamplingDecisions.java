@@ -0,0 +1,56 @@
+/*
+ * File: SamplingDecisions.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+/**
+ * The sampling decision a thread passes from a load() call to the log() call
+ * after it. An invocation that is not sampled must skip its log() without
+ * walking the stack, so the decision cannot be keyed to the calling method; it
+ * is matched by order instead. A log() call is skipped exactly when the last
+ * load() call on its thread was not sampled and no log() call has come since,
+ * which pairs every load() with its log() as long as tested methods call each
+ * other in nested fashion.
+ * <p>
+ * A load() that is not sampled and ends in an exception instead of a log()
+ * leaves its decision behind until the next load() of the thread. If a tested
+ * method that called it catches the exception and logs before loading again,
+ * that log() is skipped too, and its case stays FAILED. A log() without a
+ * load() before it, or whose load() ran before sampling was turned on, is
+ * verified.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class SamplingDecisions {
+
+	/**
+	 * True from a load() call that was not sampled until the next log() call.
+	 */
+	private boolean skipLog;
+
+	/**
+	 * Remembers the decision of a load() call.
+	 *
+	 * @param sampled
+	 *            true, if the invocation is verified
+	 */
+	void loaded(boolean sampled) {
+		skipLog = !sampled;
+	}
+
+	/**
+	 * Takes the decision for a log() call.
+	 *
+	 * @return true, if the invocation is verified
+	 */
+	boolean logged() {
+		if (skipLog) {
+			skipLog = false;
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,352 @@
+/*
+ * File: SharedCoverage.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Coverage shared by every JVM on a host through a memory-mapped file, see
+ * {@link Tester#setSharedCoverage(Path, int)}. Each expected output gets the
+ * index of the slot its 128 bit MD5 hash is claimed in as its id, the same in
+ * every process that maps the file. The ids are sparse: they are spread over
+ * the whole capacity, and the bitmaps have a bit for every slot. Covering an output or passing a case sets its
+ * bit with a single atomic OR, so a parent process can read the coverage of
+ * all its forks while they run, without a merge step. Running this class
+ * prints the coverage recorded in a file:
+ *
+ * <pre>
+ * java com.clratm.unittest.SharedCoverage coverage.bits
+ * </pre>
+ *
+ * The file is in the native byte order of the host:
+ *
+ * <pre>
+ * header:   int magic "CLRB", int version, int capacity, int unused, long ids, long overflows, 32 unused bytes
+ * hashes:   capacity times long hash high, long hash low; 0 for a free slot
+ * covered:  capacity bits
+ * passed:   capacity bits
+ * </pre>
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+public final class SharedCoverage {
+
+	private static final int magic = 0x434c5242;
+	private static final int version = 1;
+	private static final int headerSize = 64;
+	private static final int capacityOffset = 8, idsOffset = 16, overflowsOffset = 24;
+
+	/**
+	 * No more ids are handed out once the hash table is this full, so that
+	 * probing stays short.
+	 */
+	private static final int maxLoadPercent = 75;
+
+	/**
+	 * How many times a reader checks for the low half of a claimed slot
+	 * before giving up on it. A process that stopped between claiming a slot
+	 * and publishing its low half would otherwise hang every other process
+	 * that probes the slot.
+	 */
+	private static final int maxSpins = 1 << 10;
+
+	/**
+	 * The largest capacity whose file can be mapped as one buffer.
+	 */
+	private static final int maxCapacity = 1 << 26;
+
+	/**
+	 * Atomic access to the longs of the mapped file, which all processes see.
+	 */
+	private static final VarHandle longs = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	private final Path path;
+	/**
+	 * The mapping, typed as the VarHandle expects it, which keeps the atomic
+	 * operations from being adapted on every call.
+	 */
+	private final ByteBuffer buffer;
+	private final int capacity;
+	private final int coveredOffset, passedOffset;
+
+	private SharedCoverage(Path path, MappedByteBuffer buffer) {
+		this.path = path;
+		this.buffer = buffer;
+		this.capacity = buffer.getInt(capacityOffset);
+		this.coveredOffset = headerSize + capacity * 16;
+		this.passedOffset = coveredOffset + capacity / 8;
+	}
+
+	/**
+	 * Maps a coverage file, creating it if no process has yet.
+	 *
+	 * @param path
+	 *            the file, on a file system shared by the processes
+	 * @param capacity
+	 *            the number of expected outputs the file has room for if it is
+	 *            created, rounded up to a power of two; an existing file keeps
+	 *            its capacity
+	 * @return the shared coverage
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not a coverage file
+	 */
+	public static SharedCoverage open(Path path, int capacity) throws IOException {
+		if (capacity < 1 || capacity > maxCapacity) {
+			throw new IllegalArgumentException("The capacity must be between 1 and " + maxCapacity + ", not " + capacity);
+		}
+		capacity = Math.max(64, Integer.highestOneBit(capacity * 2 - 1));
+		// file locks are held by the JVM, not the thread
+		synchronized (SharedCoverage.class) {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				FileLock lock = channel.lock();
+				try {
+					if (channel.size() == 0) {
+						MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(capacity));
+						buffer.order(ByteOrder.nativeOrder());
+						buffer.putInt(0, magic).putInt(4, version).putInt(capacityOffset, capacity);
+						return new SharedCoverage(path, buffer);
+					}
+					return map(path, channel);
+				} finally {
+					lock.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maps an existing coverage file, e.g. to read the coverage of other
+	 * processes.
+	 *
+	 * @param path
+	 *            the file
+	 * @return the shared coverage
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not a coverage file
+	 */
+	public static SharedCoverage open(Path path) throws IOException {
+		synchronized (SharedCoverage.class) {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				FileLock lock = channel.lock();
+				try {
+					return map(path, channel);
+				} finally {
+					lock.release();
+				}
+			}
+		}
+	}
+
+	private static SharedCoverage map(Path path, FileChannel channel) throws IOException {
+		if (channel.size() < headerSize) {
+			throw new IOException(path + " is not a coverage file");
+		}
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize);
+		header.order(ByteOrder.nativeOrder());
+		if (header.getInt(0) != magic) {
+			throw new IOException(path + " is not a coverage file");
+		}
+		if (header.getInt(4) != version) {
+			throw new IOException(path + " was written by another version of the tester");
+		}
+		int capacity = header.getInt(capacityOffset);
+		if (Integer.bitCount(capacity) != 1 || capacity > maxCapacity || channel.size() != size(capacity)) {
+			throw new IOException(path + " is not a coverage file");
+		}
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(capacity));
+		buffer.order(ByteOrder.nativeOrder());
+		return new SharedCoverage(path, buffer);
+	}
+
+	private static long size(int capacity) {
+		return headerSize + capacity * 16L + capacity / 4;
+	}
+
+	/**
+	 * Finds the id of an expected output, claiming a free slot for it if no
+	 * process has. A slot is claimed by setting its high half with a CAS, and
+	 * the low half is published after it; readers that find a matching high
+	 * half wait for the low half, but only briefly: if it has not appeared,
+	 * the output is counted as an overflow and gets no id this time. Halves
+	 * of 0 are stored as 1, as 0 marks a free slot.
+	 *
+	 * @param high
+	 *            the first half of the hash of the output
+	 * @param low
+	 *            the second half
+	 * @return the id, or -1 if the file is full or the slot of the output
+	 *         was never completed
+	 */
+	int id(long high, long low) {
+		return probe(high == 0 ? 1 : high, low == 0 ? 1 : low, true);
+	}
+
+	/**
+	 * @return the id of an expected output, or -1 if no process has
+	 *         registered it, or its slot was never completed
+	 */
+	int find(long high, long low) {
+		return probe(high == 0 ? 1 : high, low == 0 ? 1 : low, false);
+	}
+
+	private int probe(long high, long low, boolean claim) {
+		int mask = capacity - 1;
+		int slot = (int) (high ^ low) & mask;
+		for (int probes = 0; probes < capacity; probes++) {
+			int offset = headerSize + slot * 16;
+			long current = (long) longs.getVolatile(buffer, offset);
+			if (current == 0) {
+				if (!claim) {
+					return -1;
+				}
+				if ((long) longs.getVolatile(buffer, idsOffset) >= (long) capacity * maxLoadPercent / 100) {
+					longs.getAndAdd(buffer, overflowsOffset, 1L);
+					return -1;
+				}
+				if (longs.compareAndSet(buffer, offset, 0L, high)) {
+					longs.setVolatile(buffer, offset + 8, low);
+					longs.getAndAdd(buffer, idsOffset, 1L);
+					return slot;
+				}
+				current = (long) longs.getVolatile(buffer, offset);
+			}
+			if (current == high) {
+				long other;
+				int spins = 0;
+				while ((other = (long) longs.getVolatile(buffer, offset + 8)) == 0) {
+					// claimed, but the low half is not published yet
+					if (++spins == maxSpins) {
+						// skipping the slot could give the output a second id
+						// once the low half does appear, so give up instead
+						longs.getAndAdd(buffer, overflowsOffset, 1L);
+						return -1;
+					}
+					Thread.onSpinWait();
+				}
+				if (other == low) {
+					return slot;
+				}
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Marks an expected output as covered.
+	 *
+	 * @param id
+	 *            the id of the output
+	 */
+	void cover(int id) {
+		set(coveredOffset, id);
+	}
+
+	/**
+	 * Marks an expected output as produced by a passing case.
+	 *
+	 * @param id
+	 *            the id of the output
+	 */
+	void pass(int id) {
+		set(passedOffset, id);
+	}
+
+	private void set(int bitmap, int id) {
+		int offset = bitmap + (id >>> 6) * 8;
+		long bit = 1L << id;
+		if (((long) longs.getVolatile(buffer, offset) & bit) == 0) {
+			longs.getAndBitwiseOr(buffer, offset, bit);
+		}
+	}
+
+	/**
+	 * @return the file
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the number of expected outputs the file has room for
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of expected outputs registered by all processes
+	 */
+	public long getExpectedCount() {
+		return (long) longs.getVolatile(buffer, idsOffset);
+	}
+
+	/**
+	 * @return the number of expected outputs covered by any process
+	 */
+	public long getCoveredCount() {
+		return count(coveredOffset);
+	}
+
+	/**
+	 * @return the number of expected outputs produced by a passing case in
+	 *         any process
+	 */
+	public long getPassedCount() {
+		return count(passedOffset);
+	}
+
+	/**
+	 * @return the number of times an expected output could not get an id
+	 *         because the file was full, or its slot was claimed but never
+	 *         completed
+	 */
+	public long getOverflowCount() {
+		return (long) longs.getVolatile(buffer, overflowsOffset);
+	}
+
+	private long count(int bitmap) {
+		long count = 0;
+		for (int offset = bitmap; offset < bitmap + capacity / 8; offset += 8) {
+			count += Long.bitCount((long) longs.getVolatile(buffer, offset));
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		String text = path + ": " + getCoveredCount() + " / " + getExpectedCount() + " outputs covered, " + getPassedCount() + " passed";
+		long overflows = getOverflowCount();
+		return overflows == 0 ? text : text + ", " + overflows + " outputs got no id";
+	}
+
+	/**
+	 * Prints the coverage recorded in a file.
+	 *
+	 * @param args
+	 *            the file
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: SharedCoverage <coverage file>");
+			System.exit(2);
+		}
+		System.out.println(open(Paths.get(args[0])));
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * File: StructuralEncoder.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Identifies objects that have neither an id() nor a toString() by walking
+ * their fields, producing the same canonical form as the encoders generated
+ * for {@link Identity} classes. The field getters are looked up once per class
+ * and kept as method handles, so encoding an object does not go through
+ * reflection.
+ * <p>
+ * Objects already being encoded further up the same path are written as a
+ * back reference, and paths deeper than the depth limit are refused.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class StructuralEncoder implements IdentityEncoder<Object> {
+
+	private static final int INT = 0, LONG = 1, DOUBLE = 2, FLOAT = 3, SHORT = 4, BYTE = 5, CHAR = 6, BOOLEAN = 7, STRING = 8, OBJECT = 9;
+
+	private static final byte[] CYCLE = "<cycle:".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * How many objects deep a structural identity may go. Default is 16.
+	 */
+	static volatile int depthLimit = 16;
+
+	/**
+	 * The encoder of each class, built the first time the class is seen.
+	 */
+	private static final ClassValue<Object> encoders = new ClassValue<Object>() {
+		@Override
+		protected Object computeValue(Class<?> type) {
+			try {
+				return new StructuralEncoder(type);
+			} catch (IllegalAccessException e) {
+				// remember the failure rather than retrying every time
+				return new UnIdentifiableException("Cannot read the fields of " + type.getName() + ": " + e.getMessage());
+			}
+		}
+	};
+
+	/**
+	 * The objects currently being encoded on each thread, outermost first.
+	 */
+	private static final ThreadLocal<Path> paths = new ThreadLocal<Path>() {
+		@Override
+		protected Path initialValue() {
+			return new Path();
+		}
+	};
+
+	private final byte[][] prefixes;
+	private final byte[] end;
+	private final MethodHandle[] getters;
+	private final int[] kinds;
+
+	private StructuralEncoder(Class<?> type) throws IllegalAccessException {
+		List<Field> fields = new ArrayList<Field>();
+		collectFields(type, fields);
+
+		String opening = type.getSimpleName() + "{";
+
+		prefixes = new byte[fields.size()][];
+		getters = new MethodHandle[fields.size()];
+		kinds = new int[fields.size()];
+		for (int i = 0; i < fields.size(); i++) {
+			Field field = fields.get(i);
+			prefixes[i] = ((i == 0 ? opening : ", ") + field.getName() + "=").getBytes(StandardCharsets.UTF_8);
+			kinds[i] = kindOf(field.getType());
+
+			// erase the receiver so that every getter can be invoked exactly
+			MethodHandle getter = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup()).unreflectGetter(field);
+			Class<?> returnType = kinds[i] == OBJECT ? Object.class : field.getType();
+			getters[i] = getter.asType(MethodType.methodType(returnType, Object.class));
+		}
+		end = (fields.isEmpty() ? opening + "}" : "}").getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Adds the instance fields of a class, superclass fields first.
+	 */
+	private static void collectFields(Class<?> type, List<Field> fields) {
+		if (type == null || type == Object.class) {
+			return;
+		}
+		collectFields(type.getSuperclass(), fields);
+		for (Field field : type.getDeclaredFields()) {
+			int modifiers = field.getModifiers();
+			if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+				fields.add(field);
+			}
+		}
+	}
+
+	private static int kindOf(Class<?> type) {
+		if (type == int.class)
+			return INT;
+		if (type == long.class)
+			return LONG;
+		if (type == double.class)
+			return DOUBLE;
+		if (type == float.class)
+			return FLOAT;
+		if (type == short.class)
+			return SHORT;
+		if (type == byte.class)
+			return BYTE;
+		if (type == char.class)
+			return CHAR;
+		if (type == boolean.class)
+			return BOOLEAN;
+		if (type == String.class)
+			return STRING;
+		return OBJECT;
+	}
+
+	/**
+	 * Writes the structural identity of an object.
+	 *
+	 * @param value
+	 *            the object to identify
+	 * @param sink
+	 *            receives the bytes
+	 * @throws UnIdentifiableException
+	 *             if a field cannot be read or identified, or the object is
+	 *             nested too deeply
+	 */
+	static void encodeObject(Object value, FingerprintSink sink) throws UnIdentifiableException {
+		Path path = paths.get();
+		for (int i = path.depth - 1; i >= 0; i--) {
+			if (path.objects[i] == value) {
+				// refer back to the enclosing object instead of looping
+				sink.put(CYCLE);
+				sink.put(path.depth - i);
+				sink.put('>');
+				return;
+			}
+		}
+		if (path.depth >= depthLimit) {
+			throw new UnIdentifiableException("Cannot ID objects nested more than " + depthLimit + " levels deep");
+		}
+
+		Object encoder = encoders.get(value.getClass());
+		if (encoder instanceof UnIdentifiableException) {
+			throw new UnIdentifiableException(((UnIdentifiableException) encoder).getMessage());
+		}
+
+		path.push(value);
+		try {
+			((StructuralEncoder) encoder).encode(value, sink);
+		} finally {
+			path.pop();
+		}
+	}
+
+	@Override
+	public void encode(Object value, FingerprintSink sink) throws UnIdentifiableException {
+		try {
+			for (int i = 0; i < getters.length; i++) {
+				sink.put(prefixes[i]);
+				MethodHandle getter = getters[i];
+				switch (kinds[i]) {
+				case INT:
+					sink.put((int) getter.invokeExact(value));
+					break;
+				case LONG:
+					sink.put((long) getter.invokeExact(value));
+					break;
+				case DOUBLE:
+					sink.put((double) getter.invokeExact(value));
+					break;
+				case FLOAT:
+					sink.put((float) getter.invokeExact(value));
+					break;
+				case SHORT:
+					sink.put((short) getter.invokeExact(value));
+					break;
+				case BYTE:
+					sink.put((byte) getter.invokeExact(value));
+					break;
+				case CHAR:
+					sink.put((char) getter.invokeExact(value));
+					break;
+				case BOOLEAN:
+					sink.put((boolean) getter.invokeExact(value));
+					break;
+				case STRING:
+					sink.put((String) getter.invokeExact(value));
+					break;
+				default:
+					Object field = (Object) getter.invokeExact(value);
+					if (field == null) {
+						sink.put((String) null);
+					} else {
+						TesterUtils.byteify(field, sink);
+					}
+				}
+			}
+		} catch (UnIdentifiableException | RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new UnIdentifiableException("Cannot read the fields of " + value.getClass().getName() + ": " + t);
+		}
+		sink.put(end);
+	}
+
+	/**
+	 * A small stack of the objects being encoded, compared by identity.
+	 */
+	private static final class Path {
+		Object[] objects = new Object[8];
+		int depth;
+
+		void push(Object o) {
+			if (depth == objects.length) {
+				objects = Arrays.copyOf(objects, depth << 1);
+			}
+			objects[depth++] = o;
+		}
+
+		void pop() {
+			objects[--depth] = null;
+		}
+	}
+}
@@ -11,12 +11,22 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import com.clratm.unittest.Result.Status;
 import com.twmacinta.util.MD5;
@@ -31,11 +41,6 @@ public enum Tester {
 	INSTANCE("Tester instance 0", 0), INSTANCE_1("Tester instance 1", 1), INSTANCE_2("Tester instance 2", 2), INSTANCE_3("Tester instance 3", 3), INSTANCE_4("Tester instance 4", 4), INSTANCE_5(
 			"Tester instance 5", 5);
 
-	/**
-	 * Stores the input-output relationship.
-	 */
-	private ConcurrentHashMap<String, Result> input_expected;
-
 	/**
 	 * The name of the tester
 	 */
@@ -48,29 +53,123 @@ public enum Tester {
 	private final int num;
 
 	/**
-	 * Stores the inputs that haven't been loaded yet. This will initially
-	 * mirror expectedHash_inObject.
+	 * The expectations, results, coverage and call sites of the current
+	 * epoch, or null if the tester has never been enabled. Every probe reads
+	 * it once, so a probe that started before {@link #newEpoch()} finishes
+	 * against the old epoch.
+	 */
+	private volatile TesterEpoch epoch;
+
+	/**
+	 * The epoch retired by the last {@link #newEpoch()}, kept for reporting,
+	 * or null.
+	 */
+	private volatile TesterEpoch previousEpoch;
+
+	/**
+	 * The epoch the registries declare their expectations into while it is
+	 * built, before it is published, or null.
+	 */
+	private volatile TesterEpoch declaring;
+
+	/**
+	 * Loads and logs are verified for one in this many invocations. Default is
+	 * 1, every invocation.
+	 */
+	private volatile int samplingRate = 1;
+
+	/**
+	 * Set once a sampling rate other than 1 has been configured, from then on
+	 * every load() remembers whether its invocation was sampled so that the
+	 * matching log() makes the same decision.
 	 */
-	private ConcurrentHashMap<String, Result> notUsed;
+	private volatile boolean sampling = false;
 
 	/**
-	 * Uniquely identifies each expected output in a function
+	 * A call site whose expected outputs have all been covered is saturated
+	 * once it has passed this many times since its last failure. Its load()
+	 * and log() calls then return once the site is identified. 0, the
+	 * default, never saturates.
 	 */
-	private ConcurrentHashMap<String, Long> identifiers;
+	private volatile long saturationPasses = 0;
 
 	/**
-	 * Stores the inputs that have been tested
+	 * Saturated call sites are still verified once in this many invocations,
+	 * or never if 0.
 	 */
-	private ConcurrentHashMap<String, Result> used;
+	private volatile int saturationRecheckRate = 0;
 
 	/**
-	 * Stores all expected outputs we are looking for. If we log a hash that
-	 * matches one in here, we know that that case has been covered. That
-	 * mapping will then be removed from this, and the object will be added to
-	 * the covered list. Thus, the objects that remain in this list at the end
-	 * of execution are the ones that have not been tested.
+	 * Set by {@link #setOffHeapResults(boolean)} before the maps are created.
 	 */
-	private ConcurrentHashMap<String, Result> expectedHash_inObject;
+	private boolean offHeapResults = false;
+
+	/**
+	 * The coverage file shared with the other JVMs on the host, or null.
+	 */
+	private volatile SharedCoverage sharedCoverage;
+
+	/**
+	 * If true, new results keep previews and fingerprints of the tested
+	 * objects rather than the objects themselves.
+	 */
+	private volatile boolean compactResults = false;
+
+	/**
+	 * At most this many unexpected inputs are kept as examples, across every
+	 * call site. Default is 1000.
+	 */
+	private volatile int unexpectedExampleLimit = 1000;
+
+	/**
+	 * The unexpected inputs kept as examples, oldest first, so that the
+	 * oldest can be evicted once there are too many.
+	 */
+	private final ConcurrentLinkedQueue<UnexpectedInputs.Example> unexpectedExamples = new ConcurrentLinkedQueue<UnexpectedInputs.Example>();
+	private final AtomicInteger unexpectedExampleCount = new AtomicInteger();
+
+	/**
+	 * Throttles the sampling of the hottest call sites when the probes take
+	 * more than their share of the CPU, or null if there is no budget.
+	 */
+	private OverheadGovernor governor;
+
+	/**
+	 * Pushes the coverage to a coverage server, or null if it is not
+	 * exported.
+	 */
+	private CoverageExporter exporter;
+
+	/**
+	 * The decision of the last load() call, by thread.
+	 */
+	private final ThreadLocal<SamplingDecisions> decisions = new ThreadLocal<SamplingDecisions>() {
+		@Override
+		protected SamplingDecisions initialValue() {
+			return new SamplingDecisions();
+		}
+	};
+
+	/**
+	 * Locates the frame that called into the tester without capturing the
+	 * whole stack. Only two frames are read, so the first batch is sized for
+	 * them.
+	 */
+	private static final StackWalker walker = StackWalker.getInstance(Collections.<StackWalker.Option> emptySet(), 2);
+
+	/**
+	 * Reads the second frame of a walk, the caller of the probe, with an
+	 * iterator, so that no stream pipeline or Optional is built. A probe calls
+	 * it directly.
+	 */
+	private static final Function<Stream<StackWalker.StackFrame>, StackWalker.StackFrame> callerFrame = new Function<Stream<StackWalker.StackFrame>, StackWalker.StackFrame>() {
+		@Override
+		public StackWalker.StackFrame apply(Stream<StackWalker.StackFrame> frames) {
+			Iterator<StackWalker.StackFrame> iterator = frames.iterator();
+			iterator.next();
+			return iterator.next();
+		}
+	};
 
 	/**
 	 * Assists with thread safety
@@ -116,11 +215,7 @@ public enum Tester {
 		this.name = name;
 		this.active = false;
 		this.num = num;
-		input_expected = null;
-		expectedHash_inObject = null;
-		used = null;
-		notUsed = null;
-		identifiers = null;
+		epoch = null;
 	}
 
 	/**
@@ -134,61 +229,623 @@ public enum Tester {
 		this.active = active;
 		// only create new objects if the tester is activated and the objects
 		// don't already exist
-		if (active && (input_expected == null || expectedHash_inObject == null || notUsed == null || used == null)) {
-			input_expected = new ConcurrentHashMap<String, Result>();
-			expectedHash_inObject = new ConcurrentHashMap<String, Result>();
-			used = new ConcurrentHashMap<String, Result>();
-			notUsed = new ConcurrentHashMap<String, Result>();
-			identifiers = new ConcurrentHashMap<String, Long>();
+		if (active) {
+			synchronized (this) {
+				if (epoch == null) {
+					if (offHeapResults) {
+						compactResults = true;
+					}
+					// load the expectations declared at compile time
+					TesterEpoch first = new TesterEpoch(this, 0, offHeapResults, null);
+					declareRegistered(first);
+					epoch = first;
+					TesterMonitor.register(this);
+				}
+			}
 		}
 		return true;
 	}
 
 	/**
-	 * Converts an object to its binary representation using the byteify
-	 * function and adds the result to a byte array along with its method name
-	 * and calling class name.
+	 * Declares the expectations of every {@link ExpectationRegistry} into an
+	 * epoch that has not been published yet, so that no probe sees it
+	 * without them.
 	 * 
-	 * @param toSign
-	 *            the object to convert
-	 * @param useThreadId
-	 *            if true, include the thread ID in the byte array.
-	 * @return a byte array containing the byte representation of toSign
+	 * @param next
+	 *            the epoch
+	 */
+	private void declareRegistered(TesterEpoch next) {
+		declaring = next;
+		try {
+			for (ExpectationRegistry registry : ServiceLoader.load(ExpectationRegistry.class)) {
+				registry.register(this);
+			}
+		} finally {
+			declaring = null;
+		}
+	}
+
+	/**
+	 * Starts a new epoch: the tester continues with empty expectations,
+	 * results and coverage, and the call site counters start over, while the
+	 * state gathered so far is kept for reporting as the previous epoch. The
+	 * switch is a single write that no probe waits for. Probes already
+	 * running finish against the old epoch, and so does a test case whose
+	 * load() ran before the switch and whose log() runs after it. The new
+	 * maps are sized for the entries of the old epoch, the call sites keep
+	 * their sampling rates, and the expectations declared at compile time
+	 * are declared into the new epoch before the switch, so no probe sees it
+	 * without them. This lets a long-running service keep, for example,
+	 * hourly coverage windows.
+	 * 
+	 * @return the retired epoch, or null if the tester has never been enabled
+	 */
+	public synchronized TesterEpoch newEpoch() {
+		TesterEpoch old = epoch;
+		if (old == null) {
+			return null;
+		}
+		TesterEpoch next = new TesterEpoch(this, old.getNumber() + 1, old.offHeap != null, old);
+		declareRegistered(next);
+		epoch = next;
+		old.end();
+		previousEpoch = old;
+		return old;
+	}
+
+	/**
+	 * @return the current epoch, or null if the tester has never been enabled
+	 */
+	public TesterEpoch getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return the epoch retired by the last call to {@link #newEpoch()}, or
+	 *         null if there has been none
+	 */
+	public TesterEpoch getPreviousEpoch() {
+		return previousEpoch;
+	}
+
+	/**
+	 * @return true, if the tester is enabled
+	 */
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Sets how many invocations of every tested method share one verified
+	 * invocation. The other invocations return from load() and log() after a
+	 * random number check, before the stack is inspected or the value hashed.
+	 * A log() call is verified exactly when the load() call before it was.
+	 * 
+	 * @param rate
+	 *            verify one in this many invocations, 1 to verify all
+	 */
+	public void setSamplingRate(int rate) {
+		if (rate < 1) {
+			throw new IllegalArgumentException("The sampling rate must be at least 1");
+		}
+		if (rate > 1) {
+			sampling = true;
+		}
+		samplingRate = rate;
+	}
+
+	/**
+	 * @return the number of invocations per verified invocation
+	 */
+	public int getSamplingRate() {
+		return samplingRate;
+	}
+
+	/**
+	 * Sets the sampling rate of a single method. It applies on top of the
+	 * rate of the tester, so a method with rate 10 on a tester with rate 10 is
+	 * verified once every 100 invocations. The tester must have been enabled.
+	 * 
+	 * @param className
+	 *            the binary name of the tested class
+	 * @param methodName
+	 *            the name of the tested method
+	 * @param rate
+	 *            verify one in this many invocations, 1 to verify all
+	 * @return true, if successful
+	 */
+	public boolean setSamplingRate(String className, String methodName, int rate) {
+		if (rate < 1) {
+			throw new IllegalArgumentException("The sampling rate must be at least 1");
+		}
+		TesterEpoch epoch = this.epoch;
+		if (epoch == null) {
+			return false;
+		}
+		if (rate > 1) {
+			sampling = true;
+		}
+		epoch.callSite(className, methodName).samplingRate = rate;
+		return true;
+	}
+
+	/**
+	 * Limits the time spent in the tester's probes to a share of the CPU time,
+	 * measured over one second windows. See
+	 * {@link #setOverheadBudget(double, long)}.
+	 * 
+	 * @param budget
+	 *            the share of the CPU time, e.g. 0.01 for 1%, or 0 to remove
+	 *            the limit
+	 * @return true, if successful
+	 */
+	public boolean setOverheadBudget(double budget) {
+		return setOverheadBudget(budget, 1000);
+	}
+
+	/**
+	 * Limits the time spent in the tester's probes to a share of the CPU time.
+	 * At the end of every window the probe time of all call sites is compared
+	 * with the window length times the number of processors. If it is over
+	 * budget, the sites that took the most time have their sampling halved,
+	 * hottest first. When it falls below half the budget, throttled sites are
+	 * sampled twice as often again. The tester must have been enabled.
+	 * 
+	 * @param budget
+	 *            the share of the CPU time, e.g. 0.01 for 1%, or 0 to remove
+	 *            the limit
+	 * @param windowMillis
+	 *            the length of a window in milliseconds
+	 * @return true, if successful
+	 */
+	public synchronized boolean setOverheadBudget(double budget, long windowMillis) {
+		if (budget < 0 || budget > 1) {
+			throw new IllegalArgumentException("The budget must be between 0 and 1");
+		}
+		if (windowMillis < 1) {
+			throw new IllegalArgumentException("The window must be at least 1 ms");
+		}
+		if (epoch == null) {
+			return false;
+		}
+		if (governor != null) {
+			governor.stop();
+			governor = null;
+		}
+		if (budget > 0) {
+			governor = new OverheadGovernor(this, budget, windowMillis);
+		}
+		return true;
+	}
+
+	/**
+	 * Stops verifying methods whose coverage is complete. Once every expected
+	 * output of a method has been logged and the method has passed the given
+	 * number of times since its last failure, its load() and log() calls
+	 * return right after the calling method has been identified. Registering a new
+	 * expected output or a failed re-check verifies the method again.
+	 * 
+	 * @param passes
+	 *            the number of passes needed, or 0 to always verify
+	 * @param recheckRate
+	 *            verify one in this many invocations of a saturated method,
+	 *            or 0 to never verify them again
+	 */
+	public void setSaturation(long passes, int recheckRate) {
+		if (passes < 0 || recheckRate < 0) {
+			throw new IllegalArgumentException("The passes and the recheck rate cannot be negative");
+		}
+		saturationRecheckRate = recheckRate;
+		saturationPasses = passes;
+		for (CallSite site : callSites()) {
+			site.saturated = false;
+			checkSaturation(site);
+		}
+	}
+
+	/**
+	 * Stops results from keeping the tested objects. A compact result keeps
+	 * the fingerprint of the expected output, the inputs and outputs printed
+	 * and cut to the width of a report column, and the time as a long, so
+	 * its size no longer depends on the size of the tested objects. The
+	 * objects are printed when their expectation is registered, and a logged
+	 * output only if it fails. Applies to expectations registered from now
+	 * on. Repeated input() calls are then hashed again instead of being
+	 * recognized by their values, which would have to be kept.
+	 * 
+	 * @param compact
+	 *            true to keep compact results
+	 */
+	public void setCompactResults(boolean compact) {
+		compactResults = compact;
+	}
+
+	/**
+	 * Keeps the expected inputs, results and coverage outside the Java heap,
+	 * so that registering millions of test cases does not make garbage
+	 * collection slower. Each map becomes an open addressing table of fixed
+	 * size records in direct buffers, keyed by the MD5 hashes, and the results
+	 * are compact, see {@link #setCompactResults(boolean)}. The direct memory
+	 * available is limited by -XX:MaxDirectMemorySize.
+	 * 
+	 * @param offHeap
+	 *            true to keep the results outside the heap
+	 * @return false if the tester has already been enabled, in which case
+	 *         nothing changes
+	 */
+	public synchronized boolean setOffHeapResults(boolean offHeap) {
+		if (epoch != null) {
+			return false;
+		}
+		offHeapResults = offHeap;
+		return true;
+	}
+
+	/**
+	 * @return the number of bytes allocated outside the heap for the results
+	 *         of the current and previous epochs, 0 if they are kept in the
+	 *         heap
+	 */
+	public long getOffHeapBytes() {
+		long bytes = 0;
+		for (TesterEpoch epoch : new TesterEpoch[] { this.epoch, previousEpoch }) {
+			if (epoch != null && epoch.offHeap != null) {
+				bytes += epoch.offHeap.offHeapBytes();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the number of printed inputs and outputs of the current and
+	 *         previous epochs that were dropped because their off-heap preview
+	 *         area was full, 0 if results are kept in the heap
+	 */
+	public long getDroppedPreviews() {
+		long previews = 0;
+		for (TesterEpoch epoch : new TesterEpoch[] { this.epoch, previousEpoch }) {
+			if (epoch != null && epoch.offHeap != null) {
+				previews += epoch.offHeap.droppedPreviews();
+			}
+		}
+		return previews;
+	}
+
+	/**
+	 * Also records coverage in a memory-mapped file shared by all JVMs on the
+	 * host, so that a parent process can read the coverage of its forks while
+	 * they run, see {@link SharedCoverage}. Each expected output gets the id
+	 * of the slot its hash is claimed in, the same in every process, and
+	 * covering it or passing a case sets its bit with one atomic OR. The
+	 * outputs the tester already expects are added to the file.
+	 * 
+	 * @param path
+	 *            the file, created if it does not exist, or null to stop
+	 *            sharing coverage
+	 * @param capacity
+	 *            the number of expected outputs a new file has room for
+	 * @return true, if successful
+	 * @throws IOException
+	 *             if the file cannot be mapped
+	 */
+	public synchronized boolean setSharedCoverage(Path path, int capacity) throws IOException {
+		if (path == null) {
+			sharedCoverage = null;
+			return true;
+		}
+		SharedCoverage coverage = SharedCoverage.open(path, capacity);
+		sharedCoverage = coverage;
+		TesterEpoch epoch = this.epoch;
+		if (epoch != null) {
+			for (Map.Entry<String, Result> output : epoch.outputs.entrySet()) {
+				shareOutput(output.getKey(), epoch.covered.get(output.getValue().getOutputId()));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the coverage shared with the other JVMs on the host, or null if
+	 *         it is not shared
+	 */
+	public SharedCoverage getSharedCoverage() {
+		return sharedCoverage;
+	}
+
+	/**
+	 * Gives an expected output an id in the shared coverage file, if there is
+	 * one.
+	 * 
+	 * @param coverageHash
+	 *            the hash of the output, class and method names
+	 * @param covered
+	 *            true if the output has been logged
+	 */
+	private void shareOutput(String coverageHash, boolean covered) {
+		SharedCoverage coverage = sharedCoverage;
+		if (coverage != null) {
+			int id = coverage.id(OffHeapResultStore.parseHex(coverageHash, 0), OffHeapResultStore.parseHex(coverageHash, 16));
+			if (covered && id >= 0) {
+				coverage.cover(id);
+			}
+		}
+	}
+
+	/**
+	 * Creates the pending result of an expectation, compact if so configured.
+	 * 
+	 * @param site
+	 *            the call site the expectation belongs to
+	 * @param expectedInput
+	 *            the expected input, only printed for compact results
+	 * @param expectedResult
+	 *            the expected output
+	 * @return the result
 	 * @throws UnIdentifiableException
 	 */
-	private byte[] toBytesWithSignature(Object toSign, boolean useThreadId) throws UnIdentifiableException {
-		byte[] in = TesterUtils.byteify(toSign);
+	private Result pendingResult(CallSite site, Object expectedInput, Object expectedResult) throws UnIdentifiableException {
+		if (!compactResults) {
+			return new Result(new Date(System.currentTimeMillis()), site.getClazz(), site.getMethod(), null, null, expectedResult, Status.INCOMPLETE);
+		}
+		DigestSink expected_sink = new DigestSink();
+		TesterUtils.byteify(expectedResult, expected_sink);
+		return new CompactResult(site, truncate(TesterUtils.objectPrinter(expectedInput)), truncate(TesterUtils.objectPrinter(expectedResult)), expected_sink.digest());
+	}
 
-		byte[] threadId = null;
-		if (useThreadId) {
-			threadId = TesterUtils.longToBytes(Thread.currentThread().getId());
+	/**
+	 * Limits the memory taken by inputs that were loaded without being
+	 * registered. Each calling method counts them, estimates how many distinct
+	 * values there were and keeps a random sample of up to eight of them,
+	 * printed and cut to the width of a report column. Across every method,
+	 * the oldest examples are evicted once there are more than the limit.
+	 * 
+	 * @param limit
+	 *            the largest number of examples kept, 0 to keep none
+	 */
+	public void setUnexpectedExampleLimit(int limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("The limit cannot be negative");
 		}
-		StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
+		unexpectedExampleLimit = limit;
+		evictUnexpectedExamples();
+	}
 
-		byte[] callingClass = null;
-		try {
-			callingClass = stackTraceElements[3].getClassName().getBytes("UTF-8");
-		} catch (UnsupportedEncodingException e1) {
-			e1.printStackTrace();
+	/**
+	 * Records an input that was loaded without being registered.
+	 * 
+	 * @param site
+	 *            the calling method
+	 * @param actualObject
+	 *            the input
+	 * @param digest
+	 *            the hash of the input computed by load(), or null for a
+	 *            String or boxed primitive, which is counted by the hash of
+	 *            its text
+	 * @param preview
+	 *            the printed input, cut to size, or null if it has not been
+	 *            printed yet
+	 * @throws UnIdentifiableException
+	 */
+	private void recordUnexpected(CallSite site, Object actualObject, byte[] digest, String preview) throws UnIdentifiableException {
+		long hash;
+		if (digest == null) {
+			hash = InputPrefilter.mix(InputPrefilter.textHash(actualObject));
+		} else {
+			hash = TesterUtils.bytesToLong(digest, 0);
 		}
-		byte[] callingFunct = null;
-		try {
-			callingFunct = stackTraceElements[3].getMethodName().getBytes("UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
+		int slot = site.unexpectedInputs.offer(hash);
+		if (slot < 0 || unexpectedExampleLimit == 0) {
+			return;
 		}
+		if (preview == null) {
+			preview = truncate(TesterUtils.objectPrinter(actualObject));
+		}
+		unexpectedExamples.add(site.unexpectedInputs.keep(slot, preview));
+		if (unexpectedExampleCount.incrementAndGet() > unexpectedExampleLimit) {
+			evictUnexpectedExamples();
+		}
+	}
 
-		byte[] completeResult = TesterUtils.addAll(in, threadId);
-		completeResult = TesterUtils.addAll(completeResult, callingClass);
-		completeResult = TesterUtils.addAll(completeResult, callingFunct);
+	/**
+	 * Evicts the oldest unexpected examples until there are no more than the
+	 * limit. Examples already replaced in their reservoir still count until
+	 * they are evicted.
+	 */
+	private void evictUnexpectedExamples() {
+		while (unexpectedExampleCount.get() > unexpectedExampleLimit) {
+			UnexpectedInputs.Example oldest = unexpectedExamples.poll();
+			if (oldest == null) {
+				break;
+			}
+			unexpectedExampleCount.decrementAndGet();
+			oldest.owner.evict(oldest);
+		}
+	}
+
+	/**
+	 * Marks a call site as saturated if it qualifies.
+	 * 
+	 * @param site
+	 *            the call site
+	 */
+	private void checkSaturation(CallSite site) {
+		long passes = saturationPasses;
+		if (!site.saturated && passes > 0 && site.isComplete(passes)) {
+			// saturated loads leave a decision for their log() calls
+			startSampling();
+			site.saturated = true;
+		}
+	}
+
+	/**
+	 * @return the governor of this tester, or null if there is no budget
+	 */
+	OverheadGovernor getGovernor() {
+		return governor;
+	}
+
+	/**
+	 * Pushes the coverage and call site counters of the tester to a
+	 * {@link CoverageServer}, which merges those of many instances of a
+	 * service. Once a period a background thread sends what changed since the
+	 * previous frame in one compact binary frame. The probes are never
+	 * blocked: the thread reads counters and bits they update without locks,
+	 * and while the connection has not taken the previous frame, periods are
+	 * dropped and their changes sent with the next frame. The tester must have
+	 * been enabled.
+	 * 
+	 * @param server
+	 *            the address of the coverage server, or null to stop exporting
+	 * @param periodMillis
+	 *            the time between frames in milliseconds
+	 * @return true, if successful
+	 */
+	public synchronized boolean exportCoverage(InetSocketAddress server, long periodMillis) {
+		if (periodMillis < 1) {
+			throw new IllegalArgumentException("The period must be at least 1 ms");
+		}
+		if (epoch == null) {
+			return false;
+		}
+		if (exporter != null) {
+			exporter.stop();
+			exporter = null;
+		}
+		if (server != null) {
+			exporter = new CoverageExporter(this, server, periodMillis);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the exporter of this tester, or null if the coverage is not
+	 *         exported
+	 */
+	CoverageExporter getExporter() {
+		return exporter;
+	}
+
+	/**
+	 * Makes load() and log() take sampling decisions from now on.
+	 */
+	void startSampling() {
+		sampling = true;
+	}
+
+	/**
+	 * @param rate
+	 *            the sampling rate
+	 * @return true, if the current invocation should be verified
+	 */
+	private static boolean sample(int rate) {
+		return rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+	}
+
+	/**
+	 * Describes the sampling rates, for the reports.
+	 * 
+	 * @param epoch
+	 *            the epoch reported on
+	 * @return one line per rate other than 1 and for the governor, empty if
+	 *         every invocation is verified
+	 */
+	private List<String> samplingRates(TesterEpoch epoch) {
+		List<String> rates = new ArrayList<String>();
+		if (samplingRate > 1) {
+			rates.add("Sampling: 1 in " + samplingRate + " invocations verified");
+		}
+		OverheadGovernor governor = this.governor;
+		if (governor != null) {
+			rates.add(String.format("Governor: probes took %.2f%% of the CPU time in the last window, budget %.2f%%, %d throttles, %d recoveries",
+					governor.getLastShare() * 100, governor.getBudget() * 100, governor.getThrottles(), governor.getRecoveries()));
+		}
+		for (CallSiteStatistics statistics : callSiteStatistics(epoch)) {
+			if (statistics.getSamplingRate() > 1) {
+				rates.add("Sampling: 1 in " + statistics.getSamplingRate() + " invocations of " + statistics.getClazz() + "." + statistics.getMethod() + " verified");
+			}
+			if (statistics.isSaturated()) {
+				rates.add("Saturated: " + statistics.getClazz() + "." + statistics.getMethod() + (saturationRecheckRate > 0 ? " re-checked 1 in " + saturationRecheckRate + " invocations" : " no longer verified"));
+			}
+			if (statistics.getThrottle() > 1) {
+				rates.add("Governor: " + statistics.getClazz() + "." + statistics.getMethod() + " throttled to 1 in " + statistics.getThrottle() + " sampled invocations");
+			}
+		}
+		return rates;
+	}
+
+	/**
+	 * Summarizes the unexpected inputs of every call site, for the result
+	 * report.
+	 * 
+	 * @param epoch
+	 *            the epoch reported on
+	 * @return one line per call site that loaded unexpected inputs
+	 */
+	private List<String> unexpectedSummaries(TesterEpoch epoch) {
+		List<String> summaries = new ArrayList<String>();
+		for (CallSite site : epoch.callSites()) {
+			long count = site.unexpectedInputs.count();
+			if (count > 0) {
+				summaries.add("Unexpected: " + site.getClazz() + "." + site.getMethod() + " loaded " + count + " unexpected inputs, about "
+						+ Math.min(count, site.unexpectedInputs.distinct()) + " distinct, " + site.unexpectedInputs.examples().size() + " shown");
+			}
+		}
+		Collections.sort(summaries);
+		return summaries;
+	}
+
+	/**
+	 * Shortens a printed value to the width of a report column.
+	 * 
+	 * @param printed
+	 *            the printed value
+	 * @return the value, or its start followed by "..." if it is too long
+	 */
+	static String truncate(String printed) {
+		return printed.length() > columnWidth ? printed.substring(0, columnWidth - 5) + "..." : printed;
+	}
+
+	/**
+	 * Hashes an object's binary representation, as written by the byteify
+	 * function, together with its method name and calling class name. The
+	 * bytes are streamed into the hash rather than collected in an array.
+	 * 
+	 * @param toSign
+	 *            the object to hash
+	 * @param useThreadId
+	 *            if true, include the thread ID in the hash.
+	 * @param className
+	 *            the name of the calling class
+	 * @param methodName
+	 *            the name of the calling method
+	 * @return the hex MD5 hash
+	 * @throws UnIdentifiableException
+	 */
+	private String hashWithSignature(Object toSign, boolean useThreadId, String className, String methodName) throws UnIdentifiableException {
+		DigestSink sink = new DigestSink();
+		TesterUtils.byteify(toSign, sink);
+
+		if (useThreadId) {
+			sink.put(TesterUtils.longToBytes(Thread.currentThread().getId()));
+		}
+		sink.put(className);
+		sink.put(methodName);
 
-		return completeResult;
+		return sink.asHex();
 	}
 
 	/**
 	 * Inputs an expected value to the tester. This will result in the object's
 	 * toString method being called to get report information, but otherwise
 	 * analogous to the BuiltInTester.expecting() function in the example code.
+	 * Repeat registrations of the same immutable values from the same line and
+	 * thread are detected without serializing or hashing the arguments. A
+	 * repeat still has to find the line it was made from: that walk of two
+	 * frames is the floor of its cost, a few hundred bytes and about a
+	 * microsecond on JDK 17. Only Strings and boxed primitives are recognized
+	 * as repeats, since other values could have changed since they were
+	 * registered, and with compact results none are, see
+	 * {@link #setCompactResults(boolean)}.
 	 * 
 	 * @param expectedInput
 	 *            An expected value of the input object.
@@ -199,40 +856,200 @@ public enum Tester {
 	 */
 	public boolean input(Object expectedInput, Object expectedResult) throws UnIdentifiableException {
 		if (active) {
-			StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
+			long start = System.nanoTime();
+			StackWalker.StackFrame caller = walker.walk(callerFrame);
+			TesterEpoch epoch = this.epoch;
+			CallSite site = epoch.callSite(caller.getClassName(), caller.getMethodName());
+			site.inputs.increment();
+			try {
+				register(epoch, caller, site, expectedInput, expectedResult);
+			} finally {
+				site.recordProbe(start);
+			}
+		}
 
-			// identify expectedInput
-			MD5 md5 = new MD5();
+		return true;
+	}
 
-			byte[] expected = this.toBytesWithSignature(expectedInput, true);
+	/**
+	 * Registers an expected input and output for the calling method.
+	 * 
+	 * @param epoch
+	 *            the epoch to register them in
+	 * @param caller
+	 *            the frame that called input()
+	 * @param site
+	 *            the statistics of the calling method
+	 * @param expectedInput
+	 *            the expected value of the input object
+	 * @param expectedResult
+	 *            the expected object that will be logged later in the code
+	 * @throws UnIdentifiableException
+	 */
+	private void register(TesterEpoch epoch, StackWalker.StackFrame caller, CallSite site, Object expectedInput, Object expectedResult) throws UnIdentifiableException {
+		// the documented usage re-runs every input() call on each
+		// invocation of the tested method, so check for a repeat first. A
+		// registration holds on to its values, so compact results, which
+		// exist to drop them, do without
+		Registration registration = null;
+		if (!compactResults && epoch.registered != null && Registration.isImmutable(expectedInput) && Registration.isImmutable(expectedResult)) {
+			registration = new Registration(caller, Thread.currentThread().getId(), expectedInput, expectedResult);
+			if (epoch.registered.contains(registration)) {
+				return;
+			}
+		}
 
-			md5.Update(expected);
+		site.prefilter.add(expectedInput);
 
-			Result pending = new Result(new Date(System.currentTimeMillis()), stackTraceElements[2].getClassName(), stackTraceElements[2].getMethodName(), null, null,
-					expectedResult, Status.INCOMPLETE);
-			// input_expected contains the hashed input value as its key mapped
-			// to the expected result of the input.
-			if (!input_expected.containsKey(md5.asHex())) {
-				input_expected.put(md5.asHex(), pending);
-			}
+		// identify expectedInput
+		String inputHash = this.hashWithSignature(expectedInput, true, caller.getClassName(), caller.getMethodName());
 
-			byte[] completeResult = this.toBytesWithSignature(expectedResult, false);
-			md5.Init();
-			md5.Update(completeResult);
+		// the pending result is only created when one of the maps needs it
+		Result pending = null;
+		// input_expected contains the hashed input value as its key mapped
+		// to the expected result of the input.
+		if (!epoch.input_expected.containsKey(inputHash)) {
+			pending = pendingResult(site, expectedInput, expectedResult);
+			epoch.input_expected.put(inputHash, pending);
+		}
 
-			// only add new cases if they have not been covered
-			// since this does not use the thread ID in the hash, it could
-			// technically be thread unsafe
+		String coverageHash = this.hashWithSignature(expectedResult, false, caller.getClassName(), caller.getMethodName());
+
+		// outputs are never removed, so a known output needs no lock
+		if (!epoch.outputs.containsKey(coverageHash)) {
+			if (pending == null) {
+				pending = pendingResult(site, expectedInput, expectedResult);
+			}
+			// the lock keeps the output ids dense
 			synchronized (mutex) {
-				if (!used.containsKey(md5.asHex())) {
-					notUsed.put(md5.asHex(), pending);
+				if (!epoch.outputs.containsKey(coverageHash)) {
+					pending.setOutputId(epoch.covered.newId(OffHeapResultStore.parseHex(coverageHash, 0), OffHeapResultStore.parseHex(coverageHash, 16), site));
+					epoch.outputs.put(coverageHash, pending);
+					site.expectedOutputs.incrementAndGet();
+					site.saturated = false;
 				}
 			}
+			shareOutput(coverageHash, false);
 		}
 
+		if (registration != null) {
+			epoch.registered.add(registration);
+		}
+	}
+
+	/**
+	 * Declares an expected input/output pair whose hashes were computed at
+	 * compile time. Called by the registries generated from {@link Expect}
+	 * annotations; the expected output is counted for coverage immediately.
+	 * 
+	 * @param className
+	 *            the binary name of the class declaring the expectation
+	 * @param methodName
+	 *            the name of the annotated method
+	 * @param expectedResult
+	 *            the String identifying the expected output
+	 * @param inputHash
+	 *            the hash of the input, class and method names
+	 * @param coverageHash
+	 *            the hash of the output, class and method names
+	 * @return true, if successful
+	 */
+	public boolean declare(String className, String methodName, String expectedResult, String inputHash, String coverageHash) {
+		return declare(className, methodName, null, expectedResult, inputHash, coverageHash);
+	}
+
+	/**
+	 * Declares an expected input/output pair whose hashes were computed at
+	 * compile time, along with the String identifying the input, which lets
+	 * load() rule out other inputs without hashing them.
+	 * 
+	 * @param className
+	 *            the binary name of the class declaring the expectation
+	 * @param methodName
+	 *            the name of the annotated method
+	 * @param expectedInput
+	 *            the String identifying the input, or null if it is not known
+	 * @param expectedResult
+	 *            the String identifying the expected output
+	 * @param inputHash
+	 *            the hash of the input, class and method names
+	 * @param coverageHash
+	 *            the hash of the output, class and method names
+	 * @return true, if successful
+	 */
+	public boolean declare(String className, String methodName, String expectedInput, String expectedResult, String inputHash, String coverageHash) {
+		if (active) {
+			TesterEpoch epoch = declaring;
+			if (epoch == null) {
+				epoch = this.epoch;
+			}
+			CallSite site = epoch.callSite(className, methodName);
+			Result pending;
+			try {
+				pending = pendingResult(site, expectedInput, expectedResult);
+			} catch (UnIdentifiableException e) {
+				// Strings can always be identified
+				e.printStackTrace();
+				return false;
+			}
+			epoch.declared.putIfAbsent(inputHash, pending);
+			epoch.declaredSites.put(className + '#' + methodName, Boolean.TRUE);
+
+			if (expectedInput != null) {
+				site.prefilter.add(expectedInput);
+			} else {
+				site.prefilter.open();
+			}
+
+			synchronized (mutex) {
+				if (!epoch.outputs.containsKey(coverageHash)) {
+					pending.setOutputId(epoch.covered.newId(OffHeapResultStore.parseHex(coverageHash, 0), OffHeapResultStore.parseHex(coverageHash, 16), site));
+					epoch.outputs.put(coverageHash, pending);
+					site.expectedOutputs.incrementAndGet();
+					site.saturated = false;
+				}
+			}
+			shareOutput(coverageHash, false);
+		}
 		return true;
 	}
 
+	/**
+	 * Looks up a loaded input among the declared expectations, and registers
+	 * it for the current thread if it is found.
+	 * 
+	 * @param epoch
+	 *            the epoch of the load() call
+	 * @param actualObject
+	 *            the loaded input
+	 * @param inputHash
+	 *            the hash of the input for the current thread
+	 * @param site
+	 *            the calling method
+	 * @return the pending result for the input, or null if it was not declared
+	 * @throws UnIdentifiableException
+	 */
+	private Result findDeclared(TesterEpoch epoch, Object actualObject, String inputHash, CallSite site) throws UnIdentifiableException {
+		if (!epoch.declaredSites.containsKey(site.getClazz() + '#' + site.getMethod())) {
+			return null;
+		}
+
+		Result declaration = epoch.declared.get(this.hashWithSignature(actualObject, false, site.getClazz(), site.getMethod()));
+		if (declaration == null) {
+			return null;
+		}
+
+		Result pending;
+		if (declaration instanceof CompactResult) {
+			// its expected output is only a preview, keep the fingerprint
+			pending = new CompactResult((CompactResult) declaration, truncate(TesterUtils.objectPrinter(actualObject)));
+		} else {
+			pending = pendingResult(site, actualObject, declaration.getExpectedResult());
+		}
+		Result existing = epoch.input_expected.putIfAbsent(inputHash, pending);
+		return existing == null ? pending : existing;
+	}
+
 	/**
 	 * Inputs the actual value into the tester. This is used to establish the
 	 * expected outcome of the segment of code.
@@ -249,109 +1066,201 @@ public enum Tester {
 		// calling function string and the thread ID, then store it in our
 		// expectedHash_serializedObject map
 		if (active) {
-			StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
-
-			MD5 md5 = new MD5();
-			byte[] act = this.toBytesWithSignature(actualObject, true);
-			md5.Update(act);
-
-			String md5_original = md5.asHex();
-			// now, search for the actual input to see if we are expecting it
-			Result expected_result = input_expected.get(md5_original);
-
-			byte[] threadId = TesterUtils.longToBytes(Thread.currentThread().getId());
-
-			byte[] callingClass = null;
-			try {
-				callingClass = stackTraceElements[2].getClassName().getBytes("UTF-8");
-			} catch (UnsupportedEncodingException e1) {
-				e1.printStackTrace();
-				return false;
+			long start = System.nanoTime();
+			SamplingDecisions decision = null;
+			if (sampling) {
+				decision = decisions.get();
+				// the rate of the tester needs no call site, so most skipped
+				// invocations return before the stack is walked
+				if (!sample(samplingRate)) {
+					decision.loaded(false);
+					return true;
+				}
+			}
+			StackWalker.StackFrame caller = walker.walk(callerFrame);
+			TesterEpoch epoch = this.epoch;
+			CallSite site = epoch.callSite(caller.getClassName(), caller.getMethodName());
+			if (decision != null) {
+				boolean sampled = sample(site.samplingRate) && sample(site.throttle);
+				if (sampled && site.saturated) {
+					int recheck = saturationRecheckRate;
+					sampled = recheck > 0 && sample(recheck);
+				}
+				// kept for the log() call after it on this thread
+				decision.loaded(sampled);
+				if (!sampled) {
+					return true;
+				}
+			}
+			site.loads.increment();
+			TesterEvents.Load event = null;
+			if (TesterEvents.LOAD.isEnabled()) {
+				event = new TesterEvents.Load();
+				event.begin();
 			}
-			byte[] callingFunct = null;
 			try {
-				callingFunct = stackTraceElements[2].getMethodName().getBytes("UTF-8");
-			} catch (UnsupportedEncodingException e) {
-				e.printStackTrace();
-				return false;
+				return load(epoch, caller, site, actualObject, event);
+			} finally {
+				site.recordSampledProbe(start);
+				if (event != null) {
+					event.commit();
+				}
 			}
+		}
+		return true;
+	}
 
-			// obtain/create an identifier for this input
-			md5.Init();
-			byte[] methodInfo = TesterUtils.addAll(callingClass, callingFunct);
-			methodInfo = TesterUtils.addAll(methodInfo, threadId);
-
-			md5.Update(methodInfo);
+	/**
+	 * Looks up a loaded input and, if it is expected, stores its expected
+	 * result under a key only the matching log() call can produce.
+	 * 
+	 * @param epoch
+	 *            the epoch to store it in
+	 * @param caller
+	 *            the frame that called load()
+	 * @param site
+	 *            the statistics of the calling method
+	 * @param actualObject
+	 *            the actual input object
+	 * @param event
+	 *            the Flight Recorder event to fill in, or null if it is
+	 *            disabled
+	 * @return true, if successful
+	 * @throws UnIdentifiableException
+	 */
+	private boolean load(TesterEpoch epoch, StackWalker.StackFrame caller, CallSite site, Object actualObject, TesterEvents.Load event) throws UnIdentifiableException {
+		MD5 md5 = new MD5();
+
+		byte[] threadId = TesterUtils.longToBytes(Thread.currentThread().getId());
+
+		long valueSize = 0;
+		byte[] valueDigest = null;
+		Result expected_result = null;
+		// the prefilter lets every value other than a String or boxed
+		// primitive through, so those are always hashed here
+		if (site.prefilter.mightContain(actualObject)) {
+			// hashed like hashWithSignature does, keeping the size of the value
+			DigestSink input_sink = new DigestSink();
+			TesterUtils.byteify(actualObject, input_sink);
+			valueSize = input_sink.size();
+			if (!Registration.isImmutable(actualObject)) {
+				// the hash of the value alone counts it if it is unexpected,
+				// without serializing it again
+				valueDigest = input_sink.digest();
+			}
+			input_sink.put(threadId);
+			input_sink.put(caller.getClassName());
+			input_sink.put(caller.getMethodName());
+			String md5_original = input_sink.asHex();
 
-			Long idLongWrap = identifiers.remove(md5.asHex());
+			// now, search for the actual input to see if we are expecting it
+			expected_result = epoch.input_expected.get(md5_original);
+			if (expected_result == null && !epoch.declared.isEmpty()) {
+				expected_result = findDeclared(epoch, actualObject, md5_original, site);
+			}
+		}
+		// otherwise it was never registered by this method, so there is no need
+		// to hash it
+		if (event != null) {
+			event.setCaller(this, caller);
+			event.valueSize = valueSize;
+			event.expected = expected_result != null;
+		}
 
-			long idLong;
+		byte[] callingClass = null;
+		try {
+			callingClass = caller.getClassName().getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e1) {
+			e1.printStackTrace();
+			return false;
+		}
+		byte[] callingFunct = null;
+		try {
+			callingFunct = caller.getMethodName().getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+			return false;
+		}
 
-			if (idLongWrap == null) {
-				// create a new Identifier for this thread and function
-				// base case
-				idLongWrap = (long) 0;
-				idLong = 0;
-			} else {
-				// we have an identifier. Obtain and save
-				idLong = idLongWrap;
-			}
-			// increment and store the identifier back
-			idLongWrap++;
-			identifiers.put(md5.asHex(), idLongWrap);
-
-			if (expected_result == null) {
-				// then we are not expecting this input object
-				if (!expectedHash_inObject.containsKey(md5_original)) {
-					Result unexp = new Result(new Date(System.currentTimeMillis()), stackTraceElements[2].getClassName(), stackTraceElements[2].getMethodName(), actualObject,
-							null, null, Status.UNEXPECTED);
-					expectedHash_inObject.put(md5_original, unexp);
-				}
+		// obtain/create an identifier for this input
+		md5.Init();
+		byte[] methodInfo = TesterUtils.addAll(callingClass, callingFunct);
+		methodInfo = TesterUtils.addAll(methodInfo, threadId);
 
-				return true;
-			} else { // then we are expecting this object
-				// assume failed until logged properly
-				expected_result.setStatus(Status.FAILED);
-				// remember the input
-				expected_result.setInput(actualObject);
+		md5.Update(methodInfo);
 
-				// now:
-				// -we know that sometime in the future, this thread will log
-				// this result from this function from this class
-				// -so if we hash these three elements together, then only 1
-				// possible combination can result in success (otherwise it is
-				// failure)
+		Long idLongWrap = epoch.identifiers.remove(md5.asHex());
 
-				byte[] expect_objBArr = TesterUtils.byteify(expected_result.getExpectedResult());
+		long idLong;
 
-				md5.Init();
-				md5.Update(expect_objBArr);
-				String expected_hashed = md5.asHex();
+		if (idLongWrap == null) {
+			// create a new Identifier for this thread and function
+			// base case
+			idLongWrap = (long) 0;
+			idLong = 0;
+		} else {
+			// we have an identifier. Obtain and save
+			idLong = idLongWrap;
+		}
+		// increment and store the identifier back
+		idLongWrap++;
+		epoch.identifiers.put(md5.asHex(), idLongWrap);
+
+		if (expected_result == null) {
+			// then we are not expecting this input object
+			site.unexpected.increment();
+			String preview = null;
+			if (TesterEvents.UNEXPECTED.isEnabled()) {
+				TesterEvents.UnexpectedInput unexpected = new TesterEvents.UnexpectedInput();
+				unexpected.setCaller(this, caller);
+				unexpected.valueSize = valueSize;
+				unexpected.value = preview = truncate(TesterUtils.objectPrinter(actualObject));
+				unexpected.commit();
+			}
+			// aggregated rather than kept, so the input can be collected
+			recordUnexpected(site, actualObject, valueDigest, preview);
+
+			return true;
+		} else { // then we are expecting this object
+			// remember the input, and assume failed until logged properly
+			expected_result.load(actualObject);
+
+			// now:
+			// -we know that sometime in the future, this thread will log
+			// this result from this function from this class
+			// -so if we hash these three elements together, then only 1
+			// possible combination can result in success (otherwise it is
+			// failure)
+
+			// compact results were fingerprinted when they were registered
+			if (!(expected_result instanceof CompactResult)) {
+				DigestSink expected_sink = new DigestSink();
+				TesterUtils.byteify(expected_result.getExpectedResult(), expected_sink);
+				String expected_hashed = expected_sink.asHex();
 
 				expected_result.setExpectedHash(expected_hashed);
-				// now combine into a big array
-				// byte[] completeResult = this.addAll(expected_hashed,
-				// threadId);
-				byte[] completeResult = TesterUtils.addAll(null, threadId);
-				completeResult = TesterUtils.addAll(completeResult, callingClass);
-				completeResult = TesterUtils.addAll(completeResult, callingFunct);
-				completeResult = TesterUtils.addAll(completeResult, TesterUtils.longToBytes(idLong));
-
-				// and then hash the big array
-				md5.Init();
-				md5.Update(completeResult);
-
-				// now, we will use the completeResultHash as the key for our
-				// expectedHash_Object map. This should guarantee that only the
-				// matching
-				// result under identical
-				// circumstances will map to a non-null (and therefore correct)
-				// value
-				expectedHash_inObject.put(md5.asHex(), expected_result);
-				return true;
 			}
+			// now combine into a big array
+			// byte[] completeResult = this.addAll(expected_hashed,
+			// threadId);
+			byte[] completeResult = TesterUtils.addAll(null, threadId);
+			completeResult = TesterUtils.addAll(completeResult, callingClass);
+			completeResult = TesterUtils.addAll(completeResult, callingFunct);
+			completeResult = TesterUtils.addAll(completeResult, TesterUtils.longToBytes(idLong));
+
+			// and then hash the big array
+			md5.Init();
+			md5.Update(completeResult);
+
+			// now, we will use the completeResultHash as the key for our
+			// expectedHash_Object map. This should guarantee that only the
+			// matching
+			// result under identical
+			// circumstances will map to a non-null (and therefore correct)
+			// value
+			epoch.expectedHash_inObject.put(md5.asHex(), expected_result);
+			return true;
 		}
-		return true;
 	}
 
 	/**
@@ -361,97 +1270,173 @@ public enum Tester {
 	 * expectedHash_serializedObject map
 	 * 
 	 * @param toLog
-	 *            the to log
+	 *            the to log
+	 * @return true, if successful
+	 * @throws UnIdentifiableException
+	 */
+	public boolean log(Object toLog) throws UnIdentifiableException {
+		if (active) {
+			// skip the invocations whose load() was not sampled, before the
+			// stack is walked
+			if (sampling && !decisions.get().logged()) {
+				return true;
+			}
+			long start = System.nanoTime();
+			StackWalker.StackFrame caller = walker.walk(callerFrame);
+			TesterEpoch epoch = this.epoch;
+			CallSite site = epoch.callSite(caller.getClassName(), caller.getMethodName());
+			site.logs.increment();
+			TesterEvents.Log event = null;
+			if (TesterEvents.LOG.isEnabled()) {
+				event = new TesterEvents.Log();
+				event.begin();
+			}
+			try {
+				return log(epoch, caller, site, toLog, event);
+			} finally {
+				site.recordSampledProbe(start);
+				if (event != null) {
+					event.commit();
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks a logged object against the result expected by the matching
+	 * load() call, and marks the object as covered.
+	 * 
+	 * @param epoch
+	 *            the epoch of the log() call
+	 * @param caller
+	 *            the frame that called log()
+	 * @param site
+	 *            the statistics of the calling method
+	 * @param toLog
+	 *            the logged object
+	 * @param event
+	 *            the Flight Recorder event to fill in, or null if it is
+	 *            disabled
 	 * @return true, if successful
 	 * @throws UnIdentifiableException
 	 */
-	public boolean log(Object toLog) throws UnIdentifiableException {
-		if (active) {
-			StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
-
-			byte[] threadId = TesterUtils.longToBytes(Thread.currentThread().getId());
-			byte[] callingClass = null;
-			try {
-				callingClass = stackTraceElements[2].getClassName().getBytes("UTF-8");
-			} catch (UnsupportedEncodingException e) {
-				e.printStackTrace();
-				return false;
-			}
-			byte[] callingFunct = null;
-			try {
-				callingFunct = stackTraceElements[2].getMethodName().getBytes("UTF-8");
-			} catch (UnsupportedEncodingException e) {
-				e.printStackTrace();
-				return false;
+	private boolean log(TesterEpoch epoch, StackWalker.StackFrame caller, CallSite site, Object toLog, TesterEvents.Log event) throws UnIdentifiableException {
+		byte[] threadId = TesterUtils.longToBytes(Thread.currentThread().getId());
+		byte[] callingClass = null;
+		try {
+			callingClass = caller.getClassName().getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+			return false;
+		}
+		byte[] callingFunct = null;
+		try {
+			callingFunct = caller.getMethodName().getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+			return false;
+		}
+		MD5 md5 = new MD5();
+
+		// obtain the identifier if it exists
+		md5.Init();
+		byte[] methodInfo = TesterUtils.addAll(callingClass, callingFunct);
+		methodInfo = TesterUtils.addAll(methodInfo, threadId);
+
+		md5.Update(methodInfo);
+
+		Long idLongWrap = epoch.identifiers.get(md5.asHex());
+		TesterEpoch previous = previousEpoch;
+		if (idLongWrap == null && previous != null && previous != epoch) {
+			// the matching load() ran before a new epoch started, so the case
+			// finishes in the old one
+			idLongWrap = previous.identifiers.get(md5.asHex());
+			if (idLongWrap != null) {
+				epoch = previous;
+				site = previous.callSite(site.getClazz(), site.getMethod());
 			}
-			MD5 md5 = new MD5();
-
-			// obtain the identifier if it exists
-			md5.Init();
-			byte[] methodInfo = TesterUtils.addAll(callingClass, callingFunct);
-			methodInfo = TesterUtils.addAll(methodInfo, threadId);
-
-			md5.Update(methodInfo);
-
-			Long idLongWrap = identifiers.get(md5.asHex());
-
-			long idLong;
+		}
 
-			if (idLongWrap == null) {
-				return false;
-			} else {
-				// We have an identifier. Obtain and save
-				// need to decrement since we incremented before storing
-				idLong = idLongWrap - 1;
-			}
+		long idLong;
 
-			byte[] toLogBArr = TesterUtils.byteify(toLog);
-			md5.Init();
-			md5.Update(toLogBArr);
+		if (idLongWrap == null) {
+			return false;
+		} else {
+			// We have an identifier. Obtain and save
+			// need to decrement since we incremented before storing
+			idLong = idLongWrap - 1;
+		}
 
-			String actual_hashed = md5.asHex();
+		// the coverage hash starts with the same bytes, so the logged
+		// object only needs to be serialized once
+		DigestSink logged = new DigestSink();
+		TesterUtils.byteify(toLog, logged);
 
-			// now combine into a big array
-			byte[] completeResult = TesterUtils.addAll(null, threadId);
-			completeResult = TesterUtils.addAll(completeResult, callingClass);
-			completeResult = TesterUtils.addAll(completeResult, callingFunct);
-			completeResult = TesterUtils.addAll(completeResult, TesterUtils.longToBytes(idLong));
+		byte[] actual_hashed = logged.digest();
+		if (event != null) {
+			event.setCaller(this, caller);
+			event.valueSize = logged.size();
+		}
 
-			// and then hash the big array
-			md5.Init();
-			md5.Update(completeResult);
+		logged.put(caller.getClassName());
+		logged.put(caller.getMethodName());
+		String coverageHash = logged.asHex();
 
-			// now, check the expectedHash_inObject Map for this hash. If it
-			// exists, we will get the inputs/outputs associated with this input
-			// null otherwise
-			Result matchingResult = expectedHash_inObject.remove(md5.asHex());
-			if (matchingResult != null) {
-				if (matchingResult.getExpectedHash().equals(actual_hashed)) {
-					// there is a result associated with this logged object
-					matchingResult.setResult(toLog);
-					matchingResult.setStatus(Status.PASSED);
-					expectedHash_inObject.put(md5.asHex(), matchingResult);
+		// now combine into a big array
+		byte[] completeResult = TesterUtils.addAll(null, threadId);
+		completeResult = TesterUtils.addAll(completeResult, callingClass);
+		completeResult = TesterUtils.addAll(completeResult, callingFunct);
+		completeResult = TesterUtils.addAll(completeResult, TesterUtils.longToBytes(idLong));
+
+		// and then hash the big array
+		md5.Init();
+		md5.Update(completeResult);
+
+		// now, check the expectedHash_inObject Map for this hash. If it
+		// exists, we will get the inputs/outputs associated with this input
+		// null otherwise
+		Result matchingResult = epoch.expectedHash_inObject.get(md5.asHex());
+		boolean passed = false;
+		if (matchingResult != null) {
+			boolean matches = matchingResult.expects(actual_hashed);
+			// decided in place, so the result never leaves the map
+			if (matchingResult.logged(toLog, matches)) {
+				if (matches) {
+					passed = true;
+					site.passes.increment();
 				} else {
-					matchingResult.setResult(toLog);
-					matchingResult.setStatus(Status.FAILED);
-					expectedHash_inObject.put(md5.asHex(), matchingResult);
+					site.failures.increment();
+					site.markFailed();
 				}
 			}
+			if (event != null) {
+				event.status = matchingResult.getStatus().name();
+			}
+		}
 
-			// now combine into a big array
-			byte[] loggedResult = this.toBytesWithSignature(toLog, false);
+		// the coverage hash has no thread ID, so threads logging the same
+		// output race to set its bit; the CAS lets exactly one of them count
+		// it as newly covered
+		Result output = epoch.outputs.get(coverageHash);
+		boolean newlyCovered = output != null && epoch.covered.set(output.getOutputId());
+		if (newlyCovered) {
+			site.coveredOutputs.incrementAndGet();
+		}
 
-			md5.Init();
-			md5.Update(loggedResult);
-			// since this does not use the thread ID in the hash, it could
-			// technically be thread unsafe.
-			synchronized (mutex) {
-				if (notUsed.containsKey(md5.asHex())) {
-					used.put(md5.asHex(), notUsed.remove(md5.asHex()));
+		SharedCoverage coverage = sharedCoverage;
+		if (coverage != null && (newlyCovered || passed)) {
+			int id = coverage.find(OffHeapResultStore.parseHex(coverageHash, 0), OffHeapResultStore.parseHex(coverageHash, 16));
+			if (id >= 0) {
+				if (newlyCovered) {
+					coverage.cover(id);
+				}
+				if (passed) {
+					coverage.pass(id);
 				}
 			}
-
 		}
+		checkSaturation(site);
 		return true;
 	}
 
@@ -470,8 +1455,22 @@ public enum Tester {
 	 * @throws FileNotFoundException
 	 * @throws UnsupportedEncodingException
 	 */
-	public synchronized boolean printResultReport(File outFile, boolean verbose) throws UnIdentifiableException, FileNotFoundException, UnsupportedEncodingException {
+	public boolean printResultReport(File outFile, boolean verbose) throws UnIdentifiableException, FileNotFoundException, UnsupportedEncodingException {
+		return printResultReport(epoch, outFile, verbose);
+	}
+
+	/**
+	 * Prints the result report of an epoch, see
+	 * {@link #printResultReport(File, boolean)}.
+	 */
+	synchronized boolean printResultReport(TesterEpoch epoch, File outFile, boolean verbose) throws UnIdentifiableException, FileNotFoundException,
+			UnsupportedEncodingException {
 		if (active) {
+			TesterEvents.Report event = null;
+			if (TesterEvents.REPORT.isEnabled()) {
+				event = new TesterEvents.Report();
+				event.begin();
+			}
 			boolean isFile = outFile != null;
 			PrintWriter writer = null;
 
@@ -486,7 +1485,24 @@ public enum Tester {
 				System.out.println("Result report for tester number " + this.num + ":\n");
 			}
 
-			ArrayList<Result> results = getResultList();
+			List<String> rates = samplingRates(epoch);
+			if (epoch.offHeap != null && epoch.offHeap.droppedPreviews() > 0) {
+				rates.add("Previews: " + epoch.offHeap.droppedPreviews() + " inputs and outputs not printed, the off-heap preview area is full");
+			}
+			for (String rate : rates) {
+				if (isFile)
+					writer.println(rate);
+				else
+					System.out.println(rate);
+			}
+			if (!rates.isEmpty()) {
+				if (isFile)
+					writer.println();
+				else
+					System.out.println();
+			}
+
+			List<Result> results = new ReportView(epoch, true, false).results;
 
 			// print header
 			if (isFile)
@@ -494,9 +1510,11 @@ public enum Tester {
 			else
 				System.out.format(resultReportColumnWidth, "Time", "Class", "Method", "Input", "Output", "Expected Output", "Result");
 
+			int printed = 0;
 			for (int i = 0; i < results.size(); i++) {
 				Result temp = results.get(i);
 				if (temp.getStatus() != Status.UNEXPECTED || verbose) {
+					printed++;
 					String input = TesterUtils.objectPrinter(temp.getInput());
 					String output = TesterUtils.objectPrinter(temp.getResult());
 					String expectedOutput = TesterUtils.objectPrinter(temp.getExpectedResult());
@@ -524,8 +1542,31 @@ public enum Tester {
 						System.out.format(resultReportColumnWidth, temp.getDate(), clazz, temp.getMethod(), input, output, expectedOutput, temp.getStatus());
 				}
 			}
+			if (verbose) {
+				List<String> summaries = unexpectedSummaries(epoch);
+				if (!summaries.isEmpty()) {
+					if (isFile)
+						writer.println();
+					else
+						System.out.println();
+				}
+				for (String summary : summaries) {
+					if (isFile)
+						writer.println(summary);
+					else
+						System.out.println(summary);
+				}
+			}
 			if (isFile)
 				writer.close();
+
+			if (event != null) {
+				event.tester = name();
+				event.report = "result";
+				event.entries = printed;
+				event.file = isFile ? outFile.getPath() : null;
+				event.commit();
+			}
 		}
 		return true;
 	}
@@ -543,13 +1584,26 @@ public enum Tester {
 	 * @throws FileNotFoundException
 	 * @throws UnIdentifiableException
 	 */
-	public synchronized boolean printCoverageReport(File outFile, boolean verbose) throws FileNotFoundException, UnIdentifiableException {
+	public boolean printCoverageReport(File outFile, boolean verbose) throws FileNotFoundException, UnIdentifiableException {
+		return printCoverageReport(epoch, outFile, verbose);
+	}
+
+	/**
+	 * Prints the coverage report of an epoch, see
+	 * {@link #printCoverageReport(File, boolean)}.
+	 */
+	synchronized boolean printCoverageReport(TesterEpoch epoch, File outFile, boolean verbose) throws FileNotFoundException, UnIdentifiableException {
 		// if a file is not passed to the method, print to the console.
 		boolean isFile = outFile != null;
 
 		ArrayList<CoverageResult> coverageResults = new ArrayList<CoverageResult>();
 
 		if (active) {
+			TesterEvents.Report event = null;
+			if (TesterEvents.REPORT.isEnabled()) {
+				event = new TesterEvents.Report();
+				event.begin();
+			}
 			PrintWriter writer = null;
 			if (isFile) {
 				try {
@@ -566,6 +1620,8 @@ public enum Tester {
 			} else
 				System.out.println("Coverage report for tester number " + this.num + ":\n");
 
+			ReportView view = new ReportView(epoch, false, false);
+			List<Result> used = view.covered, notUsed = view.uncovered;
 			int totNumCovered = used.size();
 			int totNumMissed = notUsed.size();
 
@@ -574,29 +1630,37 @@ public enum Tester {
 			else
 				System.out.println("Overall Coverage: " + totNumCovered + " / " + (totNumCovered + totNumMissed) + "\n");
 
-			// Print header: class name, method name, and coverage
-			if (isFile) {
-				writer.format(coverageReportColumnWidth, "Class", "Method", "Coverage");
-				writer.println();
-			} else {
-				System.out.format(coverageReportColumnWidth, "Class", "Method", "Coverage");
-				System.out.println();
+			List<String> rates = samplingRates(epoch);
+			for (String rate : rates) {
+				if (isFile)
+					writer.println(rate);
+				else
+					System.out.println(rate);
+			}
+			if (!rates.isEmpty()) {
+				if (isFile)
+					writer.println();
+				else
+					System.out.println();
 			}
 
-			for (String key : notUsed.keySet()) {
+			// Print header: class name, method name, and coverage
+			if (isFile)
+				writer.println(coverageRow("Class", "Method", "Coverage"));
+			else
+				System.out.println(coverageRow("Class", "Method", "Coverage"));
+
+			for (Result a : notUsed) {
 				int numCovered = 0;
 				int total = 0;
-				Result a = notUsed.get(key);
 
-				for (String key2 : used.keySet()) {
-					Result b = used.get(key2);
+				for (Result b : used) {
 					if (a.getClazz().equals(b.getClazz()) && a.getMethod().equals(b.getMethod())) {
 						numCovered++;
 						total++;
 					}
 				}
-				for (String key3 : notUsed.keySet()) {
-					Result b = notUsed.get(key3);
+				for (Result b : notUsed) {
 					if (a.getClazz().equals(b.getClazz()) && a.getMethod().equals(b.getMethod())) {
 						total++;
 					}
@@ -605,20 +1669,17 @@ public enum Tester {
 				coverageResults.add(new CoverageResult(a.getClazz(), a.getMethod(), numCovered + " / " + total));
 			}
 
-			for (String key : used.keySet()) {
+			for (Result a : used) {
 				int numCovered = 0;
 				int total = 0;
-				Result a = used.get(key);
 
-				for (String key2 : used.keySet()) {
-					Result b = used.get(key2);
+				for (Result b : used) {
 					if (a.getClazz().equals(b.getClazz()) && a.getMethod().equals(b.getMethod())) {
 						numCovered++;
 						total++;
 					}
 				}
-				for (String key3 : notUsed.keySet()) {
-					Result b = notUsed.get(key3);
+				for (Result b : notUsed) {
 					if (a.getClazz().equals(b.getClazz()) && a.getMethod().equals(b.getMethod())) {
 						total++;
 					}
@@ -649,54 +1710,432 @@ public enum Tester {
 			// print the contents of coverageResults
 			for (int i = 0; i < dupeFreeCoverage.size(); i++) {
 				CoverageResult temp = dupeFreeCoverage.get(i);
+				String row = coverageRow(temp.getClazz(), temp.getMethod(), temp.getCoverage());
 
-				String clazz = temp.getClazz();
-				String method = temp.getMethod();
-				String coverage = temp.getCoverage();
+				if (isFile)
+					writer.println(row);
+				else
+					System.out.println(row);
+			}
 
-				// truncate outputs if they are too long
-				if (clazz.length() > columnWidth)
-					clazz = "..." + clazz.substring(clazz.length() - columnWidth + 3);
-				if (method.length() > columnWidth)
-					method = method.substring(0, columnWidth - 5) + "...";
-				if (coverage.length() > columnWidth)
-					coverage = coverage.substring(0, columnWidth - 5) + "...";
+			if (isFile)
+				writer.close();
 
-				if (isFile) {
-					writer.format(coverageReportColumnWidth, clazz, method, coverage);
-					writer.println();
-				} else {
-					System.out.format(coverageReportColumnWidth, clazz, method, coverage);
-					System.out.println();
+			if (event != null) {
+				event.tester = name();
+				event.report = "coverage";
+				event.entries = dupeFreeCoverage.size();
+				event.file = isFile ? outFile.getPath() : null;
+				event.commit();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Formats a row of the coverage report, shortening the columns that are
+	 * too long. Also used by {@link CoverageServer}, so that its report reads
+	 * like the tester's.
+	 * 
+	 * @param clazz
+	 *            the class
+	 * @param method
+	 *            the method
+	 * @param coverage
+	 *            the covered and expected outputs
+	 * @return the row
+	 */
+	static String coverageRow(String clazz, String method, String coverage) {
+		// truncate outputs if they are too long
+		if (clazz.length() > columnWidth)
+			clazz = "..." + clazz.substring(clazz.length() - columnWidth + 3);
+		if (method.length() > columnWidth)
+			method = method.substring(0, columnWidth - 5) + "...";
+		if (coverage.length() > columnWidth)
+			coverage = coverage.substring(0, columnWidth - 5) + "...";
+		return String.format(coverageReportColumnWidth, clazz, method, coverage);
+	}
+
+	/**
+	 * Saves the coverage, results and call site counters of the tester to a
+	 * file, identified by their hashes only, so that they can be restored in
+	 * another JVM or merged with the snapshots of other runs, see
+	 * {@link TesterSnapshot}. Expectations are not saved: they are registered
+	 * again when the tested code runs.
+	 * 
+	 * @param path
+	 *            the file to write
+	 * @return true, if successful, false if the tester is disabled
+	 * @throws IOException
+	 */
+	public boolean snapshot(Path path) throws IOException {
+		return snapshot(epoch, path);
+	}
+
+	/**
+	 * Saves an epoch to a file, see {@link #snapshot(Path)}.
+	 */
+	boolean snapshot(TesterEpoch epoch, Path path) throws IOException {
+		if (!active) {
+			return false;
+		}
+		TesterSnapshot snapshot = new TesterSnapshot(System.currentTimeMillis());
+		snapshot.ensureCapacity(epoch.covered.size(), epoch.expectedHash_inObject.size());
+		Map<CallSite, Integer> ids = new IdentityHashMap<CallSite, Integer>();
+		for (CallSite site : epoch.callSites()) {
+			long[] counts = { site.inputs.sum(), site.loads.sum(), site.logs.sum(), site.passes.sum(), site.failures.sum(), site.unexpected.sum() };
+			ids.put(site, snapshot.addSite(site.getClazz(), site.getMethod(), counts));
+		}
+		for (Map.Entry<String, Result> entry : epoch.outputs.entrySet()) {
+			Result output = entry.getValue();
+			snapshot.addOutput(OffHeapResultStore.parseHex(entry.getKey(), 0), OffHeapResultStore.parseHex(entry.getKey(), 16), siteId(epoch, snapshot, ids, output),
+					epoch.covered.get(output.getOutputId()));
+		}
+		for (Map.Entry<String, Result> entry : epoch.expectedHash_inObject.entrySet()) {
+			Result result = entry.getValue();
+			snapshot.addResult(OffHeapResultStore.parseHex(entry.getKey(), 0), OffHeapResultStore.parseHex(entry.getKey(), 16), siteId(epoch, snapshot, ids, result),
+					result.getStatus(), result.getTime());
+		}
+		snapshot.write(path);
+		return true;
+	}
+
+	/**
+	 * @return the id in a snapshot of the call site of a result
+	 */
+	private int siteId(TesterEpoch epoch, TesterSnapshot snapshot, Map<CallSite, Integer> ids, Result result) {
+		CallSite site = result instanceof CompactResult ? ((CompactResult) result).getSite() : epoch.callSite(result.getClazz(), result.getMethod());
+		Integer id = ids.get(site);
+		if (id == null) {
+			// created since the sites were added
+			id = snapshot.addSite(site.getClazz(), site.getMethod(), new long[6]);
+			ids.put(site, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Adds a snapshot written by {@link #snapshot(Path)} or merged by
+	 * {@link TesterSnapshot} to the tester. Outputs covered in the snapshot
+	 * are covered, its other outputs are expected, its results are added
+	 * unless the tester already has a result with the same hash, and its
+	 * counters are added to those of the call sites. Restored outputs and
+	 * results have no values to show in the reports.
+	 * 
+	 * @param path
+	 *            the file to read
+	 * @return true, if successful, false if the tester is disabled
+	 * @throws IOException
+	 *             if the file cannot be read or is not a snapshot
+	 */
+	public boolean restore(Path path) throws IOException {
+		if (!active) {
+			return false;
+		}
+		TesterSnapshot snapshot = TesterSnapshot.read(path);
+		TesterEpoch epoch = this.epoch;
+		CallSite[] restored = new CallSite[snapshot.getSiteCount()];
+		for (int i = 0; i < restored.length; i++) {
+			CallSite site = epoch.callSite(snapshot.getSiteClass(i), snapshot.getSiteMethod(i));
+			long[] counts = snapshot.getSiteCounters(i);
+			site.inputs.add(counts[0]);
+			site.loads.add(counts[1]);
+			site.logs.add(counts[2]);
+			site.passes.add(counts[3]);
+			site.failures.add(counts[4]);
+			site.unexpected.add(counts[5]);
+			restored[i] = site;
+		}
+
+		for (int i = 0; i < snapshot.getOutputCount(); i++) {
+			String key = OffHeapResultStore.hex(snapshot.getOutputHigh(i), snapshot.getOutputLow(i));
+			CallSite site = restored[snapshot.getOutputSite(i)];
+			Result output;
+			synchronized (mutex) {
+				output = epoch.outputs.get(key);
+				if (output == null) {
+					output = new CompactResult(site, snapshot.getTime(), 0, 0, Status.INCOMPLETE);
+					output.setOutputId(epoch.covered.newId(snapshot.getOutputHigh(i), snapshot.getOutputLow(i), site));
+					epoch.outputs.put(key, output);
+					site.expectedOutputs.incrementAndGet();
+					site.saturated = false;
 				}
 			}
+			if (snapshot.isOutputCovered(i) && epoch.covered.set(output.getOutputId())) {
+				site.coveredOutputs.incrementAndGet();
+			}
+			shareOutput(key, snapshot.isOutputCovered(i));
+		}
 
-			if (isFile)
-				writer.close();
+		for (int i = 0; i < snapshot.getResultCount(); i++) {
+			String key = OffHeapResultStore.hex(snapshot.getResultHigh(i), snapshot.getResultLow(i));
+			CallSite site = restored[snapshot.getResultSite(i)];
+			epoch.expectedHash_inObject.putIfAbsent(key, new CompactResult(site, snapshot.getResultTime(i), 0, 0, snapshot.getResultStatus(i)));
+		}
+
+		for (int i = 0; i < restored.length; i++) {
+			// the order of the restored passes and failures is not known
+			if (snapshot.getSiteCounters(i)[4] > 0) {
+				restored[i].markFailed();
+			}
+			checkSaturation(restored[i]);
 		}
 		return true;
 	}
 
 	/**
-	 * Returns an ArrayList containing the results, alphabetized by class and
-	 * method.
+	 * Compares the tester with a baseline snapshot written by
+	 * {@link #snapshot(Path)}, and prints only what changed: results that
+	 * fail now but did not, results that pass now but failed or never
+	 * finished, outputs covered in the baseline but not now, and call sites
+	 * that load unexpected inputs now but did not. A case that is not in the
+	 * baseline is taken to have never finished there, so it is newly failing
+	 * if it fails now and newly passing if it passes now. An output covered in
+	 * the baseline is newly uncovered if it is not covered now, including when
+	 * it is no longer expected at all. Results and outputs are matched by their
+	 * hashes with hash joins: the results of the tester are looked up in the
+	 * baseline's index, and the covered outputs of the baseline in the
+	 * tester's map. Each change is printed as it is found, so the comparison
+	 * is linear in the number of entries and nothing is sorted or collected.
 	 * 
-	 * @return the ArrayList
+	 * @param baseline
+	 *            the snapshot to compare with
+	 * @param outFile
+	 *            the output file, or null to print to the console
+	 * @return the number of changes printed, or -1 if the tester is disabled
+	 * @throws IOException
+	 *             if the baseline cannot be read or is not a snapshot, or the
+	 *             output file cannot be written
+	 * @throws UnIdentifiableException
 	 */
-	private ArrayList<Result> getResultList() {
-		if (active) {
-			ArrayList<Result> results = new ArrayList<Result>();
+	public synchronized int printBaselineDiff(Path baseline, File outFile) throws IOException, UnIdentifiableException {
+		if (!active) {
+			return -1;
+		}
+		TesterEvents.Report event = null;
+		if (TesterEvents.REPORT.isEnabled()) {
+			event = new TesterEvents.Report();
+			event.begin();
+		}
+		TesterSnapshot before = TesterSnapshot.read(baseline);
+		TesterEpoch epoch = this.epoch;
+		boolean isFile = outFile != null;
+		PrintWriter writer;
+		if (isFile) {
+			System.out.println("Printing baseline diff to " + outFile.getName());
+			writer = new PrintWriter(outFile, "UTF-8");
+		} else {
+			writer = new PrintWriter(System.out);
+		}
+		writer.println("Baseline diff for tester number " + this.num + " against " + baseline + ":\n");
+		writer.format(resultReportColumnWidth, "Change", "Class", "Method", "Input", "Output", "Expected Output", "Baseline");
+
+		int failing = 0, passing = 0, uncovered = 0, unexpected = 0;
+		for (Map.Entry<String, Result> entry : epoch.expectedHash_inObject.entrySet()) {
+			Result result = entry.getValue();
+			Status status = result.getStatus();
+			if (status != Status.FAILED && status != Status.PASSED) {
+				continue;
+			}
+			int old = before.findResult(OffHeapResultStore.parseHex(entry.getKey(), 0), OffHeapResultStore.parseHex(entry.getKey(), 16));
+			Status was = old < 0 ? null : before.getResultStatus(old);
+			if (status == Status.FAILED && was != Status.FAILED) {
+				failing++;
+				diffRow(writer, "NEWLY FAILING", result, TesterUtils.objectPrinter(result.getResult()), was);
+			} else if (status == Status.PASSED && (was == null || was == Status.FAILED || was == Status.INCOMPLETE)) {
+				passing++;
+				diffRow(writer, "NEWLY PASSING", result, TesterUtils.objectPrinter(result.getResult()), was);
+			}
+		}
+
+		for (int i = 0; i < before.getOutputCount(); i++) {
+			if (!before.isOutputCovered(i)) {
+				continue;
+			}
+			Result output = epoch.outputs.get(OffHeapResultStore.hex(before.getOutputHigh(i), before.getOutputLow(i)));
+			if (output == null) {
+				// the output was not registered in this run
+				int site = before.getOutputSite(i);
+				uncovered++;
+				diffRow(writer, "NEWLY UNCOVERED", before.getSiteClass(site), before.getSiteMethod(site), "N/A", "N/A", "not expected", "COVERED");
+			} else if (!epoch.covered.get(output.getOutputId())) {
+				uncovered++;
+				diffRow(writer, "NEWLY UNCOVERED", output, "N/A", null);
+			}
+		}
+
+		for (CallSite site : epoch.callSites()) {
+			if (site.unexpected.sum() == 0) {
+				continue;
+			}
+			int old = before.findSite(site.getClazz(), site.getMethod());
+			if (old >= 0 && before.getSiteCounters(old)[5] > 0) {
+				continue;
+			}
+			List<UnexpectedInputs.Example> examples = site.unexpectedInputs.examples();
+			if (examples.isEmpty()) {
+				unexpected++;
+				diffRow(writer, "NEWLY UNEXPECTED", site.getClazz(), site.getMethod(), "N/A", "N/A", "N/A", "none");
+			}
+			for (UnexpectedInputs.Example example : examples) {
+				unexpected++;
+				diffRow(writer, "NEWLY UNEXPECTED", site.getClazz(), site.getMethod(), example.preview, "N/A", "N/A", "none");
+			}
+		}
+
+		int changes = failing + passing + uncovered + unexpected;
+		writer.println();
+		writer.println(changes + " changes: " + failing + " newly failing, " + passing + " newly passing, " + uncovered + " newly uncovered, " + unexpected
+				+ " newly unexpected");
+		if (isFile)
+			writer.close();
+		else
+			writer.flush();
+
+		if (event != null) {
+			event.tester = name();
+			event.report = "baseline";
+			event.entries = changes;
+			event.file = isFile ? outFile.getPath() : null;
+			event.commit();
+		}
+		return changes;
+	}
+
+	/**
+	 * Prints a row of the baseline diff for a result or an expected output.
+	 */
+	private static void diffRow(PrintWriter writer, String change, Result result, String output, Status was) throws UnIdentifiableException {
+		String baseline = was == null ? (change.equals("NEWLY UNCOVERED") ? "COVERED" : "none") : was.toString();
+		diffRow(writer, change, result.getClazz(), result.getMethod(), TesterUtils.objectPrinter(result.getInput()), output,
+				TesterUtils.objectPrinter(result.getExpectedResult()), baseline);
+	}
+
+	private static void diffRow(PrintWriter writer, String change, String clazz, String method, String input, String output, String expectedOutput,
+			String baseline) {
+		if (clazz.length() > columnWidth)
+			clazz = "..." + clazz.substring(clazz.length() - columnWidth + 3);
+		writer.format(resultReportColumnWidth, change, clazz, truncate(method), truncate(input), truncate(output), truncate(expectedOutput), baseline);
+	}
+
+	/**
+	 * Returns the number of expected outputs that have been logged.
+	 * 
+	 * @return the number of covered outputs, or 0 if the tester is disabled
+	 */
+	public int getCoveredCount() {
+		return active ? epoch.covered.count() : 0;
+	}
+
+	/**
+	 * Returns the number of expected outputs that have not been logged yet.
+	 * 
+	 * @return the number of uncovered outputs, or 0 if the tester is disabled
+	 */
+	public int getUncoveredCount() {
+		TesterEpoch epoch = this.epoch;
+		return active ? epoch.covered.size() - epoch.covered.count() : 0;
+	}
+
+	/**
+	 * Returns the number of expected inputs registered with the tester. Inputs
+	 * registered on different threads are counted separately.
+	 * 
+	 * @return the number of expected inputs, or 0 if the tester is disabled
+	 */
+	public int getExpectedInputCount() {
+		return active ? epoch.input_expected.size() : 0;
+	}
 
-			// iterate through all results and add to ArrayList
-			for (String key : expectedHash_inObject.keySet()) {
-				results.add(expectedHash_inObject.get(key));
+	/**
+	 * Returns the number of results in the result report with the given
+	 * status.
+	 * 
+	 * @param status
+	 *            the status to count
+	 * @return the number of results, or 0 if the tester is disabled
+	 */
+	public int getResultCount(Status status) {
+		int count = 0;
+		if (active) {
+			TesterEpoch epoch = this.epoch;
+			for (Result result : epoch.expectedHash_inObject.values()) {
+				if (result.getStatus() == status) {
+					count++;
+				}
+			}
+			if (status == Status.UNEXPECTED) {
+				// only the examples are reported
+				for (CallSite site : epoch.callSites()) {
+					count += site.unexpectedInputs.examples().size();
+				}
 			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the probe counters and latencies of every method that has called
+	 * the tester, alphabetized by class and method. The same statistics are
+	 * published over JMX, see {@link TesterMXBean}.
+	 *
+	 * @return the statistics, empty if the tester has never been enabled
+	 */
+	public List<CallSiteStatistics> getCallSiteStatistics() {
+		TesterEpoch epoch = this.epoch;
+		return epoch == null ? new ArrayList<CallSiteStatistics>() : callSiteStatistics(epoch);
+	}
 
-			Collections.sort(results);
+	/**
+	 * @return the statistics of the call sites of an epoch, alphabetized by
+	 *         class and method
+	 */
+	static List<CallSiteStatistics> callSiteStatistics(TesterEpoch epoch) {
+		List<CallSiteStatistics> statistics = new ArrayList<CallSiteStatistics>();
+		for (CallSite site : epoch.callSites()) {
+			statistics.add(site.statistics());
+		}
+		Collections.sort(statistics, new Comparator<CallSiteStatistics>() {
+			@Override
+			public int compare(CallSiteStatistics a, CallSiteStatistics b) {
+				int byClass = a.getClazz().compareToIgnoreCase(b.getClazz());
+				return byClass != 0 ? byClass : a.getMethod().compareToIgnoreCase(b.getMethod());
+			}
+		});
+		return statistics;
+	}
 
-			return results;
+	/**
+	 * Clears the probe counters and latencies of every call site. Results and
+	 * coverage are not affected.
+	 */
+	public void resetCallSiteStatistics() {
+		for (CallSite site : callSites()) {
+			site.reset();
 		}
-		return null;
+	}
+
+	/**
+	 * @return the coverage bitset, or null if the tester has not been enabled
+	 */
+	CoverageBits coverageBits() {
+		TesterEpoch epoch = this.epoch;
+		return epoch == null ? null : epoch.covered;
+	}
+
+	/**
+	 * @return the number of the tester
+	 */
+	int number() {
+		return num;
+	}
+
+	/**
+	 * @return every call site seen in the current epoch
+	 */
+	List<CallSite> callSites() {
+		TesterEpoch epoch = this.epoch;
+		return epoch == null ? new ArrayList<CallSite>() : epoch.callSites();
 	}
 
 	/*
@@ -706,88 +2145,85 @@ public enum Tester {
 	 */
 	@Override
 	public String toString() {
-		String asString = "Info for: " + name + " @ " + this.hashCode() + "\n";
-
-		if (active) {
-
-			if (input_expected != null || !input_expected.isEmpty()) {
-				Collection<Result> expecteds = input_expected.values();
-				asString += "Expected results: \n";
-				for (Result obj : expecteds) {
-					try {
-						asString += "Input: " + TesterUtils.objectPrinter(obj.getInput()) + " -> Output: " + TesterUtils.objectPrinter(obj.getExpectedResult()) + "\n";
-					} catch (UnIdentifiableException e) {
-						e.printStackTrace();
-					}
-				}
+		if (!active) {
+			return "The tester (" + this.name + ") @ " + this.hashCode() + " is disabled. Please enable the tester to allow printing";
+		}
+		StringBuilder asString = new StringBuilder("Info for: " + name + " @ " + this.hashCode() + "\n");
 
-				asString += "\n";
+		// one copy, so the sections agree with each other
+		ReportView view = new ReportView(epoch, true, true);
 
-			} else {
-				asString += "No expected results detected by this tester \n\n";
-			}
-			if (expectedHash_inObject != null || !expectedHash_inObject.isEmpty()) {
-				Collection<Result> loadeds = expectedHash_inObject.values();
-				asString += "Inputs that passed their tests:\n";
-
-				for (Result obj : loadeds) {
-					if (obj.getStatus() == Status.PASSED)
-						try {
-							asString += "Input: " + TesterUtils.objectPrinter(obj.getInput()) + " -> Passed with result: " + TesterUtils.objectPrinter(obj.getResult()) + "\n";
-						} catch (UnIdentifiableException e) {
-							e.printStackTrace();
-						}
+		if (!view.expected.isEmpty()) {
+			asString.append("Expected results: \n");
+			for (Result obj : view.expected) {
+				try {
+					asString.append("Input: " + TesterUtils.objectPrinter(obj.getInput()) + " -> Output: " + TesterUtils.objectPrinter(obj.getExpectedResult()) + "\n");
+				} catch (UnIdentifiableException e) {
+					e.printStackTrace();
 				}
-				asString += "\n";
-
-				asString += "Inputs that have not yet passed their tests:\n";
+			}
 
-				for (Result obj : loadeds) {
-					if (obj.getStatus() == Status.INCOMPLETE || obj.getStatus() == Status.FAILED)
-						try {
-							asString += "Input: " + TesterUtils.objectPrinter(obj.getInput()) + " -> Expected output: " + TesterUtils.objectPrinter(obj.getExpectedResult()) + "\n";
-						} catch (UnIdentifiableException e) {
-							e.printStackTrace();
-						}
-				}
+			asString.append("\n");
 
-				asString += "\n";
-			} else {
-				asString += "No inputs that have not yet passed their tests \n\n";
-			}
+		} else {
+			asString.append("No expected results detected by this tester \n\n");
+		}
+		if (!view.results.isEmpty()) {
+			asString.append("Inputs that passed their tests:\n");
 
-			if (used != null || !used.isEmpty()) {
-				asString += "Tested output values:\n";
-				Collection<Result> covereds = used.values();
-				for (Result obj : covereds) {
+			for (Result obj : view.results) {
+				if (obj.getStatus() == Status.PASSED)
 					try {
-						asString += "Covered output: " + TesterUtils.objectPrinter(obj.getExpectedResult()) + "\n";
+						asString.append("Input: " + TesterUtils.objectPrinter(obj.getInput()) + " -> Passed with result: " + TesterUtils.objectPrinter(obj.getResult()) + "\n");
 					} catch (UnIdentifiableException e) {
 						e.printStackTrace();
 					}
-				}
-
-				asString += "\n";
-			} else {
-				asString += "No covered output values detected by this tester \n\n";
 			}
+			asString.append("\n");
+
+			asString.append("Inputs that have not yet passed their tests:\n");
 
-			if (notUsed != null || !notUsed.isEmpty()) {
-				asString += "Not covered output values:\n";
-				Collection<Result> not_covereds = notUsed.values();
-				for (Result obj : not_covereds) {
+			for (Result obj : view.results) {
+				if (obj.getStatus() == Status.INCOMPLETE || obj.getStatus() == Status.FAILED)
 					try {
-						asString += "Not Covered output: " + TesterUtils.objectPrinter(obj.getExpectedResult()) + "\n";
+						asString.append("Input: " + TesterUtils.objectPrinter(obj.getInput()) + " -> Expected output: " + TesterUtils.objectPrinter(obj.getExpectedResult()) + "\n");
 					} catch (UnIdentifiableException e) {
 						e.printStackTrace();
 					}
+			}
+
+			asString.append("\n");
+		} else {
+			asString.append("No inputs that have not yet passed their tests \n\n");
+		}
+
+		if (!view.covered.isEmpty()) {
+			asString.append("Tested output values:\n");
+			for (Result obj : view.covered) {
+				try {
+					asString.append("Covered output: " + TesterUtils.objectPrinter(obj.getExpectedResult()) + "\n");
+				} catch (UnIdentifiableException e) {
+					e.printStackTrace();
+				}
+			}
+
+			asString.append("\n");
+		} else {
+			asString.append("No covered output values detected by this tester \n\n");
+		}
+
+		if (!view.uncovered.isEmpty()) {
+			asString.append("Not covered output values:\n");
+			for (Result obj : view.uncovered) {
+				try {
+					asString.append("Not Covered output: " + TesterUtils.objectPrinter(obj.getExpectedResult()) + "\n");
+				} catch (UnIdentifiableException e) {
+					e.printStackTrace();
 				}
-			} else {
-				asString += "No not-covered output values detected by this tester \n\n";
 			}
 		} else {
-			asString = "The tester (" + this.name + ") @ " + this.hashCode() + " is disabled. Please enable the tester to allow printing";
+			asString.append("No not-covered output values detected by this tester \n\n");
 		}
-		return asString;
+		return asString.toString();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+/*
+ * File: TesterBaselineDiffCheck.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Checks the baseline diff against a snapshot of an earlier epoch: a case
+ * that passed there and fails now is newly failing, a case the baseline does
+ * not have is newly passing, an output the baseline covered is newly
+ * uncovered whether or not it is still expected, and a case that passes in
+ * both is not listed. Exits with status 1 if a check fails.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+public class TesterBaselineDiffCheck {
+
+	private static final Tester tester = Tester.INSTANCE_5;
+
+	private static int failures = 0;
+
+	/**
+	 * Runs the checks.
+	 *
+	 * @param args
+	 *            not used
+	 * @throws UnIdentifiableException
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws UnIdentifiableException, IOException {
+		Path baseline = Files.createTempFile("baseline", ".snapshot");
+		File diff = File.createTempFile("diff", ".txt");
+		try {
+			tester.enable(true);
+			square(3, false);
+			square(4, false);
+			cube(3);
+			tester.snapshot(baseline);
+
+			tester.newEpoch();
+			square(3, true);
+			square(4, false);
+			half(8);
+			int changes = tester.printBaselineDiff(baseline, diff);
+			List<String> lines = Files.readAllLines(diff.toPath(), StandardCharsets.UTF_8);
+
+			check("passing to failing is newly failing", rows(lines, "NEWLY FAILING", "square") == 1);
+			check("a case not in the baseline is newly passing", rows(lines, "NEWLY PASSING", "half") == 1);
+			check("a case passing in both is not listed", rows(lines, "PASSING", "square") == 0);
+			check("a covered output no longer logged is newly uncovered", rows(lines, "NEWLY UNCOVERED", "square") == 1);
+			check("a covered output no longer expected is newly uncovered", rows(lines, "NEWLY UNCOVERED", "cube") == 1);
+			check("4 changes counted (" + changes + ")", changes == 4 && lines.get(lines.size() - 1).startsWith("4 changes"));
+		} finally {
+			Files.delete(baseline);
+			diff.delete();
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " baseline diff checks failed");
+			System.exit(1);
+		}
+		System.out.println("All baseline diff checks passed");
+	}
+
+	/**
+	 * @return the number of rows of the diff with a change and method
+	 */
+	private static int rows(List<String> lines, String change, String method) {
+		int rows = 0;
+		for (String line : lines) {
+			if (line.contains(change) && line.contains(" " + method + " ")) {
+				rows++;
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * A tested method.
+	 *
+	 * @param x
+	 *            the number to square
+	 * @param broken
+	 *            true to return a wrong square
+	 * @return the square, or one more
+	 * @throws UnIdentifiableException
+	 */
+	private static int square(int x, boolean broken) throws UnIdentifiableException {
+		tester.input(3, 9);
+		tester.input(4, 16);
+		tester.load(x);
+		int square = broken ? x * x + 1 : x * x;
+		tester.log(square);
+		return square;
+	}
+
+	/**
+	 * A tested method that is only called in the baseline.
+	 */
+	private static int cube(int x) throws UnIdentifiableException {
+		tester.input(3, 27);
+		tester.load(x);
+		tester.log(x * x * x);
+		return x * x * x;
+	}
+
+	/**
+	 * A tested method that is only called after the baseline.
+	 */
+	private static int half(int x) throws UnIdentifiableException {
+		tester.input(8, 4);
+		tester.load(x);
+		tester.log(x / 2);
+		return x / 2;
+	}
+
+	private static void check(String what, boolean passed) {
+		System.out.println((passed ? "ok      " : "FAILED  ") + what);
+		if (!passed) {
+			failures++;
+		}
+	}
+}
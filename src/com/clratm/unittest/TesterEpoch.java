@@ -0,0 +1,333 @@
+/*
+ * File: TesterEpoch.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.clratm.unittest.Result.Status;
+
+/**
+ * The expectations, results, coverage and call sites a tester has gathered
+ * since it was enabled or since its last {@link Tester#newEpoch()}. The tester
+ * keeps the current epoch in one volatile field that every probe reads once,
+ * so starting a new epoch is a single write: probes that started before it
+ * finish against the old epoch, later ones use the new one, and none of them
+ * waits. A retired epoch is no longer written to, apart from those in-flight
+ * probes, and can still be reported on.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+public final class TesterEpoch {
+
+	private final Tester tester;
+	private final int number;
+	private final long startTime;
+	private volatile long endTime;
+
+	/**
+	 * Stores the input-output relationship.
+	 */
+	final ConcurrentMap<String, Result> input_expected;
+
+	/**
+	 * Stores every expected output, keyed by the hash of the output, class and
+	 * method names. Each is given an output id when it is registered, and is
+	 * covered once its bit is set in covered.
+	 */
+	final ConcurrentMap<String, Result> outputs;
+
+	/**
+	 * Uniquely identifies each expected output in a function
+	 */
+	final ConcurrentHashMap<String, Long> identifiers;
+
+	/**
+	 * The expected outputs that have been logged, by output id.
+	 */
+	final CoverageBits covered = new CoverageBits();
+
+	/**
+	 * Stores all expected outputs we are looking for. If we log a hash that
+	 * matches one in here, we know that that case has been covered. That
+	 * mapping will then be removed from this, and the object will be added to
+	 * the covered list. Thus, the objects that remain in this list at the end
+	 * of execution are the ones that have not been tested.
+	 */
+	final ConcurrentMap<String, Result> expectedHash_inObject;
+
+	/**
+	 * Stores the expectations declared with {@link Expect}, keyed by the hash
+	 * of the input without a thread ID. They are copied into input_expected
+	 * the first time a thread loads a matching input.
+	 */
+	final ConcurrentHashMap<String, Result> declared;
+
+	/**
+	 * The class and method names, joined by '#', of every method with declared
+	 * expectations. Keeps load() from hashing inputs a second time for methods
+	 * that have none.
+	 */
+	final ConcurrentHashMap<String, Boolean> declaredSites;
+
+	/**
+	 * Remembers the input() calls that have already been fully registered, so
+	 * that repeating them costs a single hash lookup. Left empty while results
+	 * are compact, and null for an off-heap epoch, whose results always are.
+	 */
+	final Set<Registration> registered;
+
+	/**
+	 * The probe counters and latencies of every calling method, by class name
+	 * and then method name, so that finding a site does not build a key.
+	 */
+	final ConcurrentHashMap<String, ConcurrentHashMap<String, CallSite>> sites;
+
+	/**
+	 * Keeps the results and coverage outside the heap, or null if they are
+	 * kept in ConcurrentHashMaps.
+	 */
+	final OffHeapResultStore offHeap;
+
+	/**
+	 * Creates the state of an epoch. The maps of a new epoch are sized for as
+	 * many entries as the previous epoch ended with, so a tester that sees the
+	 * same cases every epoch does not grow them again, and its call sites
+	 * start with the sampling rates and throttles of the previous epoch.
+	 *
+	 * @param tester
+	 *            the tester
+	 * @param number
+	 *            the number of the epoch, from 0
+	 * @param offHeap
+	 *            true to keep the results outside the heap
+	 * @param previous
+	 *            the epoch this one follows, or null
+	 */
+	TesterEpoch(Tester tester, int number, boolean offHeap, TesterEpoch previous) {
+		this.tester = tester;
+		this.number = number;
+		this.startTime = System.currentTimeMillis();
+		if (offHeap) {
+			this.offHeap = new OffHeapResultStore();
+			input_expected = this.offHeap.newTable();
+			expectedHash_inObject = this.offHeap.newTable();
+			outputs = this.offHeap.newTable();
+		} else {
+			this.offHeap = null;
+			input_expected = new ConcurrentHashMap<String, Result>(previous == null ? 16 : previous.input_expected.size());
+			expectedHash_inObject = new ConcurrentHashMap<String, Result>(previous == null ? 16 : previous.expectedHash_inObject.size());
+			outputs = new ConcurrentHashMap<String, Result>(previous == null ? 16 : previous.outputs.size());
+		}
+		identifiers = new ConcurrentHashMap<String, Long>(previous == null ? 16 : previous.identifiers.size());
+		if (offHeap) {
+			registered = null;
+		} else {
+			registered = Collections.newSetFromMap(new ConcurrentHashMap<Registration, Boolean>(previous == null || previous.registered == null ? 16
+					: previous.registered.size()));
+		}
+		declared = new ConcurrentHashMap<String, Result>(previous == null ? 16 : previous.declared.size());
+		declaredSites = new ConcurrentHashMap<String, Boolean>();
+		sites = new ConcurrentHashMap<String, ConcurrentHashMap<String, CallSite>>();
+		if (previous != null) {
+			for (CallSite site : previous.callSites()) {
+				CallSite next = callSite(site.getClazz(), site.getMethod());
+				next.samplingRate = site.samplingRate;
+				next.throttle = site.throttle;
+			}
+		}
+	}
+
+	/**
+	 * Finds the statistics of a calling method, creating them on its first
+	 * call.
+	 *
+	 * @param className
+	 *            the name of the calling class
+	 * @param methodName
+	 *            the name of the calling method
+	 * @return the call site
+	 */
+	CallSite callSite(String className, String methodName) {
+		ConcurrentHashMap<String, CallSite> methods = sites.get(className);
+		if (methods == null) {
+			methods = new ConcurrentHashMap<String, CallSite>();
+			ConcurrentHashMap<String, CallSite> existing = sites.putIfAbsent(className, methods);
+			if (existing != null) {
+				methods = existing;
+			}
+		}
+		CallSite site = methods.get(methodName);
+		if (site == null) {
+			site = new CallSite(className, methodName);
+			CallSite existing = methods.putIfAbsent(methodName, site);
+			if (existing != null) {
+				site = existing;
+			}
+		}
+		return site;
+	}
+
+	/**
+	 * @return every call site seen in this epoch
+	 */
+	List<CallSite> callSites() {
+		List<CallSite> all = new ArrayList<CallSite>();
+		for (ConcurrentHashMap<String, CallSite> methods : sites.values()) {
+			all.addAll(methods.values());
+		}
+		return all;
+	}
+
+	/**
+	 * Marks the end of the epoch.
+	 */
+	void end() {
+		endTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the tester the epoch belongs to
+	 */
+	public Tester getTester() {
+		return tester;
+	}
+
+	/**
+	 * @return the number of the epoch, 0 for the one started by enabling the
+	 *         tester
+	 */
+	public int getNumber() {
+		return number;
+	}
+
+	/**
+	 * @return the time the epoch started, in milliseconds
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the time the epoch was retired, in milliseconds, or 0 if it is
+	 *         the current epoch
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	/**
+	 * @return the number of expected outputs registered in the epoch
+	 */
+	public int getExpectedCount() {
+		return covered.size();
+	}
+
+	/**
+	 * @return the number of expected outputs logged in the epoch
+	 */
+	public int getCoveredCount() {
+		return covered.count();
+	}
+
+	/**
+	 * @return the probe counters and latencies of every method that called
+	 *         the tester in the epoch, alphabetized by class and method, see
+	 *         {@link Tester#getCallSiteStatistics()}
+	 */
+	public List<CallSiteStatistics> getCallSiteStatistics() {
+		return Tester.callSiteStatistics(this);
+	}
+
+	/**
+	 * @param status
+	 *            the status to count
+	 * @return the number of results with that status, not counting
+	 *         unexpected inputs
+	 */
+	public int getResultCount(Status status) {
+		int count = 0;
+		for (Map.Entry<String, Result> entry : expectedHash_inObject.entrySet()) {
+			if (entry.getValue().getStatus() == status) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Prints the result report of the epoch, see
+	 * {@link Tester#printResultReport(File, boolean)}.
+	 *
+	 * @param outFile
+	 *            the out file. If null, print to the console.
+	 * @param verbose
+	 *            the verbose
+	 * @return true, if successful
+	 * @throws UnIdentifiableException
+	 * @throws FileNotFoundException
+	 * @throws UnsupportedEncodingException
+	 */
+	public boolean printResultReport(File outFile, boolean verbose) throws UnIdentifiableException, FileNotFoundException, UnsupportedEncodingException {
+		return tester.printResultReport(this, outFile, verbose);
+	}
+
+	/**
+	 * Prints the coverage report of the epoch, see
+	 * {@link Tester#printCoverageReport(File, boolean)}.
+	 *
+	 * @param outFile
+	 *            the output file
+	 * @param verbose
+	 *            the verbose
+	 * @return true, if successful
+	 * @throws FileNotFoundException
+	 * @throws UnIdentifiableException
+	 */
+	public boolean printCoverageReport(File outFile, boolean verbose) throws FileNotFoundException, UnIdentifiableException {
+		return tester.printCoverageReport(this, outFile, verbose);
+	}
+
+	/**
+	 * Saves the epoch to a file, see {@link Tester#snapshot(Path)}.
+	 *
+	 * @param path
+	 *            the file to write
+	 * @return true, if successful, false if the tester is disabled
+	 * @throws IOException
+	 */
+	public boolean snapshot(Path path) throws IOException {
+		return tester.snapshot(this, path);
+	}
+
+	@Override
+	public String toString() {
+		// counted in one pass, so a result that passes meanwhile is not
+		// counted twice
+		int passed = 0, failed = 0;
+		for (Result result : expectedHash_inObject.values()) {
+			Status status = result.getStatus();
+			if (status == Status.PASSED) {
+				passed++;
+			} else if (status == Status.FAILED) {
+				failed++;
+			}
+		}
+		return tester.name() + " epoch " + number + ": " + getCoveredCount() + " / " + getExpectedCount() + " outputs covered, " + passed + " passed, " + failed
+				+ " failed";
+	}
+}
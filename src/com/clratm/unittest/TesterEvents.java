@@ -0,0 +1,122 @@
+/*
+ * File: TesterEvents.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Flight Recorder events written by the testers. They are all disabled by
+ * default and have to be enabled in the recording settings, either in a .jfc
+ * file or with <code>recording.enable("com.clratm.unittest.Load")</code>. The
+ * probes check the event type before creating an event, so a disabled event
+ * costs a single field read.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class TesterEvents {
+
+	static final EventType LOAD = EventType.getEventType(Load.class);
+	static final EventType LOG = EventType.getEventType(Log.class);
+	static final EventType UNEXPECTED = EventType.getEventType(UnexpectedInput.class);
+	static final EventType REPORT = EventType.getEventType(Report.class);
+
+	private TesterEvents() {
+	}
+
+	/**
+	 * Fields shared by the probe events.
+	 */
+	@Category({ "Unit Test API", "Probes" })
+	@Enabled(false)
+	@StackTrace(false)
+	abstract static class Probe extends Event {
+
+		@Label("Tester")
+		String tester;
+
+		@Label("Class")
+		@Description("The class that called the tester")
+		String clazz;
+
+		@Label("Method")
+		@Description("The method that called the tester")
+		String method;
+
+		@Label("Value Size")
+		@Description("The number of bytes hashed to identify the value")
+		@DataAmount(DataAmount.BYTES)
+		long valueSize;
+
+		void setCaller(Tester tester, StackWalker.StackFrame caller) {
+			this.tester = tester.name();
+			this.clazz = caller.getClassName();
+			this.method = caller.getMethodName();
+		}
+	}
+
+	@Name("com.clratm.unittest.Load")
+	@Label("Tester Load")
+	@Description("A call to Tester.load()")
+	static final class Load extends Probe {
+
+		@Label("Expected")
+		@Description("Whether the loaded input was registered with input() or @Expect")
+		boolean expected;
+	}
+
+	@Name("com.clratm.unittest.Log")
+	@Label("Tester Log")
+	@Description("A call to Tester.log()")
+	static final class Log extends Probe {
+
+		@Label("Status")
+		@Description("The status of the matching result, or null if no input was loaded")
+		String status;
+	}
+
+	@Name("com.clratm.unittest.UnexpectedInput")
+	@Label("Unexpected Input")
+	@Description("An input loaded without a matching input() call")
+	static final class UnexpectedInput extends Probe {
+
+		@Label("Value")
+		@Description("The start of the input as shown in the result report")
+		String value;
+	}
+
+	@Name("com.clratm.unittest.Report")
+	@Label("Tester Report")
+	@Description("The generation of a result or coverage report")
+	@Category({ "Unit Test API", "Reports" })
+	@Enabled(false)
+	@StackTrace(false)
+	static final class Report extends Event {
+
+		@Label("Tester")
+		String tester;
+
+		@Label("Report")
+		@Description("result or coverage")
+		String report;
+
+		@Label("Entries")
+		@Description("The number of results or methods in the report")
+		long entries;
+
+		@Label("File")
+		@Description("The file written, or null for the console")
+		String file;
+	}
+}
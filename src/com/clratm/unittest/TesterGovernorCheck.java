@@ -0,0 +1,84 @@
+/*
+ * File: TesterGovernorCheck.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import com.clratm.unittest.Result.Status;
+
+/**
+ * Checks that the overhead governor throttles a method whose probes take more
+ * than the budget, keeps verifying it while throttled, and lifts the throttle
+ * once the method stops being called. Exits with status 1 if a check fails.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+public class TesterGovernorCheck {
+
+	private static final Tester tester = Tester.INSTANCE_4;
+
+	private static int failures = 0;
+
+	/**
+	 * Runs the checks.
+	 * 
+	 * @param args
+	 *            not used
+	 * @throws UnIdentifiableException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws UnIdentifiableException, InterruptedException {
+		tester.enable(true);
+		tester.setOverheadBudget(0.01, 100);
+
+		// calling nothing but the probes is far over a 1% budget
+		long end = System.currentTimeMillis() + 2000;
+		for (int i = 0; System.currentTimeMillis() < end; i++) {
+			hot(i);
+		}
+		CallSiteStatistics throttled = statistics();
+		check("hot method throttled (1 in " + throttled.getThrottle() + ")", throttled.getThrottle() > 1);
+		check("throttled method still verified (" + throttled.getPasses() + " of " + throttled.getLoads() + " loads passed)", throttled.getPasses() > 0);
+		check("no case left failed", tester.getResultCount(Status.FAILED) == 0);
+
+		// idle windows are under half the budget, so the throttle halves
+		// every window until it is gone
+		Thread.sleep(3000);
+		CallSiteStatistics recovered = statistics();
+		check("throttle lifted once idle (1 in " + recovered.getThrottle() + ")", recovered.getThrottle() == 1);
+
+		if (failures > 0) {
+			System.out.println(failures + " governor checks failed");
+			System.exit(1);
+		}
+		System.out.println("All governor checks passed");
+	}
+
+	private static void hot(int i) throws UnIdentifiableException {
+		tester.input(1, "odd");
+		tester.input(2, "even");
+		tester.load(i % 2 + 1);
+		tester.log(i % 2 == 0 ? "odd" : "even");
+	}
+
+	/**
+	 * @return the statistics of the hot method
+	 */
+	private static CallSiteStatistics statistics() {
+		for (CallSiteStatistics site : tester.getCallSiteStatistics()) {
+			if (site.getMethod().equals("hot")) {
+				return site;
+			}
+		}
+		throw new IllegalStateException("The hot method was never called");
+	}
+
+	private static void check(String what, boolean passed) {
+		System.out.println((passed ? "ok      " : "FAILED  ") + what);
+		if (!passed) {
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * File: TesterMXBean.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+/**
+ * The management interface of a tester, registered with the platform MBean
+ * server as <code>com.clratm.unittest:type=Tester,name=INSTANCE_n</code> when
+ * the tester is first enabled. Sorting the call sites by total time shows
+ * which methods are responsible for most of the tester's overhead.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+public interface TesterMXBean {
+
+	String getName();
+
+	boolean isActive();
+
+	int getCoveredCount();
+
+	int getUncoveredCount();
+
+	int getExpectedInputCount();
+
+	/**
+	 * @return the number of invocations per verified invocation
+	 */
+	int getSamplingRate();
+
+	/**
+	 * Changes the sampling rate while the application runs.
+	 *
+	 * @param rate
+	 *            verify one in this many invocations, 1 to verify all
+	 */
+	void setSamplingRate(int rate);
+
+	/**
+	 * @return the share of the CPU time the probes may take, 0 if unlimited
+	 */
+	double getOverheadBudget();
+
+	/**
+	 * Changes the overhead budget, measured over one second windows.
+	 *
+	 * @param budget
+	 *            the share of the CPU time, e.g. 0.01 for 1%, or 0 to remove
+	 *            the limit
+	 */
+	void setOverheadBudget(double budget);
+
+	/**
+	 * @return the share of the CPU time the probes took in the last window of
+	 *         the overhead governor, 0 if there is no budget
+	 */
+	double getOverheadShare();
+
+	/**
+	 * @return the number of times the governor has throttled a call site
+	 */
+	long getGovernorThrottles();
+
+	/**
+	 * @return the number of times the governor has eased a throttle
+	 */
+	long getGovernorRecoveries();
+
+	/**
+	 * @return the number of frames sent to the coverage server
+	 */
+	long getExportedFrames();
+
+	/**
+	 * @return the number of export periods skipped because the connection to
+	 *         the coverage server had not taken the previous frame
+	 */
+	long getDroppedFrames();
+
+	/**
+	 * @return the counters and latencies of every method that called the
+	 *         tester
+	 */
+	CallSiteStatistics[] getCallSites();
+
+	/**
+	 * @return the time spent in the tester by every call site together
+	 */
+	long getTotalProbeNanos();
+
+	/**
+	 * Clears the counters and latencies of every call site. Results and
+	 * coverage are kept.
+	 */
+	void resetStatistics();
+
+	/**
+	 * @return the number of the current epoch, see {@link Tester#newEpoch()}
+	 */
+	int getEpoch();
+
+	/**
+	 * Starts a new epoch, keeping the current one for reporting.
+	 */
+	void newEpoch();
+}
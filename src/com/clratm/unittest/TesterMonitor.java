@@ -0,0 +1,157 @@
+/*
+ * File: TesterMonitor.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes the statistics of one tester over JMX.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class TesterMonitor implements TesterMXBean {
+
+	private final Tester tester;
+
+	private TesterMonitor(Tester tester) {
+		this.tester = tester;
+	}
+
+	/**
+	 * Registers the monitor of a tester with the platform MBean server, unless
+	 * it is already registered.
+	 *
+	 * @param tester
+	 *            the tester to publish
+	 */
+	static void register(Tester tester) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("com.clratm.unittest:type=Tester,name=" + tester.name());
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new TesterMonitor(tester), name);
+			}
+		} catch (InstanceAlreadyExistsException e) {
+			// registered by another thread in the meantime
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public String getName() {
+		return tester.name();
+	}
+
+	@Override
+	public boolean isActive() {
+		return tester.isActive();
+	}
+
+	@Override
+	public int getCoveredCount() {
+		return tester.getCoveredCount();
+	}
+
+	@Override
+	public int getUncoveredCount() {
+		return tester.getUncoveredCount();
+	}
+
+	@Override
+	public int getExpectedInputCount() {
+		return tester.getExpectedInputCount();
+	}
+
+	@Override
+	public int getSamplingRate() {
+		return tester.getSamplingRate();
+	}
+
+	@Override
+	public void setSamplingRate(int rate) {
+		tester.setSamplingRate(rate);
+	}
+
+	@Override
+	public double getOverheadBudget() {
+		OverheadGovernor governor = tester.getGovernor();
+		return governor == null ? 0 : governor.getBudget();
+	}
+
+	@Override
+	public void setOverheadBudget(double budget) {
+		tester.setOverheadBudget(budget);
+	}
+
+	@Override
+	public double getOverheadShare() {
+		OverheadGovernor governor = tester.getGovernor();
+		return governor == null ? 0 : governor.getLastShare();
+	}
+
+	@Override
+	public long getGovernorThrottles() {
+		OverheadGovernor governor = tester.getGovernor();
+		return governor == null ? 0 : governor.getThrottles();
+	}
+
+	@Override
+	public long getGovernorRecoveries() {
+		OverheadGovernor governor = tester.getGovernor();
+		return governor == null ? 0 : governor.getRecoveries();
+	}
+
+	@Override
+	public long getExportedFrames() {
+		CoverageExporter exporter = tester.getExporter();
+		return exporter == null ? 0 : exporter.getFrames();
+	}
+
+	@Override
+	public long getDroppedFrames() {
+		CoverageExporter exporter = tester.getExporter();
+		return exporter == null ? 0 : exporter.getDropped();
+	}
+
+	@Override
+	public CallSiteStatistics[] getCallSites() {
+		List<CallSiteStatistics> statistics = tester.getCallSiteStatistics();
+		return statistics.toArray(new CallSiteStatistics[statistics.size()]);
+	}
+
+	@Override
+	public long getTotalProbeNanos() {
+		long total = 0;
+		for (CallSiteStatistics statistics : tester.getCallSiteStatistics()) {
+			total += statistics.getTotalNanos();
+		}
+		return total;
+	}
+
+	@Override
+	public void resetStatistics() {
+		tester.resetCallSiteStatistics();
+	}
+
+	@Override
+	public int getEpoch() {
+		TesterEpoch epoch = tester.getEpoch();
+		return epoch == null ? 0 : epoch.getNumber();
+	}
+
+	@Override
+	public void newEpoch() {
+		tester.newEpoch();
+	}
+}
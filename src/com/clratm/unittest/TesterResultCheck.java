@@ -0,0 +1,158 @@
+/*
+ * File: TesterResultCheck.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.clratm.unittest.Result.Status;
+
+/**
+ * Checks how log() decides a case, with results in the heap and off it: the
+ * first log() after a load() decides the case, a later log() does not change
+ * it, loading again starts a new case, and of several log() calls racing for
+ * one case exactly one decides it. Exits with status 1 if a check fails.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+public class TesterResultCheck {
+
+	/**
+	 * The number of log() calls racing for each case.
+	 */
+	private static final int threads = 8;
+
+	private static final int rounds = 2000;
+
+	private static final String key = "0123456789abcdef0123456789abcdef";
+
+	private static int failures = 0;
+
+	/**
+	 * Runs the checks.
+	 *
+	 * @param args
+	 *            not used
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Tester.INSTANCE_2.enable(true);
+		checkDecisions(Tester.INSTANCE_2, "heap");
+		Tester.INSTANCE_3.setOffHeapResults(true);
+		Tester.INSTANCE_3.enable(true);
+		checkDecisions(Tester.INSTANCE_3, "off-heap");
+
+		checkRace(new ConcurrentHashMap<String, Result>(), "heap");
+		checkRace(new OffHeapResultStore().newTable(), "off-heap");
+
+		if (failures > 0) {
+			System.out.println(failures + " result checks failed");
+			System.exit(1);
+		}
+		System.out.println("All result checks passed");
+	}
+
+	/**
+	 * Runs cases of a tested method one after the other.
+	 */
+	private static void checkDecisions(Tester tester, String results) throws UnIdentifiableException {
+		parity(tester, 1, "odd", "even");
+		check(results + ": first log() decides, a later one does not override",
+				tester.getResultCount(Status.PASSED) == 1 && tester.getResultCount(Status.FAILED) == 0);
+
+		parity(tester, 2, "odd", "even");
+		check(results + ": a failed case stays failed", tester.getResultCount(Status.PASSED) == 1 && tester.getResultCount(Status.FAILED) == 1);
+		CallSiteStatistics site = tester.getCallSiteStatistics().get(0);
+		check(results + ": each case counted once (" + site.getPasses() + " passed, " + site.getFailures() + " failed)",
+				site.getPasses() == 1 && site.getFailures() == 1);
+
+		// in the heap the cases of an input share its result, so the failed
+		// case then shows the status of the new one
+		parity(tester, 2, "even");
+		site = tester.getCallSiteStatistics().get(0);
+		check(results + ": loading again starts a new case (" + site.getPasses() + " passed, " + site.getFailures() + " failed)",
+				site.getPasses() == 2 && site.getFailures() == 1 && tester.getResultCount(Status.PASSED) >= 2);
+	}
+
+	/**
+	 * A tested method that logs what it is told to, once the first output has
+	 * decided the case.
+	 */
+	private static void parity(Tester tester, int n, String... outputs) throws UnIdentifiableException {
+		tester.input(1, "odd");
+		tester.input(2, "even");
+		tester.load(n);
+		for (String output : outputs) {
+			tester.log(output);
+		}
+	}
+
+	/**
+	 * Lets several threads log one loaded case at once, each with its own
+	 * copy of the result as log() reads it from the map, half of them passing
+	 * it and half failing it.
+	 */
+	private static void checkRace(final Map<String, Result> map, String results) throws InterruptedException {
+		final CallSite site = new CallSite(TesterResultCheck.class.getName(), "race");
+		final CyclicBarrier start = new CyclicBarrier(threads);
+		final AtomicInteger decided = new AtomicInteger();
+		final AtomicInteger passedBy = new AtomicInteger();
+		int races = 0, mismatches = 0;
+		for (int round = 0; round < rounds; round++) {
+			CompactResult loaded = new CompactResult(site, "1", "odd", new byte[16]);
+			loaded.load("1");
+			map.put(key, loaded);
+			decided.set(0);
+			passedBy.set(0);
+
+			Thread[] racers = new Thread[threads];
+			for (int i = 0; i < threads; i++) {
+				final boolean passed = i % 2 == 0;
+				racers[i] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							Result result = map.get(key);
+							start.await();
+							if (result.logged(passed ? "odd" : "even", passed)) {
+								decided.incrementAndGet();
+								if (passed) {
+									passedBy.incrementAndGet();
+								}
+							}
+						} catch (Exception e) {
+							throw new IllegalStateException(e);
+						}
+					}
+				});
+				racers[i].start();
+			}
+			for (Thread racer : racers) {
+				racer.join();
+			}
+
+			if (decided.get() != 1) {
+				races++;
+			}
+			Status expected = passedBy.get() == 1 ? Status.PASSED : Status.FAILED;
+			if (map.get(key).getStatus() != expected) {
+				mismatches++;
+			}
+		}
+		check(results + ": one of " + threads + " racing log() calls decides (" + races + " of " + rounds + " rounds did not)", races == 0);
+		check(results + ": the stored status is the deciding call's (" + mismatches + " of " + rounds + " rounds were not)", mismatches == 0);
+	}
+
+	private static void check(String what, boolean passed) {
+		System.out.println((passed ? "ok      " : "FAILED  ") + what);
+		if (!passed) {
+			failures++;
+		}
+	}
+}
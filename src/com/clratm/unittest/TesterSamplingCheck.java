@@ -0,0 +1,94 @@
+/*
+ * File: TesterSamplingCheck.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import com.clratm.unittest.Result.Status;
+
+/**
+ * Checks that sampling verifies the expected share of invocations, and that a
+ * log() call is verified exactly when the load() call before it was, also
+ * when tested methods call each other. Exits with status 1 if a check fails.
+ * 
+ * @author Alex Meijer and Christopher Rung
+ */
+public class TesterSamplingCheck {
+
+	private static final Tester tester = Tester.INSTANCE_3;
+
+	private static final int invocations = 40000;
+
+	private static int failures = 0;
+
+	/**
+	 * Runs the checks.
+	 * 
+	 * @param args
+	 *            not used
+	 * @throws UnIdentifiableException
+	 */
+	public static void main(String[] args) throws UnIdentifiableException {
+		tester.enable(true);
+		tester.setSamplingRate(4);
+		tester.setSamplingRate(TesterSamplingCheck.class.getName(), "inner", 3);
+
+		for (int i = 0; i < invocations; i++) {
+			outer(i);
+		}
+
+		long outerPasses = 0, innerPasses = 0;
+		for (CallSiteStatistics site : tester.getCallSiteStatistics()) {
+			if (site.getMethod().equals("outer")) {
+				outerPasses = site.getPasses();
+			} else if (site.getMethod().equals("inner")) {
+				innerPasses = site.getPasses();
+			}
+		}
+
+		// a log() skipped for a sampled load() would leave its case FAILED,
+		// and one verified for a skipped load() would find no case
+		check("no case left failed", tester.getResultCount(Status.FAILED) == 0);
+		check("one in 4 outer invocations verified (" + outerPasses + ")", near(outerPasses, invocations / 4));
+		check("one in 12 inner invocations verified (" + innerPasses + ")", near(innerPasses, invocations / 12));
+
+		if (failures > 0) {
+			System.out.println(failures + " sampling checks failed");
+			System.exit(1);
+		}
+		System.out.println("All sampling checks passed");
+	}
+
+	/**
+	 * A tested method that calls another one between its load() and log().
+	 */
+	private static void outer(int i) throws UnIdentifiableException {
+		tester.input(1, "odd");
+		tester.input(2, "even");
+		tester.load(i % 2 + 1);
+		inner();
+		tester.log(i % 2 == 0 ? "odd" : "even");
+	}
+
+	private static void inner() throws UnIdentifiableException {
+		tester.input(1, "one");
+		tester.load(1);
+		tester.log("one");
+	}
+
+	/**
+	 * @return true, if the count is within a fifth of the expected count
+	 */
+	private static boolean near(long count, long expected) {
+		return Math.abs(count - expected) <= expected / 5;
+	}
+
+	private static void check(String what, boolean passed) {
+		System.out.println((passed ? "ok      " : "FAILED  ") + what);
+		if (!passed) {
+			failures++;
+		}
+	}
+}
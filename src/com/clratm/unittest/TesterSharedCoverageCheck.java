@@ -0,0 +1,127 @@
+/*
+ * File: TesterSharedCoverageCheck.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Checks that two processes share coverage through one file: this JVM covers
+ * one output of a tested method, a child JVM the other, and both outputs must
+ * then be covered and passed in the file, under the same two ids. Also checks
+ * that a slot another process claimed but never completed is given up on
+ * instead of hanging the prober. Exits with status 1 if a check fails.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+public class TesterSharedCoverageCheck {
+
+	private static final Tester tester = Tester.INSTANCE_5;
+
+	private static int failures = 0;
+
+	/**
+	 * Runs the checks, or the child process.
+	 *
+	 * @param args
+	 *            none, or "child" and the coverage file in the child process
+	 * @throws UnIdentifiableException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws UnIdentifiableException, IOException, InterruptedException {
+		if (args.length == 2 && args[0].equals("child")) {
+			tester.enable(true);
+			tester.setSharedCoverage(Paths.get(args[1]), 64);
+			parity(2);
+			return;
+		}
+
+		Path shared = Files.createTempFile("shared", ".bits");
+		Path stalled = Files.createTempFile("stalled", ".bits");
+		Files.delete(shared);
+		Files.delete(stalled);
+		try {
+			tester.enable(true);
+			tester.setSharedCoverage(shared, 64);
+			parity(1);
+			SharedCoverage coverage = tester.getSharedCoverage();
+			check("parent covered one of two outputs (" + coverage + ")", coverage.getExpectedCount() == 2 && coverage.getCoveredCount() == 1);
+
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), TesterSharedCoverageCheck.class.getName(), "child",
+					shared.toString()).inheritIO().start();
+			check("child exited normally", child.waitFor() == 0);
+
+			check("child reused the parent's ids (" + coverage + ")", coverage.getExpectedCount() == 2);
+			check("parent sees the child's coverage", coverage.getCoveredCount() == 2);
+			check("parent sees the child's pass", coverage.getPassedCount() == 2);
+			check("a fresh mapping reads the same bits", SharedCoverage.open(shared).getCoveredCount() == 2);
+
+			checkStalledSlot(stalled);
+		} finally {
+			tester.setSharedCoverage(null, 0);
+			Files.deleteIfExists(shared);
+			Files.deleteIfExists(stalled);
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " shared coverage checks failed");
+			System.exit(1);
+		}
+		System.out.println("All shared coverage checks passed");
+	}
+
+	/**
+	 * Claims the high half of a slot behind the file's back, as a process
+	 * that stopped before publishing the low half would leave it, and probes
+	 * the slot.
+	 */
+	private static void checkStalledSlot(Path path) throws IOException {
+		SharedCoverage coverage = SharedCoverage.open(path, 64);
+		long high = 0x1234, low = 0x5678;
+		// the slot of a hash and its offset, see SharedCoverage
+		int slot = (int) (high ^ low) & (coverage.getCapacity() - 1);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+			buffer.order(ByteOrder.nativeOrder()).putLong(64 + slot * 16, high);
+		}
+		check("a stalled slot gives no id", coverage.id(high, low) == -1 && coverage.find(high, low) == -1);
+		check("a stalled slot is counted (" + coverage + ")", coverage.getOverflowCount() == 2);
+	}
+
+	/**
+	 * The tested method.
+	 *
+	 * @param n
+	 *            a number
+	 * @return "even" or "odd"
+	 * @throws UnIdentifiableException
+	 */
+	private static String parity(int n) throws UnIdentifiableException {
+		tester.input(1, "odd");
+		tester.input(2, "even");
+		tester.load(n);
+		String parity = n % 2 == 0 ? "even" : "odd";
+		tester.log(parity);
+		return parity;
+	}
+
+	private static void check(String what, boolean passed) {
+		System.out.println((passed ? "ok      " : "FAILED  ") + what);
+		if (!passed) {
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,544 @@
+/*
+ * File: TesterSnapshot.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import com.clratm.unittest.Result.Status;
+
+/**
+ * The coverage, results and call site counters of a tester, as written by
+ * {@link Tester#snapshot(Path)} and read by {@link Tester#restore(Path)}.
+ * Outputs and results are identified by the same 128 bit MD5 hashes the
+ * tester uses as keys, so snapshots of different JVMs or runs can be merged
+ * without the tested objects. Running this class merges snapshots:
+ *
+ * <pre>
+ * java com.clratm.unittest.TesterSnapshot merged.snapshot run1.snapshot run2.snapshot ...
+ * </pre>
+ *
+ * A snapshot file is big-endian and written through a memory mapping:
+ *
+ * <pre>
+ * header:   int magic "CLRS", int version, int sites, int outputs, int results, long time
+ * sites:    short length, UTF-8 class; short length, UTF-8 method;
+ *           long inputs, loads, logs, passes, failures, unexpected
+ * outputs:  long hash high, long hash low, int site, byte covered
+ * results:  long hash high, long hash low, int site, byte status, long time
+ * </pre>
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+public final class TesterSnapshot {
+
+	private static final int magic = 0x434c5253;
+	private static final int version = 1;
+	private static final int headerSize = 5 * 4 + 8;
+	private static final int counters = 6;
+	private static final int outputSize = 8 + 8 + 4 + 1;
+	private static final int resultSize = 8 + 8 + 4 + 1 + 8;
+
+	/**
+	 * Merged results keep the worse status: a case that failed in any run is
+	 * failed, one that never finished in some run is incomplete.
+	 */
+	private static final int[] severity = new int[Status.values().length];
+	static {
+		severity[Status.PASSED.ordinal()] = 0;
+		severity[Status.UNEXPECTED.ordinal()] = 1;
+		severity[Status.INCOMPLETE.ordinal()] = 2;
+		severity[Status.FAILED.ordinal()] = 3;
+	}
+
+	private static final Status[] statuses = Status.values();
+
+	private final long time;
+
+	private final List<String> classes = new ArrayList<String>(), methods = new ArrayList<String>();
+	private final List<long[]> siteCounters = new ArrayList<long[]>();
+	private final HashMap<String, Integer> siteIds = new HashMap<String, Integer>();
+
+	private final Entries outputs = new Entries(), results = new Entries();
+
+	/**
+	 * @param time
+	 *            the time the snapshot was taken
+	 */
+	TesterSnapshot(long time) {
+		this.time = time;
+	}
+
+	/**
+	 * Makes room for a number of outputs and results, so that adding them
+	 * does not grow the tables.
+	 *
+	 * @param outputs
+	 *            the number of outputs
+	 * @param results
+	 *            the number of results
+	 */
+	void ensureCapacity(int outputs, int results) {
+		this.outputs.ensureCapacity(outputs);
+		this.results.ensureCapacity(results);
+	}
+
+	/**
+	 * Adds a call site, or its counters to those of the site with the same
+	 * class and method.
+	 *
+	 * @param clazz
+	 *            the class
+	 * @param method
+	 *            the method
+	 * @param counts
+	 *            the inputs, loads, logs, passes, failures and unexpected
+	 *            inputs
+	 * @return the id of the site in this snapshot
+	 */
+	int addSite(String clazz, String method, long[] counts) {
+		String key = clazz + '#' + method;
+		Integer id = siteIds.get(key);
+		if (id == null) {
+			id = classes.size();
+			siteIds.put(key, id);
+			classes.add(clazz);
+			methods.add(method);
+			siteCounters.add(new long[counters]);
+		}
+		long[] total = siteCounters.get(id);
+		for (int i = 0; i < counters; i++) {
+			total[i] += counts[i];
+		}
+		return id;
+	}
+
+	/**
+	 * Adds an expected output. It is covered if it is covered in any of the
+	 * merged snapshots.
+	 *
+	 * @param high
+	 *            the high half of the coverage hash
+	 * @param low
+	 *            the low half
+	 * @param site
+	 *            the id of its call site
+	 * @param covered
+	 *            true, if it has been logged
+	 */
+	void addOutput(long high, long low, int site, boolean covered) {
+		int entry = outputs.put(high, low, site);
+		if (covered) {
+			outputs.flag[entry] = 1;
+		}
+	}
+
+	/**
+	 * Adds a result. If the same hash is already present, the worse status
+	 * and the later time are kept.
+	 *
+	 * @param high
+	 *            the high half of the key of the result
+	 * @param low
+	 *            the low half
+	 * @param site
+	 *            the id of its call site
+	 * @param status
+	 *            its status
+	 * @param time
+	 *            the time of the result
+	 */
+	void addResult(long high, long low, int site, Status status, long time) {
+		int size = results.size;
+		int entry = results.put(high, low, site);
+		if (entry == size || severity[status.ordinal()] > severity[results.flag[entry]]) {
+			results.flag[entry] = (byte) status.ordinal();
+		}
+		results.time[entry] = Math.max(results.time[entry], time);
+	}
+
+	/**
+	 * Adds everything in another snapshot to this one.
+	 *
+	 * @param other
+	 *            the other snapshot
+	 */
+	void merge(TesterSnapshot other) {
+		int[] ids = new int[other.getSiteCount()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = addSite(other.classes.get(i), other.methods.get(i), other.siteCounters.get(i));
+		}
+		Entries theirs = other.outputs;
+		for (int i = 0; i < theirs.size; i++) {
+			addOutput(theirs.high[i], theirs.low[i], ids[theirs.site[i]], theirs.flag[i] != 0);
+		}
+		theirs = other.results;
+		for (int i = 0; i < theirs.size; i++) {
+			addResult(theirs.high[i], theirs.low[i], ids[theirs.site[i]], statuses[theirs.flag[i]], theirs.time[i]);
+		}
+	}
+
+	/**
+	 * Writes the snapshot to a file, replacing it if it exists.
+	 *
+	 * @param path
+	 *            the file
+	 * @throws IOException
+	 */
+	void write(Path path) throws IOException {
+		byte[][] names = new byte[classes.size() * 2][];
+		long size = headerSize + (long) outputs.size * outputSize + (long) results.size * resultSize;
+		for (int i = 0; i < classes.size(); i++) {
+			names[2 * i] = classes.get(i).getBytes(StandardCharsets.UTF_8);
+			names[2 * i + 1] = methods.get(i).getBytes(StandardCharsets.UTF_8);
+			size += 2 + names[2 * i].length + 2 + names[2 * i + 1].length + counters * 8;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("A snapshot cannot be larger than 2 GB");
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putInt(magic).putInt(version).putInt(classes.size()).putInt(outputs.size).putInt(results.size).putLong(time);
+			for (int i = 0; i < classes.size(); i++) {
+				buffer.putShort((short) names[2 * i].length).put(names[2 * i]);
+				buffer.putShort((short) names[2 * i + 1].length).put(names[2 * i + 1]);
+				for (long count : siteCounters.get(i)) {
+					buffer.putLong(count);
+				}
+			}
+			for (int i = 0; i < outputs.size; i++) {
+				buffer.putLong(outputs.high[i]).putLong(outputs.low[i]).putInt(outputs.site[i]).put(outputs.flag[i]);
+			}
+			for (int i = 0; i < results.size; i++) {
+				buffer.putLong(results.high[i]).putLong(results.low[i]).putInt(results.site[i]).put(results.flag[i]).putLong(results.time[i]);
+			}
+		}
+	}
+
+	/**
+	 * Reads a snapshot file.
+	 *
+	 * @param path
+	 *            the file
+	 * @return the snapshot
+	 * @throws IOException
+	 *             if the file cannot be read or is not a snapshot
+	 */
+	static TesterSnapshot read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < headerSize || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(path + " is not a tester snapshot");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != magic) {
+				throw new IOException(path + " is not a tester snapshot");
+			}
+			if (buffer.getInt() != version) {
+				throw new IOException(path + " was written by another version of the tester");
+			}
+			int sites = buffer.getInt(), outputs = buffer.getInt(), results = buffer.getInt();
+			TesterSnapshot snapshot = new TesterSnapshot(buffer.getLong());
+			snapshot.ensureCapacity(outputs, results);
+
+			long[] counts = new long[counters];
+			for (int i = 0; i < sites; i++) {
+				String clazz = readString(buffer);
+				String method = readString(buffer);
+				for (int j = 0; j < counters; j++) {
+					counts[j] = buffer.getLong();
+				}
+				snapshot.addSite(clazz, method, counts);
+			}
+			for (int i = 0; i < outputs; i++) {
+				long high = buffer.getLong(), low = buffer.getLong();
+				snapshot.addOutput(high, low, checkSite(buffer.getInt(), sites), buffer.get() != 0);
+			}
+			for (int i = 0; i < results; i++) {
+				long high = buffer.getLong(), low = buffer.getLong();
+				snapshot.addResult(high, low, checkSite(buffer.getInt(), sites), statuses[buffer.get()], buffer.getLong());
+			}
+			return snapshot;
+		} catch (RuntimeException e) {
+			// a truncated file or an out of range status or site
+			throw new IOException(path + " is not a valid tester snapshot", e);
+		}
+	}
+
+	private static int checkSite(int site, int sites) {
+		if (site < 0 || site >= sites) {
+			throw new IndexOutOfBoundsException("No call site " + site);
+		}
+		return site;
+	}
+
+	private static String readString(MappedByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xffff];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Merges snapshot files into one, in time linear in the total number of
+	 * entries.
+	 *
+	 * @param merged
+	 *            the file to write
+	 * @param snapshots
+	 *            the files to merge
+	 * @return the merged snapshot
+	 * @throws IOException
+	 */
+	public static TesterSnapshot merge(Path merged, List<Path> snapshots) throws IOException {
+		TesterSnapshot union = new TesterSnapshot(System.currentTimeMillis());
+		for (Path path : snapshots) {
+			union.merge(read(path));
+		}
+		union.write(merged);
+		return union;
+	}
+
+	/**
+	 * Merges snapshot files.
+	 *
+	 * @param args
+	 *            the file to write, followed by the files to merge
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: TesterSnapshot <merged snapshot> <snapshot>...");
+			System.exit(2);
+		}
+		List<Path> snapshots = new ArrayList<Path>();
+		for (int i = 1; i < args.length; i++) {
+			snapshots.add(Paths.get(args[i]));
+		}
+		TesterSnapshot union = merge(Paths.get(args[0]), snapshots);
+		System.out.println("Merged " + snapshots.size() + " snapshots into " + args[0] + ": " + union);
+	}
+
+	/**
+	 * @return the time the snapshot was taken, or merged
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public int getSiteCount() {
+		return classes.size();
+	}
+
+	public int getOutputCount() {
+		return outputs.size;
+	}
+
+	/**
+	 * @return the number of expected outputs covered
+	 */
+	public int getCoveredCount() {
+		int covered = 0;
+		for (int i = 0; i < outputs.size; i++) {
+			covered += outputs.flag[i];
+		}
+		return covered;
+	}
+
+	public int getResultCount() {
+		return results.size;
+	}
+
+	/**
+	 * @param status
+	 *            a status
+	 * @return the number of results with that status
+	 */
+	public int getResultCount(Status status) {
+		int count = 0;
+		for (int i = 0; i < results.size; i++) {
+			if (results.flag[i] == status.ordinal()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	String getSiteClass(int site) {
+		return classes.get(site);
+	}
+
+	String getSiteMethod(int site) {
+		return methods.get(site);
+	}
+
+	/**
+	 * @return the inputs, loads, logs, passes, failures and unexpected inputs
+	 *         of a site
+	 */
+	long[] getSiteCounters(int site) {
+		return siteCounters.get(site);
+	}
+
+	long getOutputHigh(int output) {
+		return outputs.high[output];
+	}
+
+	long getOutputLow(int output) {
+		return outputs.low[output];
+	}
+
+	int getOutputSite(int output) {
+		return outputs.site[output];
+	}
+
+	boolean isOutputCovered(int output) {
+		return outputs.flag[output] != 0;
+	}
+
+	long getResultHigh(int result) {
+		return results.high[result];
+	}
+
+	long getResultLow(int result) {
+		return results.low[result];
+	}
+
+	int getResultSite(int result) {
+		return results.site[result];
+	}
+
+	Status getResultStatus(int result) {
+		return statuses[results.flag[result]];
+	}
+
+	/**
+	 * @return the id of the site with a class and method, or -1 if there is
+	 *         none
+	 */
+	int findSite(String clazz, String method) {
+		Integer id = siteIds.get(clazz + '#' + method);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return the number of the output with a hash, or -1 if there is none
+	 */
+	int findOutput(long high, long low) {
+		return outputs.find(high, low);
+	}
+
+	/**
+	 * @return the number of the result with a hash, or -1 if there is none
+	 */
+	int findResult(long high, long low) {
+		return results.find(high, low);
+	}
+
+	long getResultTime(int result) {
+		return results.time[result];
+	}
+
+	@Override
+	public String toString() {
+		return getSiteCount() + " call sites, " + getCoveredCount() + " / " + getOutputCount() + " outputs covered, " + getResultCount() + " results ("
+				+ getResultCount(Status.PASSED) + " passed, " + getResultCount(Status.FAILED) + " failed, " + getResultCount(Status.INCOMPLETE) + " incomplete)";
+	}
+
+	/**
+	 * Entries keyed by 128 bit hashes, in parallel arrays with an open
+	 * addressing index, so that merging is linear.
+	 */
+	private static final class Entries {
+		long[] high = new long[16], low = new long[16], time = new long[16];
+		int[] site = new int[16];
+		byte[] flag = new byte[16];
+		int size;
+
+		/**
+		 * Entry number + 1 by slot, 0 for an empty slot. Kept at least twice
+		 * the capacity of the arrays.
+		 */
+		private int[] index = new int[32];
+
+		/**
+		 * Finds the entry of a hash, adding it if it is new.
+		 *
+		 * @return the entry number, equal to the former size if it is new
+		 */
+		int put(long high, long low, int site) {
+			if (size == this.high.length) {
+				ensureCapacity(size * 2);
+			}
+			int mask = index.length - 1;
+			int slot = (int) (low ^ high) & mask;
+			while (index[slot] != 0) {
+				int entry = index[slot] - 1;
+				if (this.low[entry] == low && this.high[entry] == high) {
+					return entry;
+				}
+				slot = (slot + 1) & mask;
+			}
+			int entry = size++;
+			this.high[entry] = high;
+			this.low[entry] = low;
+			this.site[entry] = site;
+			index[slot] = entry + 1;
+			return entry;
+		}
+
+		/**
+		 * @return the entry number of a hash, or -1 if it is not present
+		 */
+		int find(long high, long low) {
+			int mask = index.length - 1;
+			int slot = (int) (low ^ high) & mask;
+			while (index[slot] != 0) {
+				int entry = index[slot] - 1;
+				if (this.low[entry] == low && this.high[entry] == high) {
+					return entry;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		void ensureCapacity(int capacity) {
+			if (capacity > high.length) {
+				high = Arrays.copyOf(high, capacity);
+				low = Arrays.copyOf(low, capacity);
+				time = Arrays.copyOf(time, capacity);
+				site = Arrays.copyOf(site, capacity);
+				flag = Arrays.copyOf(flag, capacity);
+			}
+			if (capacity * 2 > index.length) {
+				reindex(Integer.highestOneBit(capacity * 2 - 1) << 1);
+			}
+		}
+
+		private void reindex(int slots) {
+			index = new int[slots];
+			int mask = slots - 1;
+			for (int entry = 0; entry < size; entry++) {
+				int slot = (int) (low[entry] ^ high[entry]) & mask;
+				while (index[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				index[slot] = entry + 1;
+			}
+		}
+	}
+}
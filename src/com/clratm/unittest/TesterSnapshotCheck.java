@@ -0,0 +1,102 @@
+/*
+ * File: TesterSnapshotCheck.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import com.clratm.unittest.Result.Status;
+
+/**
+ * Checks that merging snapshots keeps the worse status of a case, whichever
+ * snapshot comes first, and the coverage of every run. Two epochs of a tester
+ * run the same cases, one of which fails only in the second, and each is
+ * saved to a snapshot. Exits with status 1 if a check fails.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+public class TesterSnapshotCheck {
+
+	private static final Tester tester = Tester.INSTANCE_5;
+
+	private static int failures = 0;
+
+	/**
+	 * Runs the checks.
+	 *
+	 * @param args
+	 *            not used
+	 * @throws UnIdentifiableException
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws UnIdentifiableException, IOException {
+		Path passing = Files.createTempFile("passing", ".snapshot");
+		Path failing = Files.createTempFile("failing", ".snapshot");
+		Path merged = Files.createTempFile("merged", ".snapshot");
+		try {
+			tester.enable(true);
+			square(3, false);
+			square(4, false);
+			tester.snapshot(passing);
+			tester.newEpoch();
+			square(3, true);
+			square(4, false);
+			tester.snapshot(failing);
+
+			TesterSnapshot first = TesterSnapshot.read(passing);
+			check("first run passed both cases", first.getResultCount(Status.PASSED) == 2);
+			TesterSnapshot second = TesterSnapshot.read(failing);
+			check("second run failed one case", second.getResultCount(Status.FAILED) == 1);
+
+			TesterSnapshot union = TesterSnapshot.merge(merged, Arrays.asList(passing, failing));
+			check("passed then failed merges to failed (" + union + ")", union.getResultCount(Status.FAILED) == 1 && union.getResultCount(Status.PASSED) == 1);
+			union = TesterSnapshot.merge(merged, Arrays.asList(failing, passing));
+			check("failed then passed merges to failed (" + union + ")", union.getResultCount(Status.FAILED) == 1 && union.getResultCount(Status.PASSED) == 1);
+			check("merged file reads back the same", TesterSnapshot.read(merged).getResultCount(Status.FAILED) == 1);
+			check("outputs covered in either run stay covered (" + union.getCoveredCount() + " of " + union.getOutputCount() + ")",
+					union.getCoveredCount() == 2 && union.getOutputCount() == 2);
+		} finally {
+			Files.delete(passing);
+			Files.delete(failing);
+			Files.delete(merged);
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " snapshot checks failed");
+			System.exit(1);
+		}
+		System.out.println("All snapshot checks passed");
+	}
+
+	/**
+	 * The tested method.
+	 *
+	 * @param x
+	 *            the number to square
+	 * @param broken
+	 *            true to return a wrong square
+	 * @return the square, or one more
+	 * @throws UnIdentifiableException
+	 */
+	private static int square(int x, boolean broken) throws UnIdentifiableException {
+		tester.input(3, 9);
+		tester.input(4, 16);
+		tester.load(x);
+		int square = broken ? x * x + 1 : x * x;
+		tester.log(square);
+		return square;
+	}
+
+	private static void check(String what, boolean passed) {
+		System.out.println((passed ? "ok      " : "FAILED  ") + what);
+		if (!passed) {
+			failures++;
+		}
+	}
+}
@@ -8,8 +8,10 @@ package com.clratm.unittest;
 
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A collection of methods that assist the Tester.
@@ -18,6 +20,53 @@ import java.util.Arrays;
  */
 public class TesterUtils {
 
+	private static final byte[] SEPARATOR = { ',', ' ' };
+	private static final byte[] SET = { '{', 's', 'e', 't', ':' };
+	private static final byte[] MAP = { '{', 'm', 'a', 'p', ':' };
+
+	/**
+	 * If true, objects that implement neither id() nor toString() are
+	 * identified by the values of their fields instead of being rejected.
+	 */
+	private static volatile boolean structuralIdentity = false;
+
+	/**
+	 * Primitive arrays with at least this many elements are identified by
+	 * hashing fixed-size chunks of their binary representation on the
+	 * fork-join pool and combining the chunk hashes in a tree, instead of
+	 * element by element. It is a constant, since the two paths produce
+	 * different bytes and an expected array must be identified the same way
+	 * by every tester and every run.
+	 */
+	static final int parallelArrayThreshold = 1 << 20;
+
+	/**
+	 * Enables or disables structural identity. When enabled, an object with no
+	 * other way to be identified, like a Car, is identified by walking its
+	 * fields, in the same form as the encoders generated for {@link Identity}
+	 * classes. Disabled by default.
+	 * 
+	 * @param enabled
+	 *            if true, identify plain objects by their fields
+	 */
+	public static void setStructuralIdentity(boolean enabled) {
+		structuralIdentity = enabled;
+	}
+
+	/**
+	 * Sets how many objects deep a structural identity may go before the
+	 * object is considered unidentifiable. Default is 16.
+	 * 
+	 * @param limit
+	 *            the maximum nesting depth, at least 1
+	 */
+	public static void setStructuralDepthLimit(int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("The depth limit must be at least 1");
+		}
+		StructuralEncoder.depthLimit = limit;
+	}
+
 	/**
 	 * <p>
 	 * Compliments of Apache Commons 3.1.
@@ -97,7 +146,11 @@ public class TesterUtils {
 		if (toPrint == null) {
 			return toReturn;
 		}
-		if (toPrint.getClass().isPrimitive()) {
+		String generated = generatedId(toPrint);
+		if (generated != null) {
+			// the generated encoder knows how to identify it
+			toReturn = generated;
+		} else if (toPrint.getClass().isPrimitive()) {
 			// we can ID primitives using toString
 			toReturn = toPrint.toString();
 		} else if (toPrint.getClass().isArray()) {
@@ -169,6 +222,11 @@ public class TesterUtils {
 		} else if (!(toPrint.toString().equalsIgnoreCase(toPrint.getClass().getName() + '@' + Integer.toHexString(toPrint.hashCode())))) {
 			// then we can use the toString method to identify it
 			toReturn = toPrint.toString();
+		} else if (structuralIdentity) {
+			// print the values of its fields
+			ByteArraySink sink = new ByteArraySink();
+			StructuralEncoder.encodeObject(toPrint, sink);
+			toReturn = sink.toString();
 		} else {
 			// we have no way to id the object
 			throw new UnIdentifiableException();
@@ -195,80 +253,65 @@ public class TesterUtils {
 	 * @throws UnIdentifiableException
 	 */
 	public static byte[] byteify(Object toConvert) throws UnIdentifiableException {
-		byte[] out;
-		if (toConvert.getClass().isPrimitive()) {
-			// we can ID primitives using toString
-			out = null;
-			try {
-				out = toConvert.toString().getBytes("UTF-8");
-			} catch (UnsupportedEncodingException e) {
-				e.printStackTrace();
-			}
+		ByteArraySink sink = new ByteArraySink();
+		byteify(toConvert, sink);
+		return sink.toByteArray();
+	}
 
-		} else if (toConvert.getClass().isArray()) {
-			if (Array.getLength(toConvert) >= 1) {
-				if (toConvert.getClass().getComponentType().isPrimitive()) {
+	/**
+	 * Writes the bytes representing the input object to a sink, without
+	 * building an intermediate array.
+	 * 
+	 * @param toConvert
+	 *            the object to convert
+	 * @param sink
+	 *            receives the bytes representing the object
+	 * @throws UnIdentifiableException
+	 */
+	public static void byteify(Object toConvert, FingerprintSink sink) throws UnIdentifiableException {
+		Class<?> type = toConvert.getClass();
+		IdentityEncoder<Object> encoder = encoders.get(type);
+
+		if (encoder != null) {
+			// a field by field encoder was generated for this class
+			encoder.encode(toConvert, sink);
+
+		} else if (type == String.class || type == Integer.class || type == Long.class || type == Boolean.class || type == Character.class || type == Double.class
+				|| type == Float.class || type == Short.class || type == Byte.class) {
+			// we can ID primitives and Strings using toString
+			sink.put(toConvert.toString());
+
+		} else if (type.isArray()) {
+			int length = Array.getLength(toConvert);
+			if (length >= 1) {
+				Class<?> componentType = type.getComponentType();
+				if (componentType.isPrimitive() && length >= parallelArrayThreshold) {
+					// too large to stringify each element on this thread
+					ArrayTreeHasher.byteify(toConvert, componentType, sink);
+
+				} else if (componentType.isPrimitive()) {
 					// we can id primitives using toString
 					// combine the id to get the overall id
-					ArrayList<Byte> listBytes = new ArrayList<Byte>();
-					for (int i = 0; i < Array.getLength(toConvert); i++) {
-						try {
-							for (int j = 0; j < Array.get(toConvert, i).toString().getBytes("UTF-8").length; j++) {
-								listBytes.add(Array.get(toConvert, i).toString().getBytes("UTF-8")[j]);
-							}
-						} catch (ArrayIndexOutOfBoundsException e) {
-							e.printStackTrace();
-						} catch (UnsupportedEncodingException e) {
-							e.printStackTrace();
-						}
-					}
-					out = new byte[listBytes.size()];
-					for (int k = 0; k < listBytes.size(); k++) {
-						out[k] = listBytes.get(k);
-					}
+					byteifyPrimitives(toConvert, componentType, sink);
 
-				} else if (Identifiable.class.isAssignableFrom(toConvert.getClass().getComponentType())) {
+				} else if (Identifiable.class.isAssignableFrom(componentType)) {
 					// then we can id the elements in the array, and combine
 					// them to get the overall id
-					ArrayList<Byte> listBytes = new ArrayList<Byte>();
-					for (int i = 0; i < Array.getLength(toConvert); i++) {
-						try {
-							for (int j = 0; j < ((Identifiable) Array.get(toConvert, i)).id().getBytes("UTF-8").length; j++) {
-								listBytes.add(((Identifiable) Array.get(toConvert, i)).id().getBytes("UTF-8")[j]);
-							}
-						} catch (ArrayIndexOutOfBoundsException | UnsupportedEncodingException e) {
-							e.printStackTrace();
-						}
+					Object[] elements = (Object[]) toConvert;
+					for (int i = 0; i < length; i++) {
+						sink.put(((Identifiable) elements[i]).id());
 					}
 
-					out = new byte[listBytes.size()];
-
-					for (int k = 0; k < listBytes.size(); k++) {
-						out[k] = listBytes.get(k);
-					}
-
-				} else if (checkArray(toConvert)) { // if to string can be used
-					ArrayList<Byte> listBytes = new ArrayList<Byte>();
-
-					for (int i = 0; i < Array.getLength(toConvert); i++) {
-						try {
-							byte[] row = byteify(Array.get(toConvert, i));
-							for (int j = 0; j < row.length; j++) {
-								listBytes.add(row[j]);
-							}
-						} catch (ArrayIndexOutOfBoundsException e) {
-							e.printStackTrace();
+				} else { // if to string can be used
+					Object[] elements = (Object[]) toConvert;
+					try {
+						for (int i = 0; i < length; i++) {
+							byteify(elements[i], sink);
 						}
+					} catch (UnIdentifiableException e) {
+						// we can't ID the components in the array
+						throw new UnIdentifiableException("The components in the array are unidentifable");
 					}
-
-					out = new byte[listBytes.size()];
-
-					for (int k = 0; k < listBytes.size(); k++) {
-						out[k] = listBytes.get(k);
-					}
-
-				} else { // we can't ID the components in the array
-					throw new UnIdentifiableException("The components in the array are unidentifable");
 				}
 
 			} else {
@@ -278,28 +321,235 @@ public class TesterUtils {
 				throw new UnIdentifiableException("Cannot ID an empty array");
 			}
 
-		} else if (Identifiable.class.isAssignableFrom(toConvert.getClass())) {
+		} else if (Identifiable.class.isAssignableFrom(type)) {
 			// we can call the id method to get a unique identifier
-			out = null;
-			try {
-				out = ((Identifiable) toConvert).id().getBytes("UTF-8");
-			} catch (UnsupportedEncodingException e) {
-				e.printStackTrace();
+			sink.put(((Identifiable) toConvert).id());
+
+		} else if (toConvert instanceof Set) {
+			byteifySet((Set<?>) toConvert, sink);
+
+		} else if (toConvert instanceof Collection) {
+			byteifyCollection((Collection<?>) toConvert, sink);
+
+		} else if (toConvert instanceof Map) {
+			byteifyMap((Map<?, ?>) toConvert, sink);
+
+		} else {
+			String asString = toConvert.toString();
+			if (!(asString.equalsIgnoreCase(type.getName() + '@' + Integer.toHexString(toConvert.hashCode())))) {
+				// then we can use the toString method to identify it
+				sink.put(asString);
+			} else if (structuralIdentity) {
+				// identify it by the values of its fields
+				StructuralEncoder.encodeObject(toConvert, sink);
+			} else {
+				// we have no way to id the object
+				throw new UnIdentifiableException("Please implement the identifable interface");
 			}
+		}
+	}
 
-		} else if (!(toConvert.toString().equalsIgnoreCase(toConvert.getClass().getName() + '@' + Integer.toHexString(toConvert.hashCode())))) {
-			// then we can use the toString method to identify it
-			out = null;
-			try {
-				out = toConvert.toString().getBytes("UTF-8");
-			} catch (UnsupportedEncodingException e) {
-				e.printStackTrace();
+	/**
+	 * Writes the elements of an ordered collection in iteration order. For
+	 * elements identified by toString this produces the same bytes as the
+	 * collection's own toString, without building it.
+	 * 
+	 * @param collection
+	 *            the collection to write
+	 * @param sink
+	 *            receives the bytes
+	 * @throws UnIdentifiableException
+	 */
+	private static void byteifyCollection(Collection<?> collection, FingerprintSink sink) throws UnIdentifiableException {
+		sink.put('[');
+		boolean first = true;
+		for (Object element : collection) {
+			if (!first) {
+				sink.put(SEPARATOR);
 			}
+			first = false;
+			if (element == collection) {
+				sink.put("(this Collection)");
+			} else {
+				byteifyElement(element, sink);
+			}
+		}
+		sink.put(']');
+	}
+
+	/**
+	 * Writes a set so that equal sets produce the same bytes whatever their
+	 * iteration order: every element is hashed on its own and the hashes are
+	 * added together, which does not depend on the order they are added in.
+	 * The bytes differ from the set's toString, so an expected output given
+	 * as that String no longer matches a set; the set itself is registered
+	 * instead.
+	 * 
+	 * @param set
+	 *            the set to write
+	 * @param sink
+	 *            receives the bytes
+	 * @throws UnIdentifiableException
+	 */
+	private static void byteifySet(Set<?> set, FingerprintSink sink) throws UnIdentifiableException {
+		DigestSink element = new DigestSink();
+		long high = 0, low = 0;
+		int count = 0;
+		for (Object member : set) {
+			element.reset();
+			byteifyElement(member, element);
+			byte[] digest = element.digest();
+			high += bytesToLong(digest, 0);
+			low += bytesToLong(digest, 8);
+			count++;
+		}
+		sink.put(SET);
+		sink.put(count);
+		sink.put(longToBytes(high));
+		sink.put(longToBytes(low));
+	}
+
+	/**
+	 * Writes a map so that equal maps produce the same bytes whatever their
+	 * iteration order. Each entry is hashed as the hash of its key followed by
+	 * its value, and the entry hashes are added together. Like a set, a map no
+	 * longer matches an expected output given as its toString.
+	 * 
+	 * @param map
+	 *            the map to write
+	 * @param sink
+	 *            receives the bytes
+	 * @throws UnIdentifiableException
+	 */
+	private static void byteifyMap(Map<?, ?> map, FingerprintSink sink) throws UnIdentifiableException {
+		DigestSink key = new DigestSink();
+		DigestSink entry = new DigestSink();
+		long high = 0, low = 0;
+		int count = 0;
+		for (Map.Entry<?, ?> mapping : map.entrySet()) {
+			key.reset();
+			byteifyElement(mapping.getKey(), key);
+			entry.reset();
+			entry.put(key.digest());
+			byteifyElement(mapping.getValue(), entry);
+			byte[] digest = entry.digest();
+			high += bytesToLong(digest, 0);
+			low += bytesToLong(digest, 8);
+			count++;
+		}
+		sink.put(MAP);
+		sink.put(count);
+		sink.put(longToBytes(high));
+		sink.put(longToBytes(low));
+	}
+
+	/**
+	 * Writes an element of a collection, which unlike a value passed to the
+	 * tester may be null.
+	 */
+	private static void byteifyElement(Object element, FingerprintSink sink) throws UnIdentifiableException {
+		if (element == null) {
+			sink.put((String) null);
 		} else {
-			// we have no way to id the object
-			throw new UnIdentifiableException("Please implement the identifable interface");
+			byteify(element, sink);
 		}
+	}
+
+	/**
+	 * Reads eight bytes, most significant first, as a long.
+	 * 
+	 * @param bytes
+	 *            the bytes to read
+	 * @param offset
+	 *            the index of the first byte
+	 * @return the long
+	 */
+	public static long bytesToLong(byte[] bytes, int offset) {
+		long v = 0;
+		for (int i = 0; i < 8; i++) {
+			v = (v << 8) | (bytes[offset + i] & 0xff);
+		}
+		return v;
+	}
+
+	/**
+	 * Writes each element of a primitive array, one after the other.
+	 * 
+	 * @param array
+	 *            the array to write
+	 * @param componentType
+	 *            the primitive type of its elements
+	 * @param sink
+	 *            receives the bytes
+	 */
+	private static void byteifyPrimitives(Object array, Class<?> componentType, FingerprintSink sink) {
+		if (componentType == int.class) {
+			for (int v : (int[]) array)
+				sink.put(v);
+		} else if (componentType == long.class) {
+			for (long v : (long[]) array)
+				sink.put(v);
+		} else if (componentType == double.class) {
+			for (double v : (double[]) array)
+				sink.put(v);
+		} else if (componentType == byte.class) {
+			for (byte v : (byte[]) array)
+				sink.put(v);
+		} else if (componentType == boolean.class) {
+			for (boolean v : (boolean[]) array)
+				sink.put(v);
+		} else if (componentType == short.class) {
+			for (short v : (short[]) array)
+				sink.put(v);
+		} else if (componentType == float.class) {
+			for (float v : (float[]) array)
+				sink.put(v);
+		} else {
+			for (char v : (char[]) array)
+				sink.put(v);
+		}
+	}
 
-		return out;
+	/**
+	 * Finds the generated encoder of each class annotated with
+	 * {@link Identity}, once per class.
+	 */
+	private static final ClassValue<IdentityEncoder<Object>> encoders = new ClassValue<IdentityEncoder<Object>>() {
+		@Override
+		@SuppressWarnings("unchecked")
+		protected IdentityEncoder<Object> computeValue(Class<?> type) {
+			if (!type.isAnnotationPresent(Identity.class)) {
+				return null;
+			}
+			String name = type.getName();
+			String packageName = type.getPackage() == null ? "" : type.getPackage().getName();
+			String simpleName = (packageName.isEmpty() ? name : name.substring(packageName.length() + 1)).replace('$', '_');
+			try {
+				Class<?> generated = Class.forName((packageName.isEmpty() ? "" : packageName + ".") + simpleName + "_Identity", true, type.getClassLoader());
+				return (IdentityEncoder<Object>) generated.getField("INSTANCE").get(null);
+			} catch (ReflectiveOperationException e) {
+				// the processor did not run, so fall back to id() or toString
+				return null;
+			}
+		}
+	};
+
+	/**
+	 * Returns the canonical identity of an object of a class annotated with
+	 * {@link Identity}, or null if no encoder was generated for it.
+	 * 
+	 * @param o
+	 *            the object to identify
+	 * @return the String written by its generated encoder
+	 * @throws UnIdentifiableException
+	 */
+	static String generatedId(Object o) throws UnIdentifiableException {
+		IdentityEncoder<Object> encoder = encoders.get(o.getClass());
+		if (encoder == null) {
+			return null;
+		}
+		ByteArraySink sink = new ByteArraySink();
+		encoder.encode(o, sink);
+		return sink.toString();
 	}
 }
\ No newline at end of file
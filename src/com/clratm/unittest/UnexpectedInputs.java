@@ -0,0 +1,182 @@
+/*
+ * File: UnexpectedInputs.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An aggregate of the inputs one call site loaded without registering them.
+ * Rather than keeping every unexpected input, it counts them, estimates how
+ * many distinct values there were with a HyperLogLog sketch, and keeps a
+ * uniform sample of a few examples. An example is only the printed value of
+ * the input, cut to the width of a report column, so no reference to the
+ * input itself is retained.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+final class UnexpectedInputs {
+
+	/**
+	 * The number of examples kept per call site.
+	 */
+	static final int examples = 8;
+
+	/**
+	 * The sketch has 2^precision registers, for a standard error of about
+	 * 1.04 / sqrt(2^precision), 3% here.
+	 */
+	private static final int precision = 10;
+	private static final int registers = 1 << precision;
+
+	/**
+	 * The registers of the sketch, one byte each, four to an int.
+	 */
+	private final AtomicIntegerArray sketch = new AtomicIntegerArray(registers / 4);
+
+	/**
+	 * The reservoir of examples.
+	 */
+	private final AtomicReferenceArray<Example> reservoir = new AtomicReferenceArray<Example>(examples);
+
+	/**
+	 * The number of unexpected inputs offered to the reservoir.
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * One retained unexpected input.
+	 */
+	static final class Example {
+		final String preview;
+		final long threadId, time;
+
+		/**
+		 * Where the example is kept, so the tester can evict it.
+		 */
+		final UnexpectedInputs owner;
+		final int slot;
+
+		Example(UnexpectedInputs owner, int slot, String preview, long threadId, long time) {
+			this.owner = owner;
+			this.slot = slot;
+			this.preview = preview;
+			this.threadId = threadId;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * Counts an unexpected input and decides whether it becomes an example,
+	 * following Algorithm R: the n-th input replaces a random example with
+	 * probability examples / n.
+	 *
+	 * @param hash
+	 *            a 64 bit hash of the value of the input, equal for equal
+	 *            values
+	 * @return the slot the input should be kept in, or -1 if it is not kept
+	 */
+	int offer(long hash) {
+		add(hash);
+		long n = count.incrementAndGet();
+		if (n <= examples) {
+			return (int) (n - 1);
+		}
+		long slot = ThreadLocalRandom.current().nextLong(n);
+		return slot < examples ? (int) slot : -1;
+	}
+
+	/**
+	 * Keeps an example in the slot returned by {@link #offer(long)}.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param preview
+	 *            the printed input, already cut to size
+	 * @return the example
+	 */
+	Example keep(int slot, String preview) {
+		Example example = new Example(this, slot, preview, Thread.currentThread().getId(), System.currentTimeMillis());
+		reservoir.set(slot, example);
+		return example;
+	}
+
+	/**
+	 * Drops an example, unless it has been replaced already.
+	 *
+	 * @param example
+	 *            the example
+	 */
+	void evict(Example example) {
+		reservoir.compareAndSet(example.slot, example, null);
+	}
+
+	/**
+	 * @return the examples currently kept
+	 */
+	List<Example> examples() {
+		List<Example> kept = new ArrayList<Example>();
+		for (int i = 0; i < examples; i++) {
+			Example example = reservoir.get(i);
+			if (example != null) {
+				kept.add(example);
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * @return the number of unexpected inputs seen
+	 */
+	long count() {
+		return count.get();
+	}
+
+	/**
+	 * Adds a hash to the sketch: the register chosen by its top bits keeps
+	 * the longest run of leading zeros seen in the remaining bits.
+	 */
+	private void add(long hash) {
+		int register = (int) (hash >>> (Long.SIZE - precision));
+		int rank = Math.min(Long.numberOfLeadingZeros(hash << precision), Long.SIZE - precision) + 1;
+		int index = register >>> 2;
+		int shift = (register & 3) * 8;
+		int current;
+		do {
+			current = sketch.get(index);
+			if (((current >>> shift) & 0xff) >= rank) {
+				return;
+			}
+		} while (!sketch.compareAndSet(index, current, (current & ~(0xff << shift)) | (rank << shift)));
+	}
+
+	/**
+	 * @return the estimated number of distinct unexpected inputs
+	 */
+	long distinct() {
+		double sum = 0;
+		int zeros = 0;
+		for (int i = 0; i < registers; i++) {
+			int rank = (sketch.get(i >>> 2) >>> ((i & 3) * 8)) & 0xff;
+			sum += 1.0 / (1L << rank);
+			if (rank == 0) {
+				zeros++;
+			}
+		}
+		double alpha = 0.7213 / (1 + 1.079 / registers);
+		double estimate = alpha * registers * registers / sum;
+		if (estimate <= 2.5 * registers && zeros > 0) {
+			// few values, count the empty registers instead
+			estimate = registers * Math.log((double) registers / zeros);
+		}
+		return Math.round(estimate);
+	}
+}
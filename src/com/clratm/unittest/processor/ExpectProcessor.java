@@ -0,0 +1,302 @@
+/*
+ * File: ExpectProcessor.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.clratm.unittest.Expect;
+import com.clratm.unittest.ExpectationRegistry;
+import com.clratm.unittest.Expects;
+import com.clratm.unittest.Tester;
+
+/**
+ * Turns {@link Expect} declarations into one generated
+ * {@link ExpectationRegistry} per class. The hashes that input() would
+ * otherwise compute on every call are computed here instead, using the same
+ * byte layout as the tester: the UTF-8 value followed by the calling class and
+ * method names.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+@SupportedAnnotationTypes({ "com.clratm.unittest.Expect", "com.clratm.unittest.Expects" })
+public class ExpectProcessor extends AbstractProcessor {
+
+	/**
+	 * Suffix of the generated registry classes.
+	 */
+	private static final String suffix = "_Expectations";
+
+	/**
+	 * Registries generated in every round so far, written to the service file
+	 * in the last round.
+	 */
+	private final Set<String> registries = new LinkedHashSet<String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		if (roundEnv.processingOver()) {
+			writeServiceFile();
+			return false;
+		}
+
+		// group the declarations by the class that declares them
+		Map<TypeElement, List<ExecutableElement>> byClass = new LinkedHashMap<TypeElement, List<ExecutableElement>>();
+		for (TypeElement annotation : annotations) {
+			for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+				TypeElement owner = (TypeElement) element.getEnclosingElement();
+				List<ExecutableElement> methods = byClass.get(owner);
+				if (methods == null) {
+					methods = new ArrayList<ExecutableElement>();
+					byClass.put(owner, methods);
+				}
+				if (!methods.contains(element)) {
+					methods.add((ExecutableElement) element);
+				}
+			}
+		}
+
+		for (Map.Entry<TypeElement, List<ExecutableElement>> entry : byClass.entrySet()) {
+			try {
+				generate(entry.getKey(), entry.getValue());
+			} catch (IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write expectation registry: " + e.getMessage(), entry.getKey());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the registry for a single class.
+	 *
+	 * @param owner
+	 *            the class declaring the expectations
+	 * @param methods
+	 *            its annotated methods and constructors
+	 * @throws IOException
+	 */
+	private void generate(TypeElement owner, List<ExecutableElement> methods) throws IOException {
+		String className = processingEnv.getElementUtils().getBinaryName(owner).toString();
+		String packageName = processingEnv.getElementUtils().getPackageOf(owner).getQualifiedName().toString();
+		String simpleName = (packageName.isEmpty() ? className : className.substring(packageName.length() + 1)).replace('$', '_') + suffix;
+		String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+
+		List<String[]> rows = new ArrayList<String[]>();
+		for (ExecutableElement method : methods) {
+			String methodName = method.getSimpleName().toString();
+			if (returnsSetOrMap(method)) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+						"@Expect cannot declare the output of a method returning a Set or Map, whose fingerprint is not its toString; register the expected value with input() instead",
+						method);
+				continue;
+			}
+			for (Expect expect : method.getAnnotationsByType(Expect.class)) {
+				if (expect.tester() < 0 || expect.tester() >= Tester.values().length) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "There is no tester number " + expect.tester(), method);
+					continue;
+				}
+				rows.add(new String[] { Integer.toString(expect.tester()), methodName, expect.input(), expect.output(), digest(expect.input(), className, methodName),
+						digest(expect.output(), className, methodName) });
+			}
+		}
+
+		Writer out = processingEnv.getFiler().createSourceFile(qualifiedName, owner).openWriter();
+		PrintWriter writer = new PrintWriter(out);
+		try {
+			if (!packageName.isEmpty()) {
+				writer.println("package " + packageName + ";");
+				writer.println();
+			}
+			writer.println("/**");
+			writer.println(" * Expectations declared in " + className + ". Generated by ExpectProcessor, do not edit.");
+			writer.println(" */");
+			writer.println("public final class " + simpleName + " implements com.clratm.unittest.ExpectationRegistry {");
+			writer.println();
+			writer.println("\tprivate static final String CLASS_NAME = " + literal(className) + ";");
+			writer.println();
+			writer.println("\t// tester number, method, input, expected output, input hash, coverage hash");
+			writer.println("\tprivate static final String[][] EXPECTATIONS = {");
+			for (String[] row : rows) {
+				writer.print("\t\t\t{ ");
+				for (int i = 0; i < row.length; i++) {
+					writer.print((i == 0 ? "" : ", ") + literal(row[i]));
+				}
+				writer.println(" },");
+			}
+			writer.println("\t};");
+			writer.println();
+			writer.println("\t@Override");
+			writer.println("\tpublic void register(com.clratm.unittest.Tester tester) {");
+			writer.println("\t\tString number = Integer.toString(tester.ordinal());");
+			writer.println("\t\tfor (String[] expectation : EXPECTATIONS) {");
+			writer.println("\t\t\tif (expectation[0].equals(number)) {");
+			writer.println("\t\t\t\ttester.declare(CLASS_NAME, expectation[1], expectation[2], expectation[3], expectation[4], expectation[5]);");
+			writer.println("\t\t\t}");
+			writer.println("\t\t}");
+			writer.println("\t}");
+			writer.println("}");
+		} finally {
+			writer.close();
+		}
+		registries.add(qualifiedName);
+	}
+
+	/**
+	 * Sets and maps are identified by the sum of the hashes of their elements
+	 * or entries rather than by their toString, so a String declared for them
+	 * could never match.
+	 *
+	 * @param method
+	 *            an annotated method or constructor
+	 * @return true, if it returns a Set or a Map
+	 */
+	private boolean returnsSetOrMap(ExecutableElement method) {
+		Types types = processingEnv.getTypeUtils();
+		TypeMirror returned = types.erasure(method.getReturnType());
+		for (String collection : new String[] { "java.util.Set", "java.util.Map" }) {
+			TypeElement type = processingEnv.getElementUtils().getTypeElement(collection);
+			if (type != null && types.isAssignable(returned, types.erasure(type.asType()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Lists every generated registry so the tester can find them through the
+	 * ServiceLoader. An incremental build only processes the classes that
+	 * changed, so the registries listed by the previous build are kept as long
+	 * as their classes still exist.
+	 */
+	private void writeServiceFile() {
+		String name = "META-INF/services/" + ExpectationRegistry.class.getName();
+		Set<String> listed = new LinkedHashSet<String>();
+		boolean stale = false;
+		try {
+			FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", name);
+			BufferedReader reader = new BufferedReader(existing.openReader(true));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.isEmpty()) {
+						continue;
+					}
+					if (processingEnv.getElementUtils().getTypeElement(line) != null) {
+						listed.add(line);
+					} else {
+						stale = true;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			// there is no service file yet
+		}
+		if (!stale && listed.containsAll(registries)) {
+			return;
+		}
+		listed.addAll(registries);
+
+		try {
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", name);
+			PrintWriter writer = new PrintWriter(file.openWriter());
+			try {
+				for (String registry : listed) {
+					writer.println(registry);
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write expectation service file: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Hashes a value the way the tester does when the value is registered
+	 * without a thread ID.
+	 *
+	 * @param value
+	 *            the String identifying the value
+	 * @param className
+	 *            the binary name of the calling class
+	 * @param methodName
+	 *            the name of the calling method
+	 * @return the hex MD5 hash
+	 * @throws UnsupportedEncodingException
+	 */
+	static String digest(String value, String className, String methodName) throws UnsupportedEncodingException {
+		MessageDigest md5;
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		md5.update(value.getBytes("UTF-8"));
+		md5.update(className.getBytes("UTF-8"));
+		md5.update(methodName.getBytes("UTF-8"));
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : md5.digest()) {
+			hex.append(Character.forDigit((b >>> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Quotes a String as a Java literal.
+	 *
+	 * @param value
+	 *            the String to quote
+	 * @return the literal
+	 */
+	static String literal(String value) {
+		StringBuilder out = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20 || c > 0x7e) {
+				out.append(String.format("\\u%04x", (int) c));
+			} else {
+				out.append(c);
+			}
+		}
+		return out.append('"').toString();
+	}
+}
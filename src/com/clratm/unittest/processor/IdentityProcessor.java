@@ -0,0 +1,218 @@
+/*
+ * File: IdentityProcessor.java
+ * Copyright 2014 Alexander Meijer and Christopher Rung
+ * January 28, 2014
+ */
+
+package com.clratm.unittest.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import com.clratm.unittest.Identity;
+
+/**
+ * Generates a field by field {@link com.clratm.unittest.IdentityEncoder} for
+ * every class annotated with {@link Identity}. Field names and separators are
+ * turned into byte constants here, so at runtime identifying an object only
+ * reads its fields and writes them to the sink.
+ *
+ * @author Alex Meijer and Christopher Rung
+ */
+@SupportedAnnotationTypes("com.clratm.unittest.Identity")
+public class IdentityProcessor extends AbstractProcessor {
+
+	/**
+	 * Suffix of the generated encoder classes.
+	 */
+	private static final String suffix = "_Identity";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getElementsAnnotatedWith(Identity.class)) {
+			if (element.getKind() != ElementKind.CLASS) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Identity can only be used on classes", element);
+				continue;
+			}
+			try {
+				generate((TypeElement) element);
+			} catch (IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write identity encoder: " + e.getMessage(), element);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the encoder for a single class.
+	 *
+	 * @param type
+	 *            the annotated class
+	 * @throws IOException
+	 */
+	private void generate(TypeElement type) throws IOException {
+		String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+		String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)).replace('$', '_') + suffix;
+		String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+		String typeName = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+		List<VariableElement> fields = collectFields(type, packageName);
+		if (fields == null) {
+			return;
+		}
+
+		PrintWriter writer = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter());
+		try {
+			if (!packageName.isEmpty()) {
+				writer.println("package " + packageName + ";");
+				writer.println();
+			}
+			writer.println("/**");
+			writer.println(" * Identity encoder for " + binaryName + ". Generated by IdentityProcessor, do not edit.");
+			writer.println(" */");
+			writer.println("@SuppressWarnings(\"rawtypes\")");
+			writer.println("public final class " + simpleName + " implements com.clratm.unittest.IdentityEncoder<" + typeName + "> {");
+			writer.println();
+			writer.println("\tpublic static final " + simpleName + " INSTANCE = new " + simpleName + "();");
+			writer.println();
+
+			// the text before each field, and after the last one
+			String opening = type.getSimpleName() + "{";
+			for (int i = 0; i < fields.size(); i++) {
+				String text = (i == 0 ? opening : ", ") + fields.get(i).getSimpleName() + "=";
+				writer.println("\tprivate static final byte[] F" + i + " = " + bytes(text) + ";");
+			}
+			writer.println("\tprivate static final byte[] END = " + bytes(fields.isEmpty() ? opening + "}" : "}") + ";");
+			writer.println();
+
+			writer.println("\t@Override");
+			writer.println("\tpublic void encode(" + typeName + " value, com.clratm.unittest.FingerprintSink sink) throws com.clratm.unittest.UnIdentifiableException {");
+			for (int i = 0; i < fields.size(); i++) {
+				VariableElement field = fields.get(i);
+				writer.println("\t\tsink.put(F" + i + ");");
+				writer.println(encodeStatement(type, field));
+			}
+			writer.println("\t\tsink.put(END);");
+			writer.println("\t}");
+			writer.println();
+
+			writer.println("\t/**");
+			writer.println("\t * @return the canonical identity of the value, identical to the bytes written by encode");
+			writer.println("\t */");
+			writer.println("\tpublic static String id(" + typeName + " value) {");
+			writer.println("\t\tcom.clratm.unittest.ByteArraySink sink = new com.clratm.unittest.ByteArraySink();");
+			writer.println("\t\ttry {");
+			writer.println("\t\t\tINSTANCE.encode(value, sink);");
+			writer.println("\t\t} catch (com.clratm.unittest.UnIdentifiableException e) {");
+			writer.println("\t\t\tthrow new IllegalStateException(e);");
+			writer.println("\t\t}");
+			writer.println("\t\treturn sink.toString();");
+			writer.println("\t}");
+			writer.println("}");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Collects the instance fields of a class and its superclasses, superclass
+	 * fields first.
+	 *
+	 * @param type
+	 *            the annotated class
+	 * @param packageName
+	 *            the package the encoder is generated in
+	 * @return the fields, or null if one of them cannot be read by the encoder
+	 */
+	private List<VariableElement> collectFields(TypeElement type, String packageName) {
+		List<TypeElement> hierarchy = new ArrayList<TypeElement>();
+		for (TypeElement current = type; current != null && !current.getQualifiedName().contentEquals("java.lang.Object");) {
+			hierarchy.add(0, current);
+			TypeMirror superclass = current.getSuperclass();
+			current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+		}
+
+		List<VariableElement> fields = new ArrayList<VariableElement>();
+		boolean accessible = true;
+		for (TypeElement declaring : hierarchy) {
+			String declaringPackage = processingEnv.getElementUtils().getPackageOf(declaring).getQualifiedName().toString();
+			for (VariableElement field : ElementFilter.fieldsIn(declaring.getEnclosedElements())) {
+				Set<Modifier> modifiers = field.getModifiers();
+				if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+					continue;
+				}
+				if (modifiers.contains(Modifier.PRIVATE) || (!modifiers.contains(Modifier.PUBLIC) && !declaringPackage.equals(packageName))) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+							"Field " + field.getSimpleName() + " of " + declaring.getQualifiedName() + " is not visible to the generated identity encoder", type);
+					accessible = false;
+					continue;
+				}
+				fields.add(field);
+			}
+		}
+		return accessible ? fields : null;
+	}
+
+	/**
+	 * Writes the statement that encodes one field.
+	 *
+	 * @param type
+	 *            the annotated class
+	 * @param field
+	 *            the field to encode
+	 * @return the statement
+	 */
+	private String encodeStatement(TypeElement type, VariableElement field) {
+		TypeElement declaring = (TypeElement) field.getEnclosingElement();
+		String receiver = declaring.equals(type) ? "value" : "((" + processingEnv.getTypeUtils().erasure(declaring.asType()) + ") value)";
+		String access = receiver + "." + field.getSimpleName();
+
+		TypeMirror fieldType = field.asType();
+		if (fieldType.getKind().isPrimitive() || fieldType.toString().equals("java.lang.String")) {
+			// put() writes primitives, Strings and null Strings directly
+			return "\t\tsink.put(" + access + ");";
+		}
+		return "\t\tif (" + access + " == null) {\n\t\t\tsink.put((String) null);\n\t\t} else {\n\t\t\tsink.putObject(" + access + ");\n\t\t}";
+	}
+
+	/**
+	 * Turns text into a byte array initializer.
+	 *
+	 * @param text
+	 *            the text to encode as UTF-8
+	 * @return the initializer
+	 */
+	private static String bytes(String text) {
+		StringBuilder out = new StringBuilder("{ ");
+		byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i < encoded.length; i++) {
+			out.append(i == 0 ? "" : ", ").append(encoded[i]);
+		}
+		return out.append(" }").toString();
+	}
+}